@@ -184,27 +184,31 @@ class BatchProcessor:
         insertedCount = 0
         updatedCount = 0
         
+        # 以單一 MERGE 完成存在檢查與新增/更新 (每筆一次往返)，OUTPUT $action 回報實際動作
+        columns = list(dataFrame.columns)
+        updateColumns = [col for col in columns if col != 'Serial_No']
+        sourceClause = ', '.join([f"? AS {col}" for col in columns])
+        setClause = ', '.join([f"target.{col} = source.{col}" for col in updateColumns]) \
+            or "target.Serial_No = source.Serial_No"
+        mergeSql = (
+            f"MERGE INTO {tableName} WITH (HOLDLOCK) AS target "
+            f"USING (SELECT {sourceClause}) AS source "
+            f"ON target.Serial_No = source.Serial_No "
+            f"WHEN MATCHED THEN UPDATE SET {setClause} "
+            f"WHEN NOT MATCHED THEN INSERT ({', '.join(columns)}) "
+            f"VALUES ({', '.join([f'source.{col}' for col in columns])}) "
+            f"OUTPUT $action;"
+        )
+        
         try:
             for _, row in dataFrame.iterrows():
-                checkSql = f"SELECT COUNT(*) FROM {tableName} WHERE Serial_No = ?"
-                cursor.execute(checkSql, row['Serial_No'])
-                recordExists = cursor.fetchone()[0] > 0
+                values = [row[col] for col in columns]
+                cursor.execute(mergeSql, values)
+                action = cursor.fetchone()[0]
                 
-                if recordExists:
-                    columns = [col for col in dataFrame.columns if col != 'Serial_No']
-                    setClause = ', '.join([f"{col} = ?" for col in columns])
-                    updateSql = f"UPDATE {tableName} SET {setClause} WHERE Serial_No = ?"
-                    
-                    values = [row[col] for col in columns] + [row['Serial_No']]
-                    cursor.execute(updateSql, values)
+                if action == 'UPDATE':
                     updatedCount += 1
                 else:
-                    columns = ', '.join(dataFrame.columns)
-                    placeholders = ', '.join(['?' for _ in dataFrame.columns])
-                    insertSql = f"INSERT INTO {tableName} ({columns}) VALUES ({placeholders})"
-                    
-                    values = [row[col] for col in dataFrame.columns]
-                    cursor.execute(insertSql, values)
                     insertedCount += 1
             
             connection.commit()
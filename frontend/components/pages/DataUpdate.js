@@ -36,6 +36,19 @@ const DataUpdate = {
         </button>
       </div>
 
+      <!-- 找不到序號時的相近序號 (條碼誤讀) -->
+      <div class="serial-candidates" v-if="serialCandidates.length > 0">
+        <span>您是否要找:</span>
+        <button
+          v-for="candidate in serialCandidates"
+          :key="candidate.serialNo"
+          class="button"
+          :disabled="loading"
+          @click="selectSerialCandidate(candidate.serialNo)">
+          {{ candidate.serialNo }}
+        </button>
+      </div>
+
       <!-- 當前資料顯示區域 -->
       <div class="current-data">
         <h3>RMA 訂單資料</h3>
@@ -234,7 +247,9 @@ const DataUpdate = {
         remark: ''
       },
       stockData: [],
+      serialCandidates: [],
       selectedStock: null,
+      stockReservation: null, // { serialNo, token }：選擇的庫存保留
       mode: 'create' // 'create' or 'update'
     };
   },
@@ -249,6 +264,28 @@ const DataUpdate = {
     }
   },
   
+  watch: {
+    // 選擇替換用的庫存時先保留，避免與其他使用者選到同一個庫存
+    async selectedStock(serialNo, previous) {
+      if (previous && this.stockReservation && this.stockReservation.serialNo === previous) {
+        api.stock.release(this.searchForm.productType, previous, this.stockReservation.token).catch(() => {});
+        this.stockReservation = null;
+      }
+      if (!serialNo) return;
+      
+      try {
+        const result = await api.stock.reserve(this.searchForm.productType, serialNo);
+        this.stockReservation = { serialNo, token: result.token };
+      } catch (error) {
+        this.selectedStock = null;
+        this.$emit('show-message', {
+          type: 'warning',
+          text: `庫存 ${serialNo} 已被其他使用者保留，請選擇其他庫存`
+        });
+      }
+    }
+  },
+  
   async mounted() {
     await this.loadProductLines();
     
@@ -299,6 +336,7 @@ const DataUpdate = {
         if (result.success) {
           // 載入庫存資料
           this.stockData = result.stockRecords || [];
+          this.serialCandidates = result.serialCandidates || [];
           
           // 如果找到 RMA 記錄，載入資料
           if (result.rmaRecord) {
@@ -324,6 +362,11 @@ const DataUpdate = {
       }
     },
     
+    async selectSerialCandidate(serialNo) {
+      this.searchForm.serialNo = serialNo;
+      await this.searchForUpdate();
+    },
+    
     loadRmaData(record) {
       this.rmaData = {
         productType: this.searchForm.productType,
@@ -348,7 +391,9 @@ const DataUpdate = {
         rmaBoardTestResult: record.RMA_board_Test_Result || '',
         endUserInvoiceDate: this.formatDateForInput(record.End_user_invoice_date),
         warrantyUntil: this.formatDateForInput(record.Warranty_Until),
-        remark: record.Remark || ''
+        remark: record.Remark || '',
+        // 更新時帶回，記錄已被其他人修改時伺服器回傳 409
+        rowVersion: record.Row_Version || ''
       };
     },
     
@@ -376,7 +421,8 @@ const DataUpdate = {
         rmaBoardTestResult: '',
         endUserInvoiceDate: '',
         warrantyUntil: '',
-        remark: ''
+        remark: '',
+        rowVersion: ''
       };
     },
     
@@ -442,7 +488,8 @@ const DataUpdate = {
         
         const updateData = {
           ...this.rmaData,
-          stockSerialNoToDelete: this.selectedStock
+          stockSerialNoToDelete: this.selectedStock,
+          reservationToken: this.stockReservation ? this.stockReservation.token : null
         };
         
         const response = await fetch('http://localhost:8080/api/rma/update', {
@@ -461,11 +508,26 @@ const DataUpdate = {
             text: result.message
           });
           
+          // 更新後的 row version，繼續編輯時使用
+          if (result.rowVersion) {
+            this.rmaData.rowVersion = result.rowVersion;
+          }
+          
           // 如果有刪除庫存，重新載入庫存列表
           if (this.selectedStock) {
             this.stockData = this.stockData.filter(s => s.Serial_No !== this.selectedStock);
+            // 保留已在更新時消耗
+            this.stockReservation = null;
             this.selectedStock = null;
           }
+        } else if (result.operation === 'UPDATE_CONFLICT') {
+          // 記錄已被其他人修改：重新載入最新資料，由使用者確認後再更新
+          this.searchForm.serialNo = this.rmaData.serialNo;
+          await this.searchForUpdate();
+          this.$emit('show-message', {
+            type: 'warning',
+            text: result.message
+          });
         } else {
           this.$emit('show-message', {
             type: 'error',
@@ -3,17 +3,27 @@ const API_BASE_URL = 'http://localhost:8080/api';
 
 class ApiService {
   
+  constructor() {
+    // 執行中的請求 (請求編號 -> AbortController)，換頁或關閉頁面時取消
+    this.pendingRequests = new Map();
+  }
+  
   // 通用 API 呼叫方法
   async request(endpoint, options = {}) {
     const url = `${API_BASE_URL}${endpoint}`;
+    const requestId = this.createRequestId();
+    const controller = new AbortController();
     const config = {
+      ...options,
       headers: {
         'Content-Type': 'application/json',
+        'X-Request-Id': requestId,
         ...options.headers
       },
-      ...options
+      signal: controller.signal
     };
 
+    this.pendingRequests.set(requestId, controller);
     try {
       const response = await fetch(url, config);
       
@@ -24,9 +34,30 @@ class ApiService {
       const data = await response.json();
       return data;
     } catch (error) {
-      console.error('API 呼叫錯誤:', error);
+      if (error.name !== 'AbortError') {
+        console.error('API 呼叫錯誤:', error);
+      }
       throw error;
+    } finally {
+      this.pendingRequests.delete(requestId);
+    }
+  }
+
+  // 產生請求編號 (伺服器以此編號取消查詢)
+  createRequestId() {
+    if (window.crypto && window.crypto.randomUUID) {
+      return window.crypto.randomUUID();
     }
+    return `${Date.now().toString(36)}-${Math.random().toString(36).slice(2, 10)}`;
+  }
+
+  // 取消所有執行中的請求，並通知伺服器中止對應的資料庫查詢
+  cancelPendingRequests() {
+    this.pendingRequests.forEach((controller, requestId) => {
+      controller.abort();
+      navigator.sendBeacon(`${API_BASE_URL}/monitor/queries/${encodeURIComponent(requestId)}/cancel`);
+    });
+    this.pendingRequests.clear();
   }
 
   // GET 請求
@@ -78,14 +109,29 @@ class ApiService {
     // 查詢 RMA 資料
     search: (params) => this.post('/rma/search', params),
     
+    // 查詢 RMA 資料 (欄式格式，適合大量資料繪圖)
+    searchColumnar: (params) => this.post('/rma/search?format=columnar', params),
+    
+    // 跨產品線搜尋 (不需 productType)
+    searchAll: (params) => this.post('/rma/search-all', params),
+    
+    // 前綴自動完成 (field: Serial_No / PN / SKU)
+    suggest: (productType, field, prefix, limit = 10) => this.get(`/rma/${productType}/suggest?field=${encodeURIComponent(field)}&prefix=${encodeURIComponent(prefix)}&limit=${limit}`),
+    
+    // 序列號模糊比對 (條碼誤讀時的相近序列號，maxDistance: 1~2)
+    fuzzySerial: (productType, serialNo, maxDistance = 2, limit = 10) => this.get(`/rma/${productType}/fuzzy-serial?serialNo=${encodeURIComponent(serialNo)}&maxDistance=${maxDistance}&limit=${limit}`),
+    
     // 搜尋用於更新的資料
     searchForUpdate: (params) => {
       const queryString = new URLSearchParams(params).toString();
       return this.get(`/rma/search-for-update?${queryString}`);
     },
     
-    // 建立 RMA 記錄
-    create: (data) => this.post('/rma/create', data),
+    // 建立 RMA 記錄 (conflict: reject / overwrite / merge，序列號已存在時的處理方式)
+    create: (data, conflict) => this.post(`/rma/create${conflict ? `?conflict=${conflict}` : ''}`, data),
+    
+    // 批次建立 RMA 記錄 (回傳每筆記錄的結果)
+    batchCreate: (records) => this.post('/rma/batch-create', records),
     
     // 更新 RMA 記錄
     update: (data) => this.put('/rma/update', data),
@@ -96,6 +142,15 @@ class ApiService {
     // 檢查記錄是否存在
     exists: (productType, serialNo) => this.get(`/rma/exists/${productType}/${serialNo}`),
     
+    // 批次查詢序列號是否存在
+    lookup: (productType, serialNos) => this.post(`/rma/${productType}/lookup`, serialNos),
+    
+    // 每日 RMA 筆數統計 (params: startDate, endDate, pn, sku, groupBy)
+    dailyCounts: (productType, params = {}) => {
+      const queryString = new URLSearchParams(Object.entries(params).filter(([, v]) => v)).toString();
+      return this.get(`/rma/${productType}/daily-counts${queryString ? '?' + queryString : ''}`);
+    },
+    
     // 取得產品線列表
     getProductLines: () => this.get('/rma/product-lines'),
     
@@ -114,21 +169,33 @@ class ApiService {
     // 查詢庫存
     search: (params) => this.post('/stock/search', params),
     
+    // 查詢庫存 (欄式格式)
+    searchColumnar: (params) => this.post('/stock/search?format=columnar', params),
+    
     // 取得庫存詳細資料
     getDetail: (productType, serialNo) => this.get(`/stock/${productType}/detail/${serialNo}`),
     
-    // 建立庫存記錄
-    create: (data) => this.post('/stock/create', data),
+    // 建立庫存記錄 (conflict: reject / overwrite / merge，序列號已存在時的處理方式)
+    create: (data, conflict) => this.post(`/stock/create${conflict ? `?conflict=${conflict}` : ''}`, data),
     
     // 更新庫存記錄
     update: (data) => this.put('/stock/update', data),
     
+    // 保留替換用的庫存 (已被其他使用者保留時回傳 409)
+    reserve: (productType, serialNo, token) => this.post(`/stock/${productType}/reservations/${encodeURIComponent(serialNo)}${token ? `?token=${encodeURIComponent(token)}` : ''}`),
+    
+    // 釋放庫存保留
+    release: (productType, serialNo, token) => this.delete(`/stock/${productType}/reservations/${encodeURIComponent(serialNo)}?token=${encodeURIComponent(token)}`),
+    
     // 刪除庫存記錄
     delete: (productType, serialNo) => this.delete(`/stock/${productType}/${serialNo}`),
     
     // 關鍵字搜尋
     searchByKeyword: (productType, keyword) => this.get(`/stock/${productType}/search-keyword?keyword=${encodeURIComponent(keyword)}`),
     
+    // 前綴自動完成 (field: Serial_No / PN / SKU)
+    suggest: (productType, field, prefix, limit = 10) => this.get(`/stock/${productType}/suggest?field=${encodeURIComponent(field)}&prefix=${encodeURIComponent(prefix)}&limit=${limit}`),
+    
     // 根據 P/N 搜尋
     searchByPN: (productType, pn) => this.get(`/stock/${productType}/search-pn?pn=${encodeURIComponent(pn)}`),
     
@@ -144,6 +211,9 @@ class ApiService {
     // 檢查記錄是否存在
     exists: (productType, serialNo) => this.get(`/stock/exists/${productType}/${serialNo}`),
     
+    // 批次查詢序列號是否存在
+    lookup: (productType, serialNos) => this.post(`/stock/${productType}/lookup`, serialNos),
+    
     // 健康檢查
     health: () => this.get('/stock/health')
   };
@@ -186,6 +256,11 @@ class ApiService {
 // 建立全域 API 實例
 const api = new ApiService();
 
+// 關閉或離開頁面時取消仍在執行的查詢
+if (typeof window !== 'undefined') {
+  window.addEventListener('pagehide', () => api.cancelPendingRequests());
+}
+
 // 如果在 Node.js 環境中使用
 if (typeof module !== 'undefined' && module.exports) {
   module.exports = { ApiService, api };
@@ -57,6 +57,11 @@ router.beforeEach((to, from, next) => {
     document.title = 'Sapphire RMA Control';
   }
   
+  // 換頁時取消上一頁仍在執行的查詢
+  if (from.matched.length > 0 && to.path !== from.path && typeof api !== 'undefined') {
+    api.cancelPendingRequests();
+  }
+  
   // 載入進度指示
   const app = document.querySelector('#app').__vue_app__;
   if (app) {
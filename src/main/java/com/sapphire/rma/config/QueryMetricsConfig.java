@@ -0,0 +1,35 @@
+package com.sapphire.rma.config;
+
+import com.sapphire.rma.repository.InstrumentedDataSource;
+import com.sapphire.rma.repository.QueryMetrics;
+import com.sapphire.rma.repository.ReadReplicaRoutingDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+/**
+ * 查詢延遲統計設定
+ * 將 DataSource 包裝為 InstrumentedDataSource，JdbcTemplate 與 JPA 的查詢都經由它取得連線。
+ * QueryMetrics 以 ObjectProvider 延後取得，避免 BeanPostProcessor 提早建立 Repository 相關 bean。
+ */
+@Configuration
+public class QueryMetricsConfig {
+    
+    @Bean
+    public static BeanPostProcessor queryMetricsDataSourcePostProcessor(ObjectProvider<QueryMetrics> queryMetrics) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                // 讀取副本路由只經由外層的 dataSource 使用，包裝外層即可，避免同一個查詢記錄兩次
+                if (bean instanceof DataSource && !(bean instanceof InstrumentedDataSource)
+                        && !(bean instanceof ReadReplicaRoutingDataSource)) {
+                    return new InstrumentedDataSource((DataSource) bean, queryMetrics);
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,68 @@
+package com.sapphire.rma.config;
+
+import com.sapphire.rma.repository.CancellableJdbcTemplate;
+import com.sapphire.rma.repository.QueryCancellationRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.sql.DataSource;
+
+/**
+ * 查詢逾時與取消設定
+ * 以 CancellableJdbcTemplate 取代預設的 JdbcTemplate，並依端點類型註冊不同期限的 QueryTimeoutInterceptor。
+ * 匯出 (串流回應) 與批次處理不套用請求期限。
+ */
+@Configuration
+public class QueryTimeoutConfig implements WebMvcConfigurer {
+    
+    // 搜尋類端點 (可能掃描大量資料)
+    private static final String[] SEARCH_PATHS = {
+        "/api/rma/search", "/api/rma/search-all", "/api/stock/search", "/api/stock/*/search-*"
+    };
+    
+    // 輸入時即時呼叫的端點 (自動完成、存在檢查)
+    private static final String[] INTERACTIVE_PATHS = {
+        "/api/rma/*/suggest", "/api/stock/*/suggest", "/api/rma/*/fuzzy-serial",
+        "/api/rma/exists/**", "/api/stock/exists/**"
+    };
+    
+    // 不套用請求期限的端點
+    private static final String[] EXCLUDED_PATHS = {
+        "/api/rma/export", "/api/export/**", "/api/batch/**", "/api/monitor/**"
+    };
+    
+    @Value("${rma.query-timeout.default-ms:30000}")
+    private long defaultTimeoutMs;
+    
+    @Value("${rma.query-timeout.search-ms:20000}")
+    private long searchTimeoutMs;
+    
+    @Value("${rma.query-timeout.interactive-ms:3000}")
+    private long interactiveTimeoutMs;
+    
+    @Autowired
+    private QueryCancellationRegistry cancellationRegistry;
+    
+    @Bean
+    public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+        return new CancellableJdbcTemplate(dataSource);
+    }
+    
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new QueryTimeoutInterceptor(cancellationRegistry, searchTimeoutMs))
+                .addPathPatterns(SEARCH_PATHS);
+        registry.addInterceptor(new QueryTimeoutInterceptor(cancellationRegistry, interactiveTimeoutMs))
+                .addPathPatterns(INTERACTIVE_PATHS);
+        registry.addInterceptor(new QueryTimeoutInterceptor(cancellationRegistry, defaultTimeoutMs))
+                .addPathPatterns("/api/**")
+                .excludePathPatterns(SEARCH_PATHS)
+                .excludePathPatterns(INTERACTIVE_PATHS)
+                .excludePathPatterns(EXCLUDED_PATHS);
+    }
+}
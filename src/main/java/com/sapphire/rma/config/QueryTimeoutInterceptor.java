@@ -0,0 +1,69 @@
+package com.sapphire.rma.config;
+
+import com.sapphire.rma.repository.QueryCancellationRegistry;
+import com.sapphire.rma.repository.QueryContext;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.UUID;
+
+/**
+ * 請求查詢逾時攔截器
+ * 請求開始時建立 QueryContext (期限為此攔截器設定的毫秒數) 並綁定到處理請求的執行緒，
+ * 以 X-Request-Id 登錄到 QueryCancellationRegistry，請求結束時解除。
+ * 前端沒有提供 X-Request-Id 時自動產生，並放在回應標頭中。
+ */
+public class QueryTimeoutInterceptor implements AsyncHandlerInterceptor {
+    
+    public static final String REQUEST_ID_HEADER = "X-Request-Id";
+    
+    private static final String CONTEXT_ATTRIBUTE = QueryTimeoutInterceptor.class.getName() + ".context";
+    
+    // 請求編號長度上限，避免過長的標頭佔用登錄表
+    private static final int MAX_REQUEST_ID_LENGTH = 64;
+    
+    private final QueryCancellationRegistry cancellationRegistry;
+    private final long timeoutMs;
+    
+    public QueryTimeoutInterceptor(QueryCancellationRegistry cancellationRegistry, long timeoutMs) {
+        this.cancellationRegistry = cancellationRegistry;
+        this.timeoutMs = timeoutMs;
+    }
+    
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        String requestId = request.getHeader(REQUEST_ID_HEADER);
+        if (requestId == null || requestId.trim().isEmpty() || requestId.length() > MAX_REQUEST_ID_LENGTH) {
+            requestId = UUID.randomUUID().toString();
+        }
+        
+        QueryContext context = QueryContext.create(requestId.trim(),
+                                                   request.getMethod() + " " + request.getRequestURI(), timeoutMs);
+        cancellationRegistry.register(context);
+        context.bind();
+        request.setAttribute(CONTEXT_ATTRIBUTE, context);
+        response.setHeader(REQUEST_ID_HEADER, context.getRequestId());
+        return true;
+    }
+    
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        release(request);
+    }
+    
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // 非同步處理改由其他執行緒進行，請求執行緒不再保留 context
+        release(request);
+    }
+    
+    private void release(HttpServletRequest request) {
+        Object context = request.getAttribute(CONTEXT_ATTRIBUTE);
+        if (context instanceof QueryContext) {
+            cancellationRegistry.unregister((QueryContext) context);
+            request.removeAttribute(CONTEXT_ATTRIBUTE);
+        }
+        QueryContext.unbind();
+    }
+}
@@ -0,0 +1,91 @@
+package com.sapphire.rma.config;
+
+import com.sapphire.rma.repository.ReadReplicaRoutingDataSource;
+import com.sapphire.rma.service.RecordChangedEvent;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.sql.DataSource;
+
+/**
+ * 讀取副本設定 (rma.read-replica.enabled=true 時啟用)
+ * 主資料庫使用 spring.datasource.*，讀取副本使用 rma.read-replica.*，兩者的 hikari.* 連線池設定各自綁定。
+ * 對外的 dataSource 為 LazyConnectionDataSourceProxy，第一個查詢時才依交易的唯讀旗標選擇連線池；
+ * 自行定義 DataSource 後 Spring Boot 不再建立預設的連線池，JdbcTemplate 與 JPA 都使用這裡的 dataSource。
+ * 資料異動事件 (交易提交後) 記錄產品線的寫入時間，期間內該產品線的搜尋結果不存入快取；
+ * 整條產品線的批次匯入後，期間內所有唯讀交易使用主資料庫。
+ */
+@Configuration
+@ConditionalOnProperty(name = "rma.read-replica.enabled", havingValue = "true")
+public class ReadReplicaConfig {
+    
+    @Value("${rma.read-replica.health-check-ms:5000}")
+    private long healthCheckIntervalMs;
+    
+    @Value("${rma.read-replica.read-your-writes-ms:10000}")
+    private long readYourWritesMs;
+    
+    @Autowired
+    private ObjectProvider<ReadReplicaRoutingDataSource> routingDataSourceProvider;
+    
+    @Bean(destroyMethod = "close")
+    public ReadReplicaRoutingDataSource readReplicaRoutingDataSource(DataSourceProperties properties,
+                                                                     Environment environment) {
+        Binder binder = Binder.get(environment);
+        
+        HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        binder.bind("spring.datasource.hikari", Bindable.ofInstance(primary));
+        primary.setPoolName("rma-primary");
+        
+        HikariDataSource replica = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(binder.bind("rma.read-replica.url", String.class)
+                        .orElseThrow(() -> new IllegalStateException("未設定 rma.read-replica.url")))
+                .username(binder.bind("rma.read-replica.username", String.class).orElse(properties.getUsername()))
+                .password(binder.bind("rma.read-replica.password", String.class).orElse(properties.getPassword()))
+                .driverClassName(binder.bind("rma.read-replica.driver-class-name", String.class)
+                        .orElse(properties.determineDriverClassName()))
+                .build();
+        binder.bind("rma.read-replica.hikari", Bindable.ofInstance(replica));
+        replica.setPoolName("rma-replica");
+        replica.setReadOnly(true);
+        
+        return new ReadReplicaRoutingDataSource(primary, replica, healthCheckIntervalMs, readYourWritesMs);
+    }
+    
+    @Bean
+    @Primary
+    public DataSource dataSource(ReadReplicaRoutingDataSource routingDataSource) {
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+    
+    /**
+     * 寫入已提交：記錄產品線的寫入時間
+     * 在 SearchResultCache 清除快取之前執行，清除後的第一個查詢不會以副本的資料存入快取。
+     */
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRecordChanged(RecordChangedEvent event) {
+        ReadReplicaRoutingDataSource routingDataSource = routingDataSourceProvider.getObject();
+        if (event.isWholeProductLine()) {
+            routingDataSource.recordBulkWrite(event.getProductType());
+        } else {
+            routingDataSource.recordWrite(event.getProductType());
+        }
+    }
+}
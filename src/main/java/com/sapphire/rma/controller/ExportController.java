@@ -0,0 +1,88 @@
+package com.sapphire.rma.controller;
+
+import com.sapphire.rma.service.ExcelExportService;
+import com.sapphire.rma.service.ProductLineService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.Map;
+
+/**
+ * Excel 匯出控制器
+ * 匯出的檔名與欄位格式和 data/ 資料夾的匯入檔案相同
+ */
+@RestController
+@RequestMapping("/api/export")
+@CrossOrigin(origins = "*")
+public class ExportController {
+    
+    @Autowired
+    private ExcelExportService excelExportService;
+    
+    @Autowired
+    private ProductLineService productLineService;
+    
+    /**
+     * 匯出 RMA 記錄為 Excel
+     * GET /api/export/{productType}/rma
+     */
+    @GetMapping("/{productType}/rma")
+    public ResponseEntity<?> exportRmaRecords(@PathVariable String productType) {
+        try {
+            if (!productLineService.isValidProductLine(productType)) {
+                return invalidProductLine(productType);
+            }
+            
+            StreamingResponseBody body = outputStream -> excelExportService.exportRmaRecords(productType, outputStream);
+            return xlsxResponse(productType + "_RMA_record.xlsx", body);
+        
+        } catch (Exception e) {
+            return exportError(e);
+        }
+    }
+    
+    /**
+     * 匯出庫存記錄為 Excel
+     * GET /api/export/{productType}/stock
+     */
+    @GetMapping("/{productType}/stock")
+    public ResponseEntity<?> exportStockRecords(@PathVariable String productType) {
+        try {
+            if (!productLineService.isValidProductLine(productType)) {
+                return invalidProductLine(productType);
+            }
+            
+            StreamingResponseBody body = outputStream -> excelExportService.exportStockRecords(productType, outputStream);
+            return xlsxResponse(productType + "_buffer_stock.xlsx", body);
+        
+        } catch (Exception e) {
+            return exportError(e);
+        }
+    }
+    
+    private ResponseEntity<StreamingResponseBody> xlsxResponse(String filename, StreamingResponseBody body) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(ExcelExportService.XLSX_CONTENT_TYPE))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                .body(body);
+    }
+    
+    private ResponseEntity<Map<String, Object>> invalidProductLine(String productType) {
+        return ResponseEntity.badRequest().body(Map.of(
+            "success", false,
+            "message", "無效的產品線: " + productType
+        ));
+    }
+    
+    private ResponseEntity<Map<String, Object>> exportError(Exception e) {
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+            "success", false,
+            "message", "匯出 Excel 時發生錯誤: " + e.getMessage()
+        ));
+    }
+}
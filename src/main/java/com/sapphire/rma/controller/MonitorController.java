@@ -0,0 +1,459 @@
+package com.sapphire.rma.controller;
+
+import com.sapphire.rma.repository.ProductTable;
+import com.sapphire.rma.repository.ProductTableIndexer;
+import com.sapphire.rma.repository.ProductTableRegistry;
+import com.sapphire.rma.repository.QueryCancellationRegistry;
+import com.sapphire.rma.repository.QueryMetrics;
+import com.sapphire.rma.repository.QueryShapeRegistry;
+import com.sapphire.rma.repository.ReadReplicaRoutingDataSource;
+import com.sapphire.rma.service.FuzzySerialIndex;
+import com.sapphire.rma.service.RmaDailyRollup;
+import com.sapphire.rma.service.SearchResultCache;
+import com.sapphire.rma.service.StockKeywordIndex;
+import com.sapphire.rma.service.StockReservations;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 監控控制器
+ * 提供查詢效能相關的統計資訊
+ */
+@RestController
+@RequestMapping("/api/monitor")
+@CrossOrigin(origins = "*")
+public class MonitorController {
+    
+    @Autowired
+    private QueryShapeRegistry queryShapeRegistry;
+    
+    @Autowired
+    private ProductTableRegistry productTableRegistry;
+    
+    @Autowired
+    private ProductTableIndexer productTableIndexer;
+    
+    @Autowired
+    private StockKeywordIndex stockKeywordIndex;
+    
+    @Autowired
+    private FuzzySerialIndex fuzzySerialIndex;
+    
+    @Autowired
+    private SearchResultCache searchResultCache;
+    
+    @Autowired
+    private RmaDailyRollup rmaDailyRollup;
+    
+    @Autowired
+    private QueryCancellationRegistry queryCancellationRegistry;
+    
+    @Autowired
+    private QueryMetrics queryMetrics;
+    
+    @Autowired
+    private StockReservations stockReservations;
+    
+    // 未啟用讀取副本時不存在
+    @Autowired(required = false)
+    private ReadReplicaRoutingDataSource readReplicaRoutingDataSource;
+    
+    /**
+     * 查詢形狀統計 (每種 SQL 的使用次數)
+     * GET /api/monitor/query-shapes
+     */
+    @GetMapping("/query-shapes")
+    public ResponseEntity<Map<String, Object>> getQueryShapes() {
+        try {
+            List<Map<String, Object>> shapes = queryShapeRegistry.getStatistics();
+            
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "shapeCount", shapes.size(),
+                "shapes", shapes,
+                "timestamp", System.currentTimeMillis()
+            ));
+            
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取得查詢形狀統計時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 已登錄的產品線資料表與欄位
+     * GET /api/monitor/product-tables
+     */
+    @GetMapping("/product-tables")
+    public ResponseEntity<Map<String, Object>> getProductTables() {
+        try {
+            List<Map<String, Object>> tables = new ArrayList<>();
+            for (String productType : productTableRegistry.getRegisteredProductTypes()) {
+                for (ProductTable table : List.of(productTableRegistry.getRmaTable(productType),
+                                                  productTableRegistry.getStockTable(productType))) {
+                    Map<String, Object> item = new LinkedHashMap<>();
+                    item.put("productType", productType);
+                    item.put("tableName", table.getName());
+                    item.put("columns", table.getColumns());
+                    tables.add(item);
+                }
+            }
+            
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "tables", tables,
+                "timestamp", System.currentTimeMillis()
+            ));
+            
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取得產品線資料表資訊時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 重新載入產品線資料表資訊 (資料表結構變更後使用)
+     * POST /api/monitor/product-tables/refresh
+     */
+    @PostMapping("/product-tables/refresh")
+    public ResponseEntity<Map<String, Object>> refreshProductTables() {
+        try {
+            productTableRegistry.refresh();
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "message", "產品線資料表資訊已重新載入",
+                "productLines", productTableRegistry.getRegisteredProductTypes()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "重新載入產品線資料表資訊失敗: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 庫存關鍵字索引狀態
+     * GET /api/monitor/stock-keyword-index
+     */
+    @GetMapping("/stock-keyword-index")
+    public ResponseEntity<Map<String, Object>> getStockKeywordIndex() {
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "indexes", stockKeywordIndex.getStatistics(),
+                "timestamp", System.currentTimeMillis()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取得庫存關鍵字索引狀態時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 序列號模糊比對索引狀態
+     * GET /api/monitor/fuzzy-serial-index
+     */
+    @GetMapping("/fuzzy-serial-index")
+    public ResponseEntity<Map<String, Object>> getFuzzySerialIndex() {
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "indexes", fuzzySerialIndex.getStatistics(),
+                "timestamp", System.currentTimeMillis()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取得序列號模糊比對索引狀態時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 搜尋結果快取統計 (命中率、淘汰數)
+     * GET /api/monitor/search-cache
+     */
+    @GetMapping("/search-cache")
+    public ResponseEntity<Map<String, Object>> getSearchCacheStatistics() {
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "cache", searchResultCache.getStatistics(),
+                "timestamp", System.currentTimeMillis()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取得搜尋結果快取統計時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * RMA 每日統計狀態 (各產品線的記錄數與日期範圍)
+     * GET /api/monitor/rma-rollup
+     */
+    @GetMapping("/rma-rollup")
+    public ResponseEntity<Map<String, Object>> getRmaRollupStatistics() {
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "rollups", rmaDailyRollup.getStatistics(),
+                "timestamp", System.currentTimeMillis()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取得 RMA 每日統計狀態時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 執行中的請求查詢 (執行時間、剩餘期限)
+     * GET /api/monitor/queries
+     */
+    @GetMapping("/queries")
+    public ResponseEntity<Map<String, Object>> getActiveQueries() {
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "queries", queryCancellationRegistry.getStatistics(),
+                "timestamp", System.currentTimeMillis()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取得執行中查詢時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 取消請求仍在執行的查詢 (前端換頁或關閉頁面時呼叫)
+     * POST /api/monitor/queries/{requestId}/cancel
+     */
+    @PostMapping("/queries/{requestId}/cancel")
+    public ResponseEntity<Map<String, Object>> cancelQuery(@PathVariable String requestId) {
+        try {
+            boolean cancelled = queryCancellationRegistry.cancel(requestId);
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "requestId", requestId,
+                "cancelled", cancelled,
+                "message", cancelled ? "已取消查詢" : "請求已結束或不存在"
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取消查詢時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 各查詢形狀與產品線的延遲分佈 (p50 / p90 / p99)、回傳筆數與位元組數
+     * GET /api/monitor/query-metrics
+     */
+    @GetMapping("/query-metrics")
+    public ResponseEntity<Map<String, Object>> getQueryMetrics() {
+        try {
+            List<Map<String, Object>> metrics = queryMetrics.getStatistics();
+            
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "enabled", queryMetrics.isEnabled(),
+                "totalShapes", metrics.size(),
+                "metrics", metrics,
+                "timestamp", System.currentTimeMillis()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取得查詢延遲統計時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 最近的慢查詢 (由新到舊)
+     * GET /api/monitor/slow-queries
+     */
+    @GetMapping("/slow-queries")
+    public ResponseEntity<Map<String, Object>> getSlowQueries() {
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "thresholdMs", queryMetrics.getSlowQueryMs(),
+                "queries", queryMetrics.getSlowQueries(),
+                "timestamp", System.currentTimeMillis()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取得慢查詢紀錄時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 清除查詢延遲統計與慢查詢紀錄
+     * POST /api/monitor/query-metrics/reset
+     */
+    @PostMapping("/query-metrics/reset")
+    public ResponseEntity<Map<String, Object>> resetQueryMetrics() {
+        try {
+            queryMetrics.reset();
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "message", "已清除查詢延遲統計"
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "清除查詢延遲統計時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 替換庫存保留統計 (各產品線有效的保留數量、取得 / 被拒 / 消耗次數)
+     * GET /api/monitor/stock-reservations
+     */
+    @GetMapping("/stock-reservations")
+    public ResponseEntity<Map<String, Object>> getStockReservations() {
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "reservations", stockReservations.getStatistics(),
+                "timestamp", System.currentTimeMillis()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取得庫存保留統計時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 讀取副本路由狀態 (副本健康狀態、各連線池取得連線的次數)
+     * GET /api/monitor/read-replica
+     */
+    @GetMapping("/read-replica")
+    public ResponseEntity<Map<String, Object>> getReadReplicaStatus() {
+        try {
+            if (readReplicaRoutingDataSource == null) {
+                return ResponseEntity.ok(Map.of(
+                    "success", true,
+                    "enabled", false,
+                    "timestamp", System.currentTimeMillis()
+                ));
+            }
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "enabled", true,
+                "routing", readReplicaRoutingDataSource.getStatistics(),
+                "timestamp", System.currentTimeMillis()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取得讀取副本狀態時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 產品線資料表索引檢查結果 (缺少的索引與仍沒有索引可用的查詢形狀)
+     * GET /api/monitor/indexes
+     */
+    @GetMapping("/indexes")
+    public ResponseEntity<Map<String, Object>> getIndexReport() {
+        try {
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "indexes", productTableIndexer.getReport(),
+                "timestamp", System.currentTimeMillis()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取得索引檢查結果時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 立即檢查產品線資料表索引，create=true 時建立缺少的索引
+     * POST /api/monitor/indexes/provision?productType=VGA&create=true
+     */
+    @PostMapping("/indexes/provision")
+    public ResponseEntity<Map<String, Object>> provisionIndexes(
+            @RequestParam(required = false) String productType,
+            @RequestParam(defaultValue = "false") boolean create) {
+        try {
+            List<Map<String, Object>> tables = productTableIndexer.provision(productType, create);
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "tables", tables,
+                "timestamp", System.currentTimeMillis()
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", e.getMessage()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "檢查索引時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 為缺少 rowversion 欄位的 RMA 資料表新增欄位 (需設定 rma.index-provisioning.add-row-version=true)
+     * POST /api/monitor/indexes/row-version?productType=VGA
+     */
+    @PostMapping("/indexes/row-version")
+    public ResponseEntity<Map<String, Object>> addRowVersion(@RequestParam(required = false) String productType) {
+        try {
+            List<Map<String, Object>> tables = productTableIndexer.addRowVersion(productType);
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "tables", tables,
+                "timestamp", System.currentTimeMillis()
+            ));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of(
+                "success", false,
+                "message", e.getMessage()
+            ));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", e.getMessage()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "新增 rowversion 欄位時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+}
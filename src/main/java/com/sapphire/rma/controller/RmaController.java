@@ -1,14 +1,24 @@
 package com.sapphire.rma.controller;
 
 import com.sapphire.rma.dto.*;
+import com.sapphire.rma.repository.ConflictPolicy;
+import com.sapphire.rma.service.FederatedSearchService;
 import com.sapphire.rma.service.RmaService;
+import com.sapphire.rma.service.FuzzySerialIndex;
+import com.sapphire.rma.service.PrefixSuggestIndex;
+import com.sapphire.rma.service.RecordType;
 import com.sapphire.rma.service.ProductLineService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
 
@@ -21,24 +31,40 @@ import java.util.Map;
 @CrossOrigin(origins = "*")
 public class RmaController {
     
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    
     @Autowired
     private RmaService rmaService;
     
+    @Autowired
+    private FederatedSearchService federatedSearchService;
+    
     @Autowired
     private ProductLineService productLineService;
     
+    @Autowired
+    private PrefixSuggestIndex prefixSuggestIndex;
+    
+    @Autowired
+    private FuzzySerialIndex fuzzySerialIndex;
+    
     // ==================== 資料查詢頁面 API ====================
     
     /**
      * 搜尋 RMA 記錄 (資料查詢頁面使用)
      * POST /api/rma/search
+     * 加上 ?format=columnar 時以欄式格式回傳 (columnarRecords)
      */
     @PostMapping("/search")
-    public ResponseEntity<RmaSearchResponse> searchRmaRecords(@Valid @RequestBody RmaSearchRequest request) {
+    public ResponseEntity<RmaSearchResponse> searchRmaRecords(@Valid @RequestBody RmaSearchRequest request,
+                                                              @RequestParam(required = false) String format) {
         try {
             RmaSearchResponse response = rmaService.searchRmaRecords(request);
             
             if (response.isSuccess()) {
+                if (ColumnarRecords.isRequested(format)) {
+                    response.toColumnar();
+                }
                 return ResponseEntity.ok(response);
             } else {
                 return ResponseEntity.badRequest().body(response);
@@ -50,6 +76,58 @@ public class RmaController {
         }
     }
     
+    /**
+     * 跨產品線搜尋 RMA 記錄 (不需指定 productType)
+     * POST /api/rma/search-all
+     * 同時查詢所有產品線，結果依 Create_Date 合併，每筆加上 Product_Line 欄位；
+     * lineResults 標示各產品線狀態，有產品線逾時或失敗時 partial 為 true
+     */
+    @PostMapping("/search-all")
+    public ResponseEntity<RmaSearchResponse> searchAllProductLines(@RequestBody RmaSearchRequest request,
+                                                                   @RequestParam(required = false) String format) {
+        try {
+            RmaSearchResponse response = federatedSearchService.searchAllProductLines(request);
+            
+            if (response.isSuccess()) {
+                if (ColumnarRecords.isRequested(format)) {
+                    response.toColumnar();
+                }
+                return ResponseEntity.ok(response);
+            } else {
+                return ResponseEntity.badRequest().body(response);
+            }
+            
+        } catch (Exception e) {
+            RmaSearchResponse errorResponse = RmaSearchResponse.error("跨產品線搜尋時發生錯誤: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+    
+    /**
+     * 串流匯出 RMA 記錄 (NDJSON，每行一筆)
+     * POST /api/rma/export
+     */
+    @PostMapping("/export")
+    public ResponseEntity<?> exportRmaRecords(@Valid @RequestBody RmaSearchRequest request) {
+        try {
+            if (!productLineService.isValidProductLine(request.getProductType())) {
+                return ResponseEntity.badRequest().body(RmaSearchResponse.error("無效的產品線: " + request.getProductType()));
+            }
+            
+            StreamingResponseBody body = outputStream -> rmaService.exportRmaRecords(request, outputStream);
+            String filename = request.getProductType() + "_RMA_record.ndjson";
+            
+            return ResponseEntity.ok()
+                    .contentType(NDJSON)
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
+                    .body(body);
+            
+        } catch (Exception e) {
+            RmaSearchResponse errorResponse = RmaSearchResponse.error("匯出 RMA 記錄時發生錯誤: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+    
     // ==================== 資料調整頁面 API ====================
     
     /**
@@ -102,15 +180,26 @@ public class RmaController {
     
     /**
      * 新增 RMA 記錄 (資料調整頁面 - 新增按鈕)
-     * POST /api/rma/create
+     * POST /api/rma/create?conflict=reject|overwrite|merge
+     * conflict 為序列號已存在時的處理方式，未指定時為 reject
      */
     @PostMapping("/create")
-    public ResponseEntity<RmaOperationResponse> createRmaRecord(@Valid @RequestBody RmaCreateRequest request) {
+    public ResponseEntity<RmaOperationResponse> createRmaRecord(@Valid @RequestBody RmaCreateRequest request,
+                                                                @RequestParam(required = false) String conflict) {
         try {
-            RmaOperationResponse response = rmaService.createRmaRecord(request);
+            ConflictPolicy policy;
+            try {
+                policy = ConflictPolicy.fromParameter(conflict);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(RmaOperationResponse.createError(e.getMessage()));
+            }
+            
+            RmaOperationResponse response = rmaService.createRmaRecord(request, policy);
             
             if (response.isSuccess()) {
-                return ResponseEntity.status(HttpStatus.CREATED).body(response);
+                // 已存在並依 conflict 更新時回傳 200，新增時回傳 201
+                HttpStatus status = RmaOperationResponse.Operations.UPDATE.equals(response.getOperation()) ? HttpStatus.OK : HttpStatus.CREATED;
+                return ResponseEntity.status(status).body(response);
             } else {
                 return ResponseEntity.badRequest().body(response);
             }
@@ -121,10 +210,33 @@ public class RmaController {
         }
     }
     
+    /**
+     * 批次新增 RMA 記錄 (收件登錄一次新增整批出貨的 RMA)
+     * POST /api/rma/batch-create
+     * Body: [{ "productType": "VGA", "serialNo": "SN001", ... }, ...]
+     */
+    @PostMapping("/batch-create")
+    public ResponseEntity<RmaBatchCreateResponse> batchCreateRmaRecords(@RequestBody List<RmaCreateRequest> requests) {
+        try {
+            RmaBatchCreateResponse response = rmaService.batchCreateRmaRecords(requests);
+            
+            if (response.isSuccess()) {
+                return ResponseEntity.ok(response);
+            } else {
+                return ResponseEntity.badRequest().body(response);
+            }
+            
+        } catch (Exception e) {
+            RmaBatchCreateResponse errorResponse = RmaBatchCreateResponse.error("批次新增 RMA 記錄時發生錯誤: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+    
     /**
      * 更新 RMA 記錄 (資料調整頁面 - 更新按鈕)
      * 支援同時刪除庫存的操作
      * PUT /api/rma/update
+     * Body 帶入查詢時的 rowVersion，記錄已被其他人修改時回傳 409 (operation = UPDATE_CONFLICT)
      */
     @PutMapping("/update")
     public ResponseEntity<RmaOperationResponse> updateRmaRecord(@Valid @RequestBody RmaUpdateWithStockRequest request) {
@@ -133,6 +245,8 @@ public class RmaController {
             
             if (response.isSuccess()) {
                 return ResponseEntity.ok(response);
+            } else if (RmaOperationResponse.Operations.UPDATE_CONFLICT.equals(response.getOperation())) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
             } else {
                 return ResponseEntity.badRequest().body(response);
             }
@@ -168,6 +282,111 @@ public class RmaController {
     
     // ==================== 輔助 API ====================
     
+    /**
+     * RMA 記錄 前綴自動完成 (Serial_No / PN / SKU)
+     * GET /api/rma/{productType}/suggest?field=PN&prefix=...&limit=10
+     */
+    @GetMapping("/{productType}/suggest")
+    public ResponseEntity<Map<String, Object>> suggest(
+            @PathVariable String productType,
+            @RequestParam String field,
+            @RequestParam(defaultValue = "") String prefix,
+            @RequestParam(defaultValue = "10") int limit) {
+        try {
+            if (!productLineService.isValidProductLine(productType)) {
+                return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", "無效的產品線: " + productType
+                ));
+            }
+            
+            List<String> suggestions = prefixSuggestIndex.suggest(
+                RecordType.RMA, productType, field, prefix, limit);
+            
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "productType", productType,
+                "field", field,
+                "prefix", prefix,
+                "suggestions", suggestions
+            ));
+            
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", e.getMessage()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取得自動完成建議時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 序列號模糊比對 (條碼誤讀時找出編輯距離 1~2 以內的序列號，涵蓋 RMA 與庫存)
+     * GET /api/rma/{productType}/fuzzy-serial?serialNo=...&maxDistance=2&limit=10
+     */
+    @GetMapping("/{productType}/fuzzy-serial")
+    public ResponseEntity<Map<String, Object>> fuzzySerial(
+            @PathVariable String productType,
+            @RequestParam String serialNo,
+            @RequestParam(defaultValue = "2") int maxDistance,
+            @RequestParam(defaultValue = "10") int limit) {
+        try {
+            if (!productLineService.isValidProductLine(productType)) {
+                return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", "無效的產品線: " + productType
+                ));
+            }
+            
+            List<Map<String, Object>> candidates = fuzzySerialIndex.search(productType, serialNo, maxDistance, limit);
+            
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "productType", productType,
+                "serialNo", serialNo,
+                "ready", fuzzySerialIndex.isReady(productType),
+                "candidates", candidates
+            ));
+            
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "序列號模糊比對時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * RMA 每日筆數統計 (依 Create_Date，可依 PN 或 SKU 分組)
+     * GET /api/rma/{productType}/daily-counts?startDate=2024-01-01&endDate=2024-01-31&groupBy=pn
+     */
+    @GetMapping("/{productType}/daily-counts")
+    public ResponseEntity<RmaDailyCountResponse> countByDay(
+            @PathVariable String productType,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(required = false) String pn,
+            @RequestParam(required = false) String sku,
+            @RequestParam(required = false) String groupBy) {
+        try {
+            RmaDailyCountResponse response = rmaService.countByDay(productType, startDate, endDate, pn, sku, groupBy);
+            
+            if (response.isSuccess()) {
+                return ResponseEntity.ok(response);
+            } else {
+                return ResponseEntity.badRequest().body(response);
+            }
+            
+        } catch (Exception e) {
+            RmaDailyCountResponse errorResponse = RmaDailyCountResponse.error("統計每日 RMA 筆數時發生錯誤: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+    
     /**
      * 檢查 RMA 記錄是否存在
      * GET /api/rma/exists/{productType}/{serialNo}
@@ -198,6 +417,30 @@ public class RmaController {
         }
     }
     
+    /**
+     * 批次查詢RMA 序列號是否存在 (取代逐筆呼叫 exists API)
+     * POST /api/rma/{productType}/lookup
+     * Body: ["SN001", "SN002", ...]
+     */
+    @PostMapping("/{productType}/lookup")
+    public ResponseEntity<SerialLookupResponse> lookupSerialNos(
+            @PathVariable String productType,
+            @RequestBody List<String> serialNos) {
+        try {
+            SerialLookupResponse response = rmaService.lookupSerialNos(productType, serialNos);
+            
+            if (response.isSuccess()) {
+                return ResponseEntity.ok(response);
+            } else {
+                return ResponseEntity.badRequest().body(response);
+            }
+            
+        } catch (Exception e) {
+            SerialLookupResponse errorResponse = SerialLookupResponse.error("批次查詢序列號時發生錯誤: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+    
     /**
      * 取得支援的產品線列表
      * GET /api/rma/product-lines
@@ -1,7 +1,11 @@
 package com.sapphire.rma.controller;
 
 import com.sapphire.rma.dto.*;
+import com.sapphire.rma.repository.ConflictPolicy;
+import com.sapphire.rma.service.StockReservations;
 import com.sapphire.rma.service.StockService;
+import com.sapphire.rma.service.PrefixSuggestIndex;
+import com.sapphire.rma.service.RecordType;
 import com.sapphire.rma.service.ProductLineService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -27,6 +31,12 @@ public class StockController {
     @Autowired
     private ProductLineService productLineService;
     
+    @Autowired
+    private PrefixSuggestIndex prefixSuggestIndex;
+    
+    @Autowired
+    private StockReservations stockReservations;
+    
     // ==================== 庫存查詢 API ====================
     
     /**
@@ -53,13 +63,18 @@ public class StockController {
     /**
      * 搜尋庫存記錄
      * POST /api/stock/search
+     * 加上 ?format=columnar 時以欄式格式回傳 (columnarRecords)
      */
     @PostMapping("/search")
-    public ResponseEntity<StockSearchResponse> searchStockRecords(@Valid @RequestBody StockSearchRequest request) {
+    public ResponseEntity<StockSearchResponse> searchStockRecords(@Valid @RequestBody StockSearchRequest request,
+                                                                  @RequestParam(required = false) String format) {
         try {
             StockSearchResponse response = stockService.searchStockRecords(request);
             
             if (response.isSuccess()) {
+                if (ColumnarRecords.isRequested(format)) {
+                    response.toColumnar();
+                }
                 return ResponseEntity.ok(response);
             } else {
                 return ResponseEntity.badRequest().body(response);
@@ -98,15 +113,26 @@ public class StockController {
     
     /**
      * 新增庫存記錄
-     * POST /api/stock/create
+     * POST /api/stock/create?conflict=reject|overwrite|merge
+     * conflict 為序列號已存在時的處理方式，未指定時為 reject
      */
     @PostMapping("/create")
-    public ResponseEntity<StockOperationResponse> createStockRecord(@Valid @RequestBody StockCreateRequest request) {
+    public ResponseEntity<StockOperationResponse> createStockRecord(@Valid @RequestBody StockCreateRequest request,
+                                                                    @RequestParam(required = false) String conflict) {
         try {
-            StockOperationResponse response = stockService.createStockRecord(request);
+            ConflictPolicy policy;
+            try {
+                policy = ConflictPolicy.fromParameter(conflict);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(StockOperationResponse.createError(e.getMessage()));
+            }
+            
+            StockOperationResponse response = stockService.createStockRecord(request, policy);
             
             if (response.isSuccess()) {
-                return ResponseEntity.status(HttpStatus.CREATED).body(response);
+                // 已存在並依 conflict 更新時回傳 200，新增時回傳 201
+                HttpStatus status = StockOperationResponse.Operations.UPDATE.equals(response.getOperation()) ? HttpStatus.OK : HttpStatus.CREATED;
+                return ResponseEntity.status(status).body(response);
             } else {
                 return ResponseEntity.badRequest().body(response);
             }
@@ -186,6 +212,48 @@ public class StockController {
         }
     }
     
+    /**
+     * 庫存 前綴自動完成 (Serial_No / PN / SKU)
+     * GET /api/stock/{productType}/suggest?field=PN&prefix=...&limit=10
+     */
+    @GetMapping("/{productType}/suggest")
+    public ResponseEntity<Map<String, Object>> suggest(
+            @PathVariable String productType,
+            @RequestParam String field,
+            @RequestParam(defaultValue = "") String prefix,
+            @RequestParam(defaultValue = "10") int limit) {
+        try {
+            if (!productLineService.isValidProductLine(productType)) {
+                return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", "無效的產品線: " + productType
+                ));
+            }
+            
+            List<String> suggestions = prefixSuggestIndex.suggest(
+                RecordType.STOCK, productType, field, prefix, limit);
+            
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "productType", productType,
+                "field", field,
+                "prefix", prefix,
+                "suggestions", suggestions
+            ));
+            
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", e.getMessage()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "取得自動完成建議時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
     /**
      * 根據 P/N 搜尋庫存
      * GET /api/stock/{productType}/search-pn
@@ -255,6 +323,78 @@ public class StockController {
         }
     }
     
+    // ==================== 替換庫存保留 ====================
+    
+    /**
+     * 保留替換用的庫存 (資料調整頁面選擇庫存時)，帶入先前的 token 時延長保留
+     * POST /api/stock/{productType}/reservations/{serialNo}?token=...
+     * 已被其他使用者保留時回傳 409
+     */
+    @PostMapping("/{productType}/reservations/{serialNo}")
+    public ResponseEntity<Map<String, Object>> reserveStock(
+            @PathVariable String productType,
+            @PathVariable String serialNo,
+            @RequestParam(required = false) String token) {
+        try {
+            if (!productLineService.isValidProductLine(productType)) {
+                return ResponseEntity.badRequest().body(Map.of(
+                    "success", false,
+                    "message", "無效的產品線: " + productType
+                ));
+            }
+            
+            StockReservations.Lease lease = stockReservations.reserve(productType, serialNo, token);
+            if (lease == null) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of(
+                    "success", false,
+                    "message", "庫存 " + serialNo + " 已被其他使用者保留"
+                ));
+            }
+            
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "productType", productType,
+                "serialNo", serialNo,
+                "token", lease.getToken(),
+                "expiresAt", lease.getExpiresAt(),
+                "ttlSeconds", stockReservations.getTtlSeconds()
+            ));
+            
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "保留庫存時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
+    /**
+     * 釋放庫存保留 (取消選擇或離開頁面時)
+     * DELETE /api/stock/{productType}/reservations/{serialNo}?token=...
+     */
+    @DeleteMapping("/{productType}/reservations/{serialNo}")
+    public ResponseEntity<Map<String, Object>> releaseStock(
+            @PathVariable String productType,
+            @PathVariable String serialNo,
+            @RequestParam String token) {
+        try {
+            boolean released = stockReservations.release(productType, serialNo, token);
+            
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "productType", productType,
+                "serialNo", serialNo,
+                "released", released
+            ));
+            
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of(
+                "success", false,
+                "message", "釋放庫存保留時發生錯誤: " + e.getMessage()
+            ));
+        }
+    }
+    
     // ==================== 批次操作 ====================
     
     /**
@@ -312,6 +452,30 @@ public class StockController {
         }
     }
     
+    /**
+     * 批次查詢庫存序列號是否存在 (取代逐筆呼叫 exists API)
+     * POST /api/stock/{productType}/lookup
+     * Body: ["SN001", "SN002", ...]
+     */
+    @PostMapping("/{productType}/lookup")
+    public ResponseEntity<SerialLookupResponse> lookupSerialNos(
+            @PathVariable String productType,
+            @RequestBody List<String> serialNos) {
+        try {
+            SerialLookupResponse response = stockService.lookupSerialNos(productType, serialNos);
+            
+            if (response.isSuccess()) {
+                return ResponseEntity.ok(response);
+            } else {
+                return ResponseEntity.badRequest().body(response);
+            }
+            
+        } catch (Exception e) {
+            SerialLookupResponse errorResponse = SerialLookupResponse.error("批次查詢序列號時發生錯誤: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+        }
+    }
+    
     /**
      * 庫存服務健康檢查
      * GET /api/stock/health
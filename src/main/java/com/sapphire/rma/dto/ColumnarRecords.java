@@ -0,0 +1,193 @@
+package com.sapphire.rma.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 欄式 (columnar) 查詢結果
+ * 欄位名稱只傳一次，每個欄位一個陣列。重複值多的欄位 (如 PN、SKU、Product_Name、
+ * Customer_Name) 改用字典編碼：dictionary 放不重複的值，codes 放每列對應的索引 (null 為 -1)。
+ */
+public class ColumnarRecords {
+    
+    public static final String FORMAT = "columnar";
+    
+    private int rowCount;
+    private List<Column> columns;
+    
+    // 預設建構子
+    public ColumnarRecords() {}
+    
+    public ColumnarRecords(int rowCount, List<Column> columns) {
+        this.rowCount = rowCount;
+        this.columns = columns;
+    }
+    
+    // Getters and Setters
+    public int getRowCount() {
+        return rowCount;
+    }
+    
+    public void setRowCount(int rowCount) {
+        this.rowCount = rowCount;
+    }
+    
+    public List<Column> getColumns() {
+        return columns;
+    }
+    
+    public void setColumns(List<Column> columns) {
+        this.columns = columns;
+    }
+    
+    /**
+     * 檢查是否要求欄式格式
+     */
+    public static boolean isRequested(String format) {
+        return FORMAT.equalsIgnoreCase(format);
+    }
+    
+    /**
+     * 由列式結果轉換為欄式結果
+     */
+    public static ColumnarRecords from(List<Map<String, Object>> records) {
+        if (records == null || records.isEmpty()) {
+            return new ColumnarRecords(0, new ArrayList<>());
+        }
+        
+        String[] names;
+        if (records instanceof RecordSet) {
+            names = ((RecordSet) records).getColumnNames();
+        } else {
+            names = records.get(0).keySet().toArray(new String[0]);
+        }
+        
+        int rowCount = records.size();
+        List<Column> columns = new ArrayList<>(names.length);
+        for (int c = 0; c < names.length; c++) {
+            Object[] values = new Object[rowCount];
+            for (int r = 0; r < rowCount; r++) {
+                values[r] = records instanceof RecordSet
+                        ? ((RecordSet) records).getRow(r)[c]
+                        : records.get(r).get(names[c]);
+            }
+            columns.add(Column.encode(names[c], values));
+        }
+        
+        return new ColumnarRecords(rowCount, columns);
+    }
+    
+    /**
+     * 單一欄位的資料
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Column {
+        
+        public static final String PLAIN = "plain";
+        public static final String DICTIONARY = "dictionary";
+        
+        private String name;
+        private String encoding;
+        private Object[] values;
+        private List<Object> dictionary;
+        private int[] codes;
+        
+        // 預設建構子
+        public Column() {}
+        
+        /**
+         * 不重複值不超過總列數一半時使用字典編碼，否則直接輸出值
+         */
+        public static Column encode(String name, Object[] values) {
+            Map<Object, Integer> positions = new HashMap<>();
+            List<Object> dictionary = new ArrayList<>();
+            int[] codes = new int[values.length];
+            int limit = values.length / 2;
+            
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) {
+                    codes[i] = -1;
+                    continue;
+                }
+                Integer position = positions.get(values[i]);
+                if (position == null) {
+                    if (dictionary.size() >= limit) {
+                        return plain(name, values);
+                    }
+                    position = dictionary.size();
+                    positions.put(values[i], position);
+                    dictionary.add(values[i]);
+                }
+                codes[i] = position;
+            }
+            
+            Column column = new Column();
+            column.name = name;
+            column.encoding = DICTIONARY;
+            column.dictionary = dictionary;
+            column.codes = codes;
+            return column;
+        }
+        
+        private static Column plain(String name, Object[] values) {
+            Column column = new Column();
+            column.name = name;
+            column.encoding = PLAIN;
+            column.values = values;
+            return column;
+        }
+        
+        // Getters and Setters
+        public String getName() {
+            return name;
+        }
+        
+        public void setName(String name) {
+            this.name = name;
+        }
+        
+        public String getEncoding() {
+            return encoding;
+        }
+        
+        public void setEncoding(String encoding) {
+            this.encoding = encoding;
+        }
+        
+        public Object[] getValues() {
+            return values;
+        }
+        
+        public void setValues(Object[] values) {
+            this.values = values;
+        }
+        
+        public List<Object> getDictionary() {
+            return dictionary;
+        }
+        
+        public void setDictionary(List<Object> dictionary) {
+            this.dictionary = dictionary;
+        }
+        
+        public int[] getCodes() {
+            return codes;
+        }
+        
+        public void setCodes(int[] codes) {
+            this.codes = codes;
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "ColumnarRecords{" +
+                "rowCount=" + rowCount +
+                ", columnCount=" + (columns != null ? columns.size() : 0) +
+                '}';
+    }
+}
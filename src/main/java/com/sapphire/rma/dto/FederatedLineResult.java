@@ -0,0 +1,87 @@
+package com.sapphire.rma.dto;
+
+/**
+ * 跨產品線搜尋 - 單一產品線的執行結果
+ */
+public class FederatedLineResult {
+    
+    public static final String OK = "ok";
+    public static final String TIMEOUT = "timeout";
+    public static final String ERROR = "error";
+    public static final String REJECTED = "rejected";
+    
+    private String productType;
+    private String status;
+    private int recordCount;
+    private long elapsedMs;
+    private String message;
+    
+    // 預設建構子
+    public FederatedLineResult() {}
+    
+    public FederatedLineResult(String productType, String status, int recordCount, long elapsedMs, String message) {
+        this.productType = productType;
+        this.status = status;
+        this.recordCount = recordCount;
+        this.elapsedMs = elapsedMs;
+        this.message = message;
+    }
+    
+    // Getters and Setters
+    public String getProductType() {
+        return productType;
+    }
+    
+    public void setProductType(String productType) {
+        this.productType = productType;
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public void setStatus(String status) {
+        this.status = status;
+    }
+    
+    public int getRecordCount() {
+        return recordCount;
+    }
+    
+    public void setRecordCount(int recordCount) {
+        this.recordCount = recordCount;
+    }
+    
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+    
+    public void setElapsedMs(long elapsedMs) {
+        this.elapsedMs = elapsedMs;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    public void setMessage(String message) {
+        this.message = message;
+    }
+    
+    /**
+     * 是否成功取得該產品線的結果
+     */
+    public boolean isOk() {
+        return OK.equals(status);
+    }
+    
+    @Override
+    public String toString() {
+        return "FederatedLineResult{" +
+                "productType='" + productType + '\'' +
+                ", status='" + status + '\'' +
+                ", recordCount=" + recordCount +
+                ", elapsedMs=" + elapsedMs +
+                '}';
+    }
+}
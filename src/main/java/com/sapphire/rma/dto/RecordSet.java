@@ -0,0 +1,199 @@
+package com.sapphire.rma.dto;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 精簡的查詢結果集合
+ * 所有列共用一份欄位標題，每列只保存一個 Object[]，取代 queryForList 每列一個
+ * LinkedCaseInsensitiveMap 的做法。對外仍以 List<Map<String, Object>> 使用，
+ * 每列的 Map 只是陣列上的唯讀視圖 (欄位名稱不分大小寫)。
+ * 序列化時直接由陣列輸出，JSON 格式與原本的 List<Map> 相同。
+ */
+@JsonSerialize(using = RecordSet.RecordSetSerializer.class)
+public class RecordSet extends AbstractList<Map<String, Object>> {
+    
+    private final Columns columns;
+    private final List<Object[]> rows;
+    
+    public RecordSet(String[] columnNames) {
+        this(new Columns(columnNames), new ArrayList<>());
+    }
+    
+    private RecordSet(Columns columns, List<Object[]> rows) {
+        this.columns = columns;
+        this.rows = rows;
+    }
+    
+    /**
+     * 建立空結果集合 (沒有欄位資訊)
+     */
+    public static RecordSet empty() {
+        return new RecordSet(new String[0]);
+    }
+    
+    /**
+     * 新增一列，陣列順序需與欄位標題一致
+     */
+    public void addRow(Object[] values) {
+        rows.add(values);
+    }
+    
+    public String[] getColumnNames() {
+        return columns.names.clone();
+    }
+    
+    public int getColumnCount() {
+        return columns.names.length;
+    }
+    
+    /**
+     * 取得欄位位置 (不分大小寫)，找不到回傳 -1
+     */
+    public int indexOf(String columnName) {
+        return columns.indexOf(columnName);
+    }
+    
+    /**
+     * 直接取得某列的原始陣列
+     */
+    public Object[] getRow(int index) {
+        return rows.get(index);
+    }
+    
+    @Override
+    public Map<String, Object> get(int index) {
+        return new RowView(columns, rows.get(index));
+    }
+    
+    @Override
+    public int size() {
+        return rows.size();
+    }
+    
+    @Override
+    public RecordSet subList(int fromIndex, int toIndex) {
+        return new RecordSet(columns, rows.subList(fromIndex, toIndex));
+    }
+    
+    /**
+     * 共用的欄位標題
+     */
+    private static final class Columns {
+        private final String[] names;
+        private final Map<String, Integer> positions;
+        
+        private Columns(String[] names) {
+            this.names = names;
+            this.positions = new HashMap<>(names.length * 2);
+            for (int i = 0; i < names.length; i++) {
+                positions.putIfAbsent(names[i].toLowerCase(), i);
+            }
+        }
+        
+        private int indexOf(String columnName) {
+            Integer position = positions.get(columnName.toLowerCase());
+            return position != null ? position : -1;
+        }
+    }
+    
+    /**
+     * 單列的 Map 視圖
+     */
+    private static final class RowView extends AbstractMap<String, Object> {
+        private final Columns columns;
+        private final Object[] values;
+        
+        private RowView(Columns columns, Object[] values) {
+            this.columns = columns;
+            this.values = values;
+        }
+        
+        @Override
+        public Object get(Object key) {
+            int index = key instanceof String ? columns.indexOf((String) key) : -1;
+            return index >= 0 ? values[index] : null;
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && columns.indexOf((String) key) >= 0;
+        }
+        
+        @Override
+        public int size() {
+            return values.length;
+        }
+        
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        private int index = 0;
+                        
+                        @Override
+                        public boolean hasNext() {
+                            return index < values.length;
+                        }
+                        
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, Object> entry = new SimpleImmutableEntry<>(columns.names[index], values[index]);
+                            index++;
+                            return entry;
+                        }
+                    };
+                }
+                
+                @Override
+                public int size() {
+                    return values.length;
+                }
+            };
+        }
+    }
+    
+    /**
+     * 直接由欄位標題與陣列輸出 JSON，不建立中間 Map
+     */
+    public static class RecordSetSerializer extends StdSerializer<RecordSet> {
+        
+        public RecordSetSerializer() {
+            super(RecordSet.class);
+        }
+        
+        @Override
+        public void serialize(RecordSet recordSet, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            String[] names = recordSet.columns.names;
+            generator.writeStartArray(recordSet, recordSet.size());
+            for (Object[] row : recordSet.rows) {
+                generator.writeStartObject();
+                for (int i = 0; i < names.length; i++) {
+                    generator.writeFieldName(names[i]);
+                    provider.defaultSerializeValue(row[i], generator);
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+    }
+}
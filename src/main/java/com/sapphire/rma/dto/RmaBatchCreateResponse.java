@@ -0,0 +1,123 @@
+package com.sapphire.rma.dto;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 批次新增 RMA 記錄回應 DTO
+ * 依請求順序回傳每筆記錄的結果 (index、productType、serialNo、success、message)
+ */
+public class RmaBatchCreateResponse {
+    
+    private boolean success;
+    private String message;
+    private int requestedCount;
+    private int createdCount;
+    private int failedCount;
+    private List<Map<String, Object>> results;
+    
+    // 預設建構子
+    public RmaBatchCreateResponse() {}
+    
+    // 錯誤回應建構子
+    public RmaBatchCreateResponse(boolean success, String message) {
+        this.success = success;
+        this.message = message;
+    }
+    
+    // Getters and Setters
+    public boolean isSuccess() {
+        return success;
+    }
+    
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    public void setMessage(String message) {
+        this.message = message;
+    }
+    
+    public int getRequestedCount() {
+        return requestedCount;
+    }
+    
+    public void setRequestedCount(int requestedCount) {
+        this.requestedCount = requestedCount;
+    }
+    
+    public int getCreatedCount() {
+        return createdCount;
+    }
+    
+    public void setCreatedCount(int createdCount) {
+        this.createdCount = createdCount;
+    }
+    
+    public int getFailedCount() {
+        return failedCount;
+    }
+    
+    public void setFailedCount(int failedCount) {
+        this.failedCount = failedCount;
+    }
+    
+    public List<Map<String, Object>> getResults() {
+        return results;
+    }
+    
+    public void setResults(List<Map<String, Object>> results) {
+        this.results = results;
+    }
+    
+    /**
+     * 建立成功回應 (個別記錄可能失敗)
+     * @param errors 每筆的錯誤訊息 (與 requests 順序相同)，新增成功為 null
+     */
+    public static RmaBatchCreateResponse success(List<RmaCreateRequest> requests, String[] errors) {
+        RmaBatchCreateResponse response = new RmaBatchCreateResponse(true, null);
+        response.results = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            RmaCreateRequest request = requests.get(i);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("index", i);
+            result.put("productType", request != null ? request.getProductType() : null);
+            result.put("serialNo", request != null ? request.getSerialNo() : null);
+            result.put("success", errors[i] == null);
+            result.put("message", errors[i] == null ? "新增成功" : errors[i]);
+            response.results.add(result);
+            if (errors[i] == null) {
+                response.createdCount++;
+            } else {
+                response.failedCount++;
+            }
+        }
+        response.requestedCount = requests.size();
+        response.message = String.format("批次新增 %d 筆 RMA 記錄：成功 %d 筆，失敗 %d 筆",
+                                         response.requestedCount, response.createdCount, response.failedCount);
+        return response;
+    }
+    
+    /**
+     * 建立錯誤回應
+     */
+    public static RmaBatchCreateResponse error(String message) {
+        return new RmaBatchCreateResponse(false, message);
+    }
+    
+    @Override
+    public String toString() {
+        return "RmaBatchCreateResponse{" +
+                "success=" + success +
+                ", requestedCount=" + requestedCount +
+                ", createdCount=" + createdCount +
+                ", failedCount=" + failedCount +
+                '}';
+    }
+}
@@ -0,0 +1,146 @@
+package com.sapphire.rma.dto;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RMA 每日筆數統計回應 DTO
+ * 依 Create_Date 的日期回傳每日筆數 (可再依 PN 或 SKU 分組)，取代查詢全部記錄後在前端計數
+ */
+public class RmaDailyCountResponse {
+    
+    // 統計來源
+    public static final String SOURCE_ROLLUP = "rollup";
+    public static final String SOURCE_DATABASE = "database";
+    
+    private boolean success;
+    private String message;
+    private String productType;
+    private LocalDate startDate;
+    private LocalDate endDate;
+    private String groupBy;
+    private String source;
+    private long totalCount;
+    private List<Map<String, Object>> counts;
+    
+    // 預設建構子
+    public RmaDailyCountResponse() {}
+    
+    // 錯誤回應建構子
+    public RmaDailyCountResponse(boolean success, String message) {
+        this.success = success;
+        this.message = message;
+    }
+    
+    // Getters and Setters
+    public boolean isSuccess() {
+        return success;
+    }
+    
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    public void setMessage(String message) {
+        this.message = message;
+    }
+    
+    public String getProductType() {
+        return productType;
+    }
+    
+    public void setProductType(String productType) {
+        this.productType = productType;
+    }
+    
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+    
+    public void setStartDate(LocalDate startDate) {
+        this.startDate = startDate;
+    }
+    
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+    
+    public void setEndDate(LocalDate endDate) {
+        this.endDate = endDate;
+    }
+    
+    public String getGroupBy() {
+        return groupBy;
+    }
+    
+    public void setGroupBy(String groupBy) {
+        this.groupBy = groupBy;
+    }
+    
+    public String getSource() {
+        return source;
+    }
+    
+    public void setSource(String source) {
+        this.source = source;
+    }
+    
+    public long getTotalCount() {
+        return totalCount;
+    }
+    
+    public void setTotalCount(long totalCount) {
+        this.totalCount = totalCount;
+    }
+    
+    public List<Map<String, Object>> getCounts() {
+        return counts;
+    }
+    
+    public void setCounts(List<Map<String, Object>> counts) {
+        this.counts = counts;
+    }
+    
+    /**
+     * 建立成功回應
+     * @param counts 依日期排序的統計，每個項目包含 date、count (分組時另有 PN 或 SKU)
+     */
+    public static RmaDailyCountResponse success(String productType, LocalDate startDate, LocalDate endDate,
+                                                String groupBy, String source, List<Map<String, Object>> counts) {
+        RmaDailyCountResponse response = new RmaDailyCountResponse(true, null);
+        response.productType = productType;
+        response.startDate = startDate;
+        response.endDate = endDate;
+        response.groupBy = groupBy;
+        response.source = source;
+        response.counts = counts;
+        response.totalCount = counts.stream().mapToLong(item -> ((Number) item.get("count")).longValue()).sum();
+        response.message = String.format("共 %d 筆 RMA 記錄", response.totalCount);
+        return response;
+    }
+    
+    /**
+     * 建立錯誤回應
+     */
+    public static RmaDailyCountResponse error(String message) {
+        return new RmaDailyCountResponse(false, message);
+    }
+    
+    @Override
+    public String toString() {
+        return "RmaDailyCountResponse{" +
+                "success=" + success +
+                ", productType='" + productType + '\'' +
+                ", startDate=" + startDate +
+                ", endDate=" + endDate +
+                ", groupBy='" + groupBy + '\'' +
+                ", source='" + source + '\'' +
+                ", totalCount=" + totalCount +
+                '}';
+    }
+}
@@ -12,6 +12,7 @@ public class RmaOperationResponse {
     private String productType;
     private String serialNo;
     private Object data; // 可選的額外資料
+    private String rowVersion; // 更新後的 row version (下次更新時帶回)
     
     // 預設建構子
     public RmaOperationResponse() {}
@@ -83,6 +84,14 @@ public class RmaOperationResponse {
         this.data = data;
     }
     
+    public String getRowVersion() {
+        return rowVersion;
+    }
+    
+    public void setRowVersion(String rowVersion) {
+        this.rowVersion = rowVersion;
+    }
+    
     /**
      * 建立成功回應 - 新增操作
      */
@@ -133,6 +142,13 @@ public class RmaOperationResponse {
         return new RmaOperationResponse(false, message, "UPDATE");
     }
     
+    /**
+     * 建立錯誤回應 - 更新衝突 (記錄在讀取後已被其他人修改，用戶端應重新查詢後再更新)
+     */
+    public static RmaOperationResponse updateConflict(String productType, String serialNo, String message) {
+        return new RmaOperationResponse(false, message, Operations.UPDATE_CONFLICT, productType, serialNo, null);
+    }
+    
     /**
      * 建立錯誤回應 - 刪除操作
      */
@@ -147,6 +163,7 @@ public class RmaOperationResponse {
         public static final String CREATE = "CREATE";
         public static final String UPDATE = "UPDATE";
         public static final String UPDATE_WITH_STOCK_DELETE = "UPDATE_WITH_STOCK_DELETE";
+        public static final String UPDATE_CONFLICT = "UPDATE_CONFLICT";
         public static final String DELETE = "DELETE";
         public static final String SEARCH = "SEARCH";
         
@@ -0,0 +1,95 @@
+package com.sapphire.rma.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * RMA 搜尋分頁游標
+ * 以最後一筆資料的 Create_Date 與 Serial_No 定位下一頁 (keyset pagination)
+ * 對外只以不透明的 continuationToken 字串傳遞
+ */
+public class RmaSearchCursor {
+    
+    private static final String SEPARATOR = "\n";
+    private static final String NULL_DATE = "-";
+    
+    private final Object createDate;
+    private final String serialNo;
+    
+    public RmaSearchCursor(Object createDate, String serialNo) {
+        this.createDate = createDate;
+        this.serialNo = serialNo;
+    }
+    
+    /**
+     * 最後一筆的 Create_Date (可為 null)，型別可直接作為 JDBC 參數
+     */
+    public Object getCreateDate() {
+        return createDate;
+    }
+    
+    public String getSerialNo() {
+        return serialNo;
+    }
+    
+    /**
+     * 由一筆查詢結果建立游標
+     */
+    public static RmaSearchCursor fromRecord(Map<String, Object> record) {
+        Object serialNo = record.get("Serial_No");
+        return new RmaSearchCursor(record.get("Create_Date"), serialNo != null ? serialNo.toString() : "");
+    }
+    
+    /**
+     * 編碼為 continuationToken
+     */
+    public String encode() {
+        String raw = (createDate != null ? createDate.toString() : NULL_DATE) + SEPARATOR + serialNo;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * 解碼 continuationToken
+     * @throws IllegalArgumentException 游標格式錯誤
+     */
+    public static RmaSearchCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separatorIndex = raw.indexOf(SEPARATOR);
+            if (separatorIndex < 0) {
+                throw new IllegalArgumentException("無效的分頁游標");
+            }
+            String dateText = raw.substring(0, separatorIndex);
+            String serialNo = raw.substring(separatorIndex + 1);
+            return new RmaSearchCursor(parseDate(dateText), serialNo);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("無效的分頁游標", e);
+        }
+    }
+    
+    /**
+     * 還原日期型別：DATE 欄位為 yyyy-MM-dd，DATETIME 欄位為 Timestamp 字串
+     */
+    private static Object parseDate(String dateText) {
+        if (NULL_DATE.equals(dateText)) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(dateText);
+        } catch (DateTimeParseException e) {
+            return Timestamp.valueOf(dateText);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "RmaSearchCursor{" +
+                "createDate=" + createDate +
+                ", serialNo='" + serialNo + '\'' +
+                '}';
+    }
+}
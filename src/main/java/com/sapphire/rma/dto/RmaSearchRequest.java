@@ -1,7 +1,11 @@
 package com.sapphire.rma.dto;
 
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.Size;
 import java.time.LocalDate;
+import java.util.List;
 
 /**
  * RMA 搜尋請求 DTO
@@ -18,6 +22,16 @@ public class RmaSearchRequest {
     private LocalDate startDate;
     private LocalDate endDate;
     
+    // 分頁查詢 (游標分頁)，pageSize 為空時回傳全部結果
+    @Min(value = 1, message = "每頁筆數至少為 1")
+    @Max(value = 1000, message = "每頁筆數不能超過 1000")
+    private Integer pageSize;
+    private String continuationToken;
+    
+    // 只回傳指定欄位 (例如 Serial_No、PN、SKU、Create_Date)，為空時回傳全部欄位
+    @Size(max = 50, message = "欄位數量不能超過 50")
+    private List<String> fields;
+    
     // 預設建構子
     public RmaSearchRequest() {}
     
@@ -75,6 +89,37 @@ public class RmaSearchRequest {
         this.endDate = endDate;
     }
     
+    public Integer getPageSize() {
+        return pageSize;
+    }
+    
+    public void setPageSize(Integer pageSize) {
+        this.pageSize = pageSize;
+    }
+    
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+    
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+    
+    public List<String> getFields() {
+        return fields;
+    }
+    
+    public void setFields(List<String> fields) {
+        this.fields = fields;
+    }
+    
+    /**
+     * 檢查是否為分頁查詢
+     */
+    public boolean isPaged() {
+        return pageSize != null;
+    }
+    
     /**
      * 檢查是否有搜尋條件
      */
@@ -95,6 +140,9 @@ public class RmaSearchRequest {
                 ", sku='" + sku + '\'' +
                 ", startDate=" + startDate +
                 ", endDate=" + endDate +
+                ", pageSize=" + pageSize +
+                ", continuationToken='" + continuationToken + '\'' +
+                ", fields=" + fields +
                 '}';
     }
 }
\ No newline at end of file
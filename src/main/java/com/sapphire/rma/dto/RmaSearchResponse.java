@@ -1,5 +1,7 @@
 package com.sapphire.rma.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 import java.util.Map;
 
@@ -15,6 +17,20 @@ public class RmaSearchResponse {
     private int totalCount;
     private String productType;
     
+    // 欄式格式結果 (只在 format=columnar 時輸出，此時 rmaRecords 為 null)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private ColumnarRecords columnarRecords;
+    
+    // 分頁資訊 (僅分頁查詢時使用)
+    private boolean hasMore;
+    private String continuationToken;
+    
+    // 跨產品線搜尋的各產品線狀態 (僅跨產品線搜尋時輸出)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<FederatedLineResult> lineResults;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean partial;
+    
     // 預設建構子
     public RmaSearchResponse() {}
     
@@ -76,6 +92,46 @@ public class RmaSearchResponse {
         this.productType = productType;
     }
     
+    public ColumnarRecords getColumnarRecords() {
+        return columnarRecords;
+    }
+    
+    public void setColumnarRecords(ColumnarRecords columnarRecords) {
+        this.columnarRecords = columnarRecords;
+    }
+    
+    public boolean isHasMore() {
+        return hasMore;
+    }
+    
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+    
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+    
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+    
+    public List<FederatedLineResult> getLineResults() {
+        return lineResults;
+    }
+    
+    public void setLineResults(List<FederatedLineResult> lineResults) {
+        this.lineResults = lineResults;
+    }
+    
+    public Boolean getPartial() {
+        return partial;
+    }
+    
+    public void setPartial(Boolean partial) {
+        this.partial = partial;
+    }
+    
     /**
      * 建立成功回應
      */
@@ -84,6 +140,39 @@ public class RmaSearchResponse {
                                    rmaRecords != null ? rmaRecords.size() : 0, productType);
     }
     
+    /**
+     * 建立成功回應 - 分頁查詢
+     * @param continuationToken 下一頁的游標，沒有下一頁時為 null
+     */
+    public static RmaSearchResponse page(String message, List<Map<String, Object>> rmaRecords, 
+                                         String productType, String continuationToken) {
+        RmaSearchResponse response = success(message, rmaRecords, productType);
+        response.setHasMore(continuationToken != null);
+        response.setContinuationToken(continuationToken);
+        return response;
+    }
+    
+    /**
+     * 建立成功回應 - 跨產品線搜尋
+     * 有任何產品線逾時或失敗時 partial 為 true
+     */
+    public static RmaSearchResponse federated(String message, List<Map<String, Object>> rmaRecords, 
+                                              List<FederatedLineResult> lineResults) {
+        RmaSearchResponse response = success(message, rmaRecords, null);
+        response.setLineResults(lineResults);
+        response.setPartial(lineResults.stream().anyMatch(line -> !line.isOk()));
+        return response;
+    }
+    
+    /**
+     * 轉換為欄式格式，totalCount 保持不變
+     */
+    public RmaSearchResponse toColumnar() {
+        this.columnarRecords = ColumnarRecords.from(rmaRecords);
+        this.rmaRecords = null;
+        return this;
+    }
+    
     /**
      * 建立錯誤回應
      */
@@ -98,6 +187,7 @@ public class RmaSearchResponse {
                 ", message='" + message + '\'' +
                 ", totalCount=" + totalCount +
                 ", productType='" + productType + '\'' +
+                ", hasMore=" + hasMore +
                 '}';
     }
 }
\ No newline at end of file
@@ -17,6 +17,12 @@ public class RmaUpdateWithStockRequest {
     // 要刪除的庫存序列號（當使用替換功能時）
     private String stockSerialNoToDelete;
     
+    // 選擇庫存時取得的保留 token (POST /api/stock/{productType}/reservations/{serialNo})
+    private String reservationToken;
+    
+    // 讀取記錄時的 row version (search-for-update 回傳的 Row_Version)，記錄已被他人修改時拒絕更新
+    private String rowVersion;
+    
     // RMA 更新欄位（所有欄位，允許部分更新）
     private String rmaNo;
     private String customerName;
@@ -74,6 +80,22 @@ public class RmaUpdateWithStockRequest {
         this.stockSerialNoToDelete = stockSerialNoToDelete;
     }
     
+    public String getReservationToken() {
+        return reservationToken;
+    }
+    
+    public void setReservationToken(String reservationToken) {
+        this.reservationToken = reservationToken;
+    }
+    
+    public String getRowVersion() {
+        return rowVersion;
+    }
+    
+    public void setRowVersion(String rowVersion) {
+        this.rowVersion = rowVersion;
+    }
+    
     public String getRmaNo() {
         return rmaNo;
     }
@@ -255,6 +277,8 @@ public class RmaUpdateWithStockRequest {
                 "productType='" + productType + '\'' +
                 ", serialNo='" + serialNo + '\'' +
                 ", stockSerialNoToDelete='" + stockSerialNoToDelete + '\'' +
+                ", reservationToken='" + reservationToken + '\'' +
+                ", rowVersion='" + rowVersion + '\'' +
                 ", rmaNo='" + rmaNo + '\'' +
                 ", customerName='" + customerName + '\'' +
                 '}';
@@ -0,0 +1,160 @@
+package com.sapphire.rma.dto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 批次序列號查詢回應 DTO
+ * 一次回傳多個序列號是否存在 (found / missing)，取代逐筆呼叫 exists API
+ */
+public class SerialLookupResponse {
+    
+    // 單次查詢的序列號上限
+    public static final int MAX_SERIAL_NOS = 50000;
+    
+    private boolean success;
+    private String message;
+    private String productType;
+    private int requestedCount;
+    private int foundCount;
+    private int missingCount;
+    private List<String> found;
+    private List<String> missing;
+    
+    // 預設建構子
+    public SerialLookupResponse() {}
+    
+    // 錯誤回應建構子
+    public SerialLookupResponse(boolean success, String message) {
+        this.success = success;
+        this.message = message;
+    }
+    
+    // Getters and Setters
+    public boolean isSuccess() {
+        return success;
+    }
+    
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    public void setMessage(String message) {
+        this.message = message;
+    }
+    
+    public String getProductType() {
+        return productType;
+    }
+    
+    public void setProductType(String productType) {
+        this.productType = productType;
+    }
+    
+    public int getRequestedCount() {
+        return requestedCount;
+    }
+    
+    public void setRequestedCount(int requestedCount) {
+        this.requestedCount = requestedCount;
+    }
+    
+    public int getFoundCount() {
+        return foundCount;
+    }
+    
+    public void setFoundCount(int foundCount) {
+        this.foundCount = foundCount;
+    }
+    
+    public int getMissingCount() {
+        return missingCount;
+    }
+    
+    public void setMissingCount(int missingCount) {
+        this.missingCount = missingCount;
+    }
+    
+    public List<String> getFound() {
+        return found;
+    }
+    
+    public void setFound(List<String> found) {
+        this.found = found;
+    }
+    
+    public List<String> getMissing() {
+        return missing;
+    }
+    
+    public void setMissing(List<String> missing) {
+        this.missing = missing;
+    }
+    
+    /**
+     * 整理要查詢的序列號：去除前後空白與空值，重複的 (不分大小寫) 只保留第一個
+     */
+    public static List<String> normalize(Collection<String> serialNos) {
+        Map<String, String> unique = new LinkedHashMap<>();
+        for (String serialNo : serialNos) {
+            if (serialNo != null && !serialNo.trim().isEmpty()) {
+                unique.putIfAbsent(serialNo.trim().toLowerCase(), serialNo.trim());
+            }
+        }
+        return new ArrayList<>(unique.values());
+    }
+    
+    /**
+     * 建立成功回應，依請求順序分成 found / missing
+     * @param existing 資料表中存在的序列號 (不分大小寫比對)
+     */
+    public static SerialLookupResponse success(String productType, List<String> serialNos, Set<String> existing) {
+        Set<String> lookup = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        lookup.addAll(existing);
+        
+        SerialLookupResponse response = new SerialLookupResponse(true, null);
+        response.productType = productType;
+        response.found = new ArrayList<>();
+        response.missing = new ArrayList<>();
+        for (String serialNo : serialNos) {
+            if (lookup.contains(serialNo)) {
+                response.found.add(serialNo);
+            } else {
+                response.missing.add(serialNo);
+            }
+        }
+        response.requestedCount = serialNos.size();
+        response.foundCount = response.found.size();
+        response.missingCount = response.missing.size();
+        response.message = String.format("查詢 %d 個序列號：存在 %d 個，不存在 %d 個", 
+                                         response.requestedCount, response.foundCount, response.missingCount);
+        return response;
+    }
+    
+    /**
+     * 建立錯誤回應
+     */
+    public static SerialLookupResponse error(String message) {
+        return new SerialLookupResponse(false, message);
+    }
+    
+    @Override
+    public String toString() {
+        return "SerialLookupResponse{" +
+                "success=" + success +
+                ", productType='" + productType + '\'' +
+                ", requestedCount=" + requestedCount +
+                ", foundCount=" + foundCount +
+                ", missingCount=" + missingCount +
+                '}';
+    }
+}
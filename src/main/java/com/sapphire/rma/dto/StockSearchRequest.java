@@ -1,6 +1,8 @@
 package com.sapphire.rma.dto;
 
 import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.Size;
+import java.util.List;
 
 /**
  * 庫存搜尋請求 DTO
@@ -15,6 +17,10 @@ public class StockSearchRequest {
     private String sku;
     private String productName;
     
+    // 只回傳指定欄位，為空時回傳全部欄位
+    @Size(max = 50, message = "欄位數量不能超過 50")
+    private List<String> fields;
+    
     // 預設建構子
     public StockSearchRequest() {}
     
@@ -64,6 +70,14 @@ public class StockSearchRequest {
         this.productName = productName;
     }
     
+    public List<String> getFields() {
+        return fields;
+    }
+    
+    public void setFields(List<String> fields) {
+        this.fields = fields;
+    }
+    
     /**
      * 檢查是否有搜尋條件
      */
@@ -82,6 +96,7 @@ public class StockSearchRequest {
                 ", pn='" + pn + '\'' +
                 ", sku='" + sku + '\'' +
                 ", productName='" + productName + '\'' +
+                ", fields=" + fields +
                 '}';
     }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.sapphire.rma.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 import java.util.Map;
 
@@ -14,6 +16,10 @@ public class StockSearchResponse {
     private int totalCount;
     private String productType;
     
+    // 欄式格式結果 (只在 format=columnar 時輸出，此時 stockRecords 為 null)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private ColumnarRecords columnarRecords;
+    
     // 預設建構子
     public StockSearchResponse() {}
     
@@ -77,6 +83,14 @@ public class StockSearchResponse {
         this.productType = productType;
     }
     
+    public ColumnarRecords getColumnarRecords() {
+        return columnarRecords;
+    }
+    
+    public void setColumnarRecords(ColumnarRecords columnarRecords) {
+        this.columnarRecords = columnarRecords;
+    }
+    
     /**
      * 建立成功回應
      */
@@ -84,6 +98,15 @@ public class StockSearchResponse {
         return new StockSearchResponse(true, message, stockRecords, productType);
     }
     
+    /**
+     * 轉換為欄式格式，totalCount 保持不變
+     */
+    public StockSearchResponse toColumnar() {
+        this.columnarRecords = ColumnarRecords.from(stockRecords);
+        this.stockRecords = null;
+        return this;
+    }
+    
     /**
      * 建立錯誤回應
      */
@@ -16,6 +16,9 @@ public class UpdatePageResponse {
     private List<Map<String, Object>> stockRecords;
     private int stockCount;
     
+    // 找不到 RMA 記錄時，相近的序列號 (條碼誤讀時供使用者選擇)
+    private List<Map<String, Object>> serialCandidates;
+    
     // 預設建構子
     public UpdatePageResponse() {}
     
@@ -89,6 +92,14 @@ public class UpdatePageResponse {
         this.stockCount = stockCount;
     }
     
+    public List<Map<String, Object>> getSerialCandidates() {
+        return serialCandidates;
+    }
+    
+    public void setSerialCandidates(List<Map<String, Object>> serialCandidates) {
+        this.serialCandidates = serialCandidates;
+    }
+    
     /**
      * 建立成功回應（有 RMA 和庫存資料）
      */
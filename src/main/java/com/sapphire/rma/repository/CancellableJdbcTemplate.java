@@ -0,0 +1,28 @@
+package com.sapphire.rma.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 支援請求逾時與取消的 JdbcTemplate
+ * 每個 statement 執行前套用目前執行緒 QueryContext 的剩餘時間，並登記為可取消的 statement。
+ * 沒有 QueryContext 時 (背景工作、啟動時的載入) 與一般 JdbcTemplate 相同。
+ */
+public class CancellableJdbcTemplate extends JdbcTemplate {
+    
+    public CancellableJdbcTemplate(DataSource dataSource) {
+        super(dataSource);
+    }
+    
+    @Override
+    protected void applyStatementSettings(Statement stmt) throws SQLException {
+        super.applyStatementSettings(stmt);
+        QueryContext context = QueryContext.current();
+        if (context != null) {
+            context.attach(stmt);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.sapphire.rma.repository;
+
+/**
+ * 新增記錄時序列號已存在的處理方式
+ */
+public enum ConflictPolicy {
+    
+    /** 序列號已存在時不寫入 */
+    REJECT,
+    
+    /** 以新資料覆寫提供的欄位 (值為空的欄位設為 NULL) */
+    OVERWRITE,
+    
+    /** 只更新有值的欄位，其他欄位保留原值 */
+    MERGE;
+    
+    /**
+     * 由請求參數取得處理方式 (不分大小寫)，未指定時為 REJECT
+     * @throws IllegalArgumentException 不支援的處理方式
+     */
+    public static ConflictPolicy fromParameter(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return REJECT;
+        }
+        for (ConflictPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(value.trim())) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("不支援的衝突處理方式: " + value + "，可用值: reject、overwrite、merge");
+    }
+}
@@ -0,0 +1,237 @@
+package com.sapphire.rma.repository;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 記錄查詢統計的 DataSource
+ * 包裝連線池的 DataSource，連線建立的每個 statement 由執行到關閉 (包含讀取 ResultSet 的時間)
+ * 回報給 QueryMetrics；同時計算讀取的筆數、欄位值的估計位元組數與綁定參數數量。
+ * JdbcTemplate 與 JPA 都經由同一個 DataSource 取得連線，因此三個 Repository 的查詢都會被記錄。
+ */
+public class InstrumentedDataSource extends DelegatingDataSource {
+    
+    private final ObjectProvider<QueryMetrics> queryMetrics;
+    
+    public InstrumentedDataSource(DataSource targetDataSource, ObjectProvider<QueryMetrics> queryMetrics) {
+        super(targetDataSource);
+        this.queryMetrics = queryMetrics;
+    }
+    
+    @Override
+    public Connection getConnection() throws SQLException {
+        return instrument(super.getConnection());
+    }
+    
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return instrument(super.getConnection(username, password));
+    }
+    
+    /**
+     * 關閉時一併關閉連線池 (包裝後 Spring 只會看到這個物件)
+     */
+    public void close() throws Exception {
+        DataSource target = getTargetDataSource();
+        if (target instanceof AutoCloseable) {
+            ((AutoCloseable) target).close();
+        }
+    }
+    
+    private Connection instrument(Connection connection) {
+        QueryMetrics metrics = queryMetrics.getIfAvailable();
+        if (metrics == null || !metrics.isEnabled()) {
+            return connection;
+        }
+        return proxy(Connection.class, new ConnectionHandler(connection, metrics));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(InstrumentedDataSource.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+    
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+    
+    /**
+     * 連線：包裝建立的 statement
+     */
+    private static final class ConnectionHandler implements InvocationHandler {
+        private final Connection target;
+        private final QueryMetrics metrics;
+        
+        private ConnectionHandler(Connection target, QueryMetrics metrics) {
+            this.target = target;
+            this.metrics = metrics;
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = InstrumentedDataSource.invoke(target, method, args);
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return proxy(PreparedStatement.class,
+                                 new StatementHandler((Statement) result, (String) args[0], metrics));
+                case "prepareCall":
+                    return proxy(CallableStatement.class,
+                                 new StatementHandler((Statement) result, (String) args[0], metrics));
+                case "createStatement":
+                    return proxy(Statement.class, new StatementHandler((Statement) result, null, metrics));
+                default:
+                    return result;
+            }
+        }
+    }
+    
+    /**
+     * Statement：由執行到關閉計時，記錄綁定參數數量
+     */
+    private static final class StatementHandler implements InvocationHandler {
+        private final Statement target;
+        private final String preparedSql;
+        private final QueryMetrics metrics;
+        
+        // 目前執行中的查詢 (尚未回報)
+        private String sql;
+        private long startTime;
+        private boolean running;
+        private long rows;
+        private long bytes;
+        private int parameterCount;
+        
+        private StatementHandler(Statement target, String preparedSql, QueryMetrics metrics) {
+            this.target = target;
+            this.preparedSql = preparedSql;
+            this.metrics = metrics;
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                return execute(method, args);
+            }
+            if (name.startsWith("set") && method.getDeclaringClass() != Statement.class
+                    && args != null && args.length > 1 && args[0] instanceof Integer) {
+                // PreparedStatement.setXxx(parameterIndex, value)
+                parameterCount = Math.max(parameterCount, (Integer) args[0]);
+            }
+            if (name.equals("close")) {
+                finish(false);
+            }
+            
+            Object result = InstrumentedDataSource.invoke(target, method, args);
+            if (result instanceof ResultSet && name.equals("getResultSet")) {
+                return proxy(ResultSet.class, new ResultSetHandler((ResultSet) result, this));
+            }
+            return result;
+        }
+        
+        private Object execute(Method method, Object[] args) throws Throwable {
+            // 同一個 statement 重複執行時，先回報上一次
+            finish(false);
+            sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+            startTime = System.nanoTime();
+            running = true;
+            rows = 0;
+            bytes = 0;
+            
+            Object result;
+            try {
+                result = InstrumentedDataSource.invoke(target, method, args);
+            } catch (Throwable e) {
+                finish(true);
+                throw e;
+            }
+            
+            if (result instanceof ResultSet) {
+                return proxy(ResultSet.class, new ResultSetHandler((ResultSet) result, this));
+            }
+            if (result instanceof Integer || result instanceof Long) {
+                rows = ((Number) result).longValue();
+            } else if (result instanceof int[]) {
+                for (int count : (int[]) result) {
+                    rows += Math.max(0, count);
+                }
+            }
+            if (!method.getName().equals("execute")) {
+                // 更新類的執行已經完成；execute() 可能還要讀取 getResultSet()
+                finish(false);
+            }
+            return result;
+        }
+        
+        private void finish(boolean failed) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            metrics.record(sql, System.nanoTime() - startTime, rows, bytes, parameterCount, failed);
+        }
+    }
+    
+    /**
+     * ResultSet：計算讀取的筆數與欄位值大小，關閉時結束計時
+     */
+    private static final class ResultSetHandler implements InvocationHandler {
+        private final ResultSet target;
+        private final StatementHandler statement;
+        
+        private ResultSetHandler(ResultSet target, StatementHandler statement) {
+            this.target = target;
+            this.statement = statement;
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = InstrumentedDataSource.invoke(target, method, args);
+            String name = method.getName();
+            if (name.equals("next")) {
+                if (Boolean.TRUE.equals(result)) {
+                    statement.rows++;
+                }
+            } else if (name.startsWith("get") && args != null && args.length > 0 && result != null
+                    && method.getDeclaringClass() == ResultSet.class) {
+                statement.bytes += estimateSize(result);
+            } else if (name.equals("close")) {
+                statement.finish(false);
+            }
+            return result;
+        }
+        
+        private static long estimateSize(Object value) {
+            if (value instanceof CharSequence) {
+                return 2L * ((CharSequence) value).length();
+            }
+            if (value instanceof byte[]) {
+                return ((byte[]) value).length;
+            }
+            if (value instanceof Number || value instanceof Boolean || value instanceof java.util.Date) {
+                return 8;
+            }
+            // getMetaData、getStatement 等不是欄位值
+            if (value instanceof java.sql.ResultSetMetaData || value instanceof Statement) {
+                return 0;
+            }
+            return 16;
+        }
+    }
+}
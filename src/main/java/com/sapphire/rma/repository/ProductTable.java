@@ -0,0 +1,131 @@
+package com.sapphire.rma.repository;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * 產品線資料表資訊
+ * 已驗證的資料表名稱與欄位清單 (由 DatabaseMetaData 取得)，用來組出明確的欄位投影
+ */
+public final class ProductTable {
+    
+    // 取不到欄位資訊時 (資料表尚未建立) 使用的投影
+    private static final String ALL_COLUMNS = "*";
+    
+    private final String name;
+    private final List<String> columns;
+    private final String columnList;
+    private final Map<String, String> columnsByLowerName;
+    private final String versionColumn;
+    
+    ProductTable(String name, List<String> columns) {
+        this(name, columns, null);
+    }
+    
+    /**
+     * @param versionColumn rowversion 欄位 (不包含在 columns 內)，沒有時為 null
+     */
+    ProductTable(String name, List<String> columns, String versionColumn) {
+        this.name = name;
+        this.versionColumn = versionColumn;
+        this.columns = Collections.unmodifiableList(columns);
+        this.columnList = columns.isEmpty() ? ALL_COLUMNS : String.join(", ", columns);
+        this.columnsByLowerName = new HashMap<>();
+        for (String column : columns) {
+            columnsByLowerName.put(column.toLowerCase(), column);
+        }
+    }
+    
+    /**
+     * 資料表名稱，例如 VGA_RMA_record
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * 依資料表定義順序的欄位名稱
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+    
+    /**
+     * SELECT 使用的欄位投影，例如 "Rma_No, Customer_Name, ..."
+     */
+    public String getColumnList() {
+        return columnList;
+    }
+    
+    /**
+     * rowversion 欄位名稱 (樂觀並行控制使用)，資料表沒有時為 null
+     * 由資料庫自動維護，不包含在 getColumns() / getColumnList() 內，查詢與匯出不會帶出二進位值。
+     */
+    public String getVersionColumn() {
+        return versionColumn;
+    }
+    
+    /**
+     * 是否已取得欄位資訊
+     */
+    public boolean hasColumnMetadata() {
+        return !columns.isEmpty();
+    }
+    
+    /**
+     * 取得資料表中的正確欄位名稱 (不分大小寫)，不存在時回傳 null
+     */
+    public String resolveColumn(String columnName) {
+        return columnName != null ? columnsByLowerName.get(columnName.toLowerCase()) : null;
+    }
+    
+    /**
+     * 依指定欄位組出 SELECT 投影
+     * 欄位依資料表定義順序排列 (相同欄位組合只會有一種 SQL)，requiredColumns 一律包含在內。
+     * @param fields 要求的欄位，為空時回傳全部欄位
+     * @param requiredColumns 查詢本身需要的欄位 (例如分頁游標使用的排序欄位)
+     * @throws IllegalArgumentException 欄位不存在於資料表
+     */
+    public String projectColumns(List<String> fields, String... requiredColumns) {
+        if (fields == null || fields.isEmpty()) {
+            return columnList;
+        }
+        
+        Set<String> selected = new HashSet<>();
+        for (String field : fields) {
+            String column = resolveColumn(field != null ? field.trim() : null);
+            if (column == null) {
+                throw new IllegalArgumentException("資料表 " + name + " 沒有欄位: " + field);
+            }
+            selected.add(column);
+        }
+        for (String required : requiredColumns) {
+            String column = resolveColumn(required);
+            if (column != null) {
+                selected.add(column);
+            }
+        }
+        
+        StringJoiner projection = new StringJoiner(", ");
+        for (String column : columns) {
+            if (selected.contains(column)) {
+                projection.add(column);
+            }
+        }
+        return projection.toString();
+    }
+    
+    @Override
+    public String toString() {
+        return "ProductTable{" +
+                "name='" + name + '\'' +
+                ", columnCount=" + columns.size() +
+                ", versionColumn=" + versionColumn +
+                '}';
+    }
+}
@@ -0,0 +1,425 @@
+package com.sapphire.rma.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 產品線資料表索引檢查
+ * {產品線}_RMA_record / {產品線}_buffer_stock 由外部建立，不保證有 Repository 查詢需要的索引。
+ * 啟動時 (與管理端點呼叫時) 依 product_lines 逐一讀取 DatabaseMetaData 的索引資訊，
+ * 回報缺少以 Serial_No、PN、SKU、Create_Date 開頭的索引與仍沒有索引可用的查詢形狀。
+ * 預設只回報；建立索引由管理端點 (create=true) 明確要求，或設定 rma.index-provisioning.create-missing=true。
+ * 伺服器版本支援線上索引作業時以 WITH (ONLINE = ON) 建立，建立期間不鎖定資料表的讀寫。
+ * 同時回報 RMA 資料表是否有 rowversion 欄位 (更新 RMA 記錄的樂觀並行控制使用)；
+ * 新增欄位會修改資料表結構，不在檢查時自動執行，只能由管理端點明確呼叫 {@link #addRowVersion(String)}，
+ * 且需設定 rma.index-provisioning.add-row-version=true。
+ */
+@Component
+public class ProductTableIndexer {
+    
+    private static final String RMA = "rma";
+    private static final String STOCK = "stock";
+    
+    // RMA 資料表沒有 rowversion 欄位時新增的欄位 (更新時的樂觀並行控制)
+    private static final String ROW_VERSION_COLUMN = "Row_Version";
+    
+    // SQL Server 識別碼長度上限
+    private static final int MAX_INDEX_NAME_LENGTH = 128;
+    
+    /**
+     * Repository 查詢需要的索引與使用它的查詢形狀 (QueryShapeRegistry 的查詢名稱)
+     * 已有以相同欄位開頭的索引 (包含主鍵) 即視為可用。
+     */
+    private static final List<IndexSpec> INDEX_SPECS = Arrays.asList(
+        new IndexSpec(RMA, new String[] {"Serial_No"},
+                      "rma.existsBySerialNo", "rma.findExistingSerialNos", "rma.deleteBySerialNo",
+                      "rma.findRmaRecordForUpdate", "rma.upsert",
+                      "rma.findValuesBySerialNos", "rma.batchInsert",
+                      "rma.findRollupSourceBySerialNos"),
+        new IndexSpec(RMA, new String[] {"Create_Date DESC", "Serial_No DESC"},
+                      "rma.findBySearchCriteria", "rma.findPageBySearchCriteria", "rma.countByDay"),
+        new IndexSpec(RMA, new String[] {"PN"},
+                      "rma.findBySearchCriteria", "rma.findRmaRecordForUpdate"),
+        new IndexSpec(RMA, new String[] {"SKU"},
+                      "rma.findBySearchCriteria", "rma.findRmaRecordForUpdate"),
+        new IndexSpec(STOCK, new String[] {"Serial_No"},
+                      "stock.findBySerialNo", "stock.existsBySerialNo", "stock.findExistingSerialNos",
+                      "stock.deleteBySerialNo", "stock.deleteBySerialNos", "stock.findAllByProductType",
+                      "stock.findBySearchCriteria", "stock.upsert", "stock.findValuesBySerialNos"),
+        new IndexSpec(STOCK, new String[] {"PN"},
+                      "stock.findByPN", "stock.findBySearchCriteria"),
+        new IndexSpec(STOCK, new String[] {"SKU"},
+                      "stock.findBySKU", "stock.findBySearchCriteria")
+    );
+    
+    // 本質上需要掃描整張資料表的查詢形狀 (LIKE '%...%'、DISTINCT、彙總)，索引無法改善
+    private static final List<String> SCAN_SHAPES = Arrays.asList(
+        "rma.findDistinctValues", "rma.streamRollupSource", "rma.countByProductType",
+        "stock.findByKeyword", "stock.findDistinctValues", "stock.countByProductType",
+        "stock.getStockStatisticsByProduct"
+    );
+    
+    @Value("${rma.index-provisioning.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${rma.index-provisioning.create-missing:false}")
+    private boolean createMissing;
+    
+    @Value("${rma.index-provisioning.add-row-version:false}")
+    private boolean addRowVersionAllowed;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private ProductLineRepository productLineRepository;
+    
+    @Autowired
+    private ProductTableRegistry productTableRegistry;
+    
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "product-table-indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    // 第一次建立索引時由 SERVERPROPERTY('EngineEdition') 判斷
+    private volatile Boolean onlineIndexSupported;
+    
+    private volatile List<Map<String, Object>> lastReport = Collections.emptyList();
+    private volatile Instant lastRun;
+    private volatile boolean running;
+    
+    /**
+     * 啟動完成後在背景檢查所有產品線 (大型資料表建立索引需要時間，不阻擋啟動)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled) {
+            return;
+        }
+        worker.submit(() -> {
+            try {
+                provision(null, createMissing);
+            } catch (Exception e) {
+                System.err.println("檢查產品線資料表索引失敗: " + e.getMessage());
+            }
+        });
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+    
+    /**
+     * 檢查 (並建立) 產品線資料表的索引
+     * @param productType 產品線，為 null 時檢查所有產品線
+     * @param create 是否建立缺少的索引；false 時只回報
+     * @return 各資料表的檢查結果
+     * @throws IllegalArgumentException 產品線名稱不合法
+     */
+    public synchronized List<Map<String, Object>> provision(String productType, boolean create) {
+        running = true;
+        try {
+            List<String> productTypes = productType != null
+                    ? Collections.singletonList(productType)
+                    : productLineRepository.findAllProductLineNames();
+            
+            List<Map<String, Object>> report = new ArrayList<>();
+            for (String type : productTypes) {
+                report.add(provisionTable(type, RMA, productTableRegistry.getRmaTable(type), create));
+                report.add(provisionTable(type, STOCK, productTableRegistry.getStockTable(type), create));
+            }
+            
+            if (productType == null) {
+                lastReport = report;
+            } else {
+                // 只檢查單一產品線時，替換上次結果中該產品線的部分
+                List<Map<String, Object>> merged = new ArrayList<>();
+                for (Map<String, Object> table : lastReport) {
+                    if (!productType.equals(table.get("productType"))) {
+                        merged.add(table);
+                    }
+                }
+                merged.addAll(report);
+                lastReport = merged;
+            }
+            lastRun = Instant.now();
+            return report;
+        } finally {
+            running = false;
+        }
+    }
+    
+    /**
+     * 最近一次檢查所有產品線的結果，以及仍沒有索引可用的查詢形狀 (查詢名稱 -> 產品線)
+     */
+    public Map<String, Object> getReport() {
+        List<Map<String, Object>> report = lastReport;
+        
+        Map<String, TreeSet<String>> unindexedShapes = new TreeMap<>();
+        for (Map<String, Object> table : report) {
+            @SuppressWarnings("unchecked")
+            List<String> shapes = (List<String>) table.get("unindexedShapes");
+            for (String shape : shapes) {
+                unindexedShapes.computeIfAbsent(shape, k -> new TreeSet<>()).add((String) table.get("productType"));
+            }
+        }
+        
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", enabled);
+        result.put("createMissing", createMissing);
+        result.put("onlineIndex", onlineIndexSupported);
+        result.put("addRowVersion", addRowVersionAllowed);
+        result.put("running", running);
+        result.put("lastRun", lastRun != null ? lastRun.toString() : null);
+        result.put("unindexedShapes", unindexedShapes);
+        result.put("scanShapes", SCAN_SHAPES);
+        result.put("tables", report);
+        return result;
+    }
+    
+    private Map<String, Object> provisionTable(String productType, String kind, ProductTable table, boolean create) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("productType", productType);
+        result.put("table", table.getName());
+        
+        List<Map<String, Object>> missing = new ArrayList<>();
+        List<String> created = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        TreeSet<String> unindexedShapes = new TreeSet<>();
+        
+        if (!table.hasColumnMetadata()) {
+            // 資料表尚未建立
+            result.put("exists", false);
+            result.put("indexes", Collections.emptyMap());
+            result.put("missing", missing);
+            result.put("created", created);
+            result.put("errors", errors);
+            result.put("unindexedShapes", new ArrayList<>(unindexedShapes));
+            return result;
+        }
+        
+        Map<String, List<String>> indexes = loadIndexes(table.getName());
+        for (IndexSpec spec : INDEX_SPECS) {
+            if (!spec.kind.equals(kind)) {
+                continue;
+            }
+            String definition = spec.definition(table);
+            if (definition == null) {
+                // 資料表沒有這些欄位 (例如庫存表沒有 Create_Date)
+                continue;
+            }
+            if (isCovered(indexes, spec.leadingColumn())) {
+                continue;
+            }
+            
+            String indexName = spec.indexName(table.getName());
+            if (create) {
+                try {
+                    jdbcTemplate.execute("CREATE INDEX [" + indexName + "] ON " + table.getName() + " (" + definition + ")" +
+                                         (isOnlineIndexSupported() ? " WITH (ONLINE = ON)" : ""));
+                    created.add(indexName);
+                    System.err.println("已建立索引 " + indexName + " (" + definition + ")");
+                    continue;
+                } catch (Exception e) {
+                    errors.add(indexName + ": " + e.getMessage());
+                    System.err.println("建立索引 " + indexName + " 失敗: " + e.getMessage());
+                }
+            }
+            
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("columns", definition);
+            item.put("shapes", spec.shapes);
+            missing.add(item);
+            unindexedShapes.addAll(spec.shapes);
+        }
+        
+        if (!created.isEmpty()) {
+            indexes = loadIndexes(table.getName());
+        }
+        result.put("exists", true);
+        if (RMA.equals(kind)) {
+            result.put("rowVersion", table.getVersionColumn());
+        }
+        result.put("indexes", indexes);
+        result.put("missing", missing);
+        result.put("created", created);
+        result.put("errors", errors);
+        result.put("unindexedShapes", new ArrayList<>(unindexedShapes));
+        return result;
+    }
+    
+    /**
+     * RMA 資料表沒有 rowversion 欄位時新增 (每張資料表只能有一個 rowversion 欄位)
+     * 新增欄位會為每一列產生值並鎖定資料表，大型資料表應在維護時段呼叫。
+     * @param productType 產品線，為 null 時處理所有產品線
+     * @return 各 RMA 資料表的結果 (rowVersion 欄位名稱、是否新增、錯誤訊息)
+     * @throws IllegalStateException 未設定 rma.index-provisioning.add-row-version=true
+     * @throws IllegalArgumentException 產品線名稱不合法
+     */
+    public synchronized List<Map<String, Object>> addRowVersion(String productType) {
+        if (!addRowVersionAllowed) {
+            throw new IllegalStateException("未啟用新增 rowversion 欄位 (rma.index-provisioning.add-row-version=false)");
+        }
+        List<String> productTypes = productType != null
+                ? Collections.singletonList(productType)
+                : productLineRepository.findAllProductLineNames();
+        
+        List<Map<String, Object>> report = new ArrayList<>();
+        boolean anyAdded = false;
+        for (String type : productTypes) {
+            ProductTable table = productTableRegistry.getRmaTable(type);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("productType", type);
+            result.put("table", table.getName());
+            
+            String versionColumn = table.getVersionColumn();
+            boolean added = false;
+            if (versionColumn == null && table.hasColumnMetadata()) {
+                try {
+                    jdbcTemplate.execute("ALTER TABLE " + table.getName() + " ADD " + ROW_VERSION_COLUMN + " rowversion");
+                    versionColumn = ROW_VERSION_COLUMN;
+                    added = true;
+                    System.err.println("已新增 " + table.getName() + "." + ROW_VERSION_COLUMN + " (rowversion)");
+                } catch (Exception e) {
+                    result.put("error", e.getMessage());
+                    System.err.println("新增 " + table.getName() + " rowversion 欄位失敗: " + e.getMessage());
+                }
+            }
+            result.put("exists", table.hasColumnMetadata());
+            result.put("rowVersion", versionColumn);
+            result.put("added", added);
+            report.add(result);
+            anyAdded |= added;
+        }
+        
+        // 新增了 rowversion 欄位時重新載入欄位資訊
+        if (anyAdded) {
+            productTableRegistry.refresh();
+        }
+        return report;
+    }
+    
+    /**
+     * 伺服器是否支援線上建立索引
+     * EngineEdition 3 (Enterprise / Developer / Evaluation)、5 (Azure SQL Database)、8 (Managed Instance) 支援；
+     * Standard / Express 或其他資料庫不支援，改為一般 (離線) 建立。
+     */
+    private boolean isOnlineIndexSupported() {
+        Boolean result = onlineIndexSupported;
+        if (result == null) {
+            try {
+                Integer edition = jdbcTemplate.queryForObject(
+                    "SELECT CAST(SERVERPROPERTY('EngineEdition') AS int)", Integer.class);
+                result = edition != null && (edition == 3 || edition == 5 || edition == 8);
+            } catch (Exception e) {
+                result = false;
+            }
+            onlineIndexSupported = result;
+        }
+        return result;
+    }
+    
+    /**
+     * 由 DatabaseMetaData 讀取資料表的索引 (索引名稱 -> 依順序的欄位)
+     * 與 ProductTableRegistry 相同，只讀取連線預設 schema 的資料表
+     */
+    private Map<String, List<String>> loadIndexes(String tableName) {
+        Map<String, List<String>> indexes = jdbcTemplate.execute((ConnectionCallback<Map<String, List<String>>>) connection -> {
+            Map<String, TreeMap<Short, String>> columnsByIndex = new TreeMap<>();
+            DatabaseMetaData metaData = connection.getMetaData();
+            try (ResultSet rs = metaData.getIndexInfo(connection.getCatalog(), connection.getSchema(), tableName, false, true)) {
+                while (rs.next()) {
+                    String indexName = rs.getString("INDEX_NAME");
+                    String columnName = rs.getString("COLUMN_NAME");
+                    if (rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic
+                            || indexName == null || columnName == null) {
+                        continue;
+                    }
+                    columnsByIndex.computeIfAbsent(indexName, k -> new TreeMap<>())
+                            .put(rs.getShort("ORDINAL_POSITION"), columnName);
+                }
+            }
+            
+            Map<String, List<String>> result = new LinkedHashMap<>();
+            columnsByIndex.forEach((name, columns) -> result.put(name, new ArrayList<>(columns.values())));
+            return result;
+        });
+        return indexes != null ? indexes : Collections.emptyMap();
+    }
+    
+    private static boolean isCovered(Map<String, List<String>> indexes, String leadingColumn) {
+        for (List<String> columns : indexes.values()) {
+            if (!columns.isEmpty() && columns.get(0).equalsIgnoreCase(leadingColumn)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static final class IndexSpec {
+        private final String kind;
+        private final String[] columns;
+        private final List<String> shapes;
+        
+        private IndexSpec(String kind, String[] columns, String... shapes) {
+            this.kind = kind;
+            this.columns = columns;
+            this.shapes = Arrays.asList(shapes);
+        }
+        
+        private String leadingColumn() {
+            return columnName(columns[0]);
+        }
+        
+        /**
+         * 依資料表實際的欄位名稱組出索引欄位，資料表缺少任一欄位時回傳 null
+         */
+        private String definition(ProductTable table) {
+            StringJoiner definition = new StringJoiner(", ");
+            for (String column : columns) {
+                String resolved = table.resolveColumn(columnName(column));
+                if (resolved == null) {
+                    return null;
+                }
+                definition.add(column.endsWith(" DESC") ? resolved + " DESC" : resolved);
+            }
+            return definition.toString();
+        }
+        
+        private String indexName(String tableName) {
+            StringBuilder name = new StringBuilder("IX_").append(tableName);
+            for (String column : columns) {
+                name.append('_').append(columnName(column));
+            }
+            return name.length() > MAX_INDEX_NAME_LENGTH ? name.substring(0, MAX_INDEX_NAME_LENGTH) : name.toString();
+        }
+        
+        private static String columnName(String column) {
+            return column.endsWith(" DESC") ? column.substring(0, column.length() - " DESC".length()) : column;
+        }
+    }
+}
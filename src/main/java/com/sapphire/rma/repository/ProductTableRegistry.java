@@ -0,0 +1,205 @@
+package com.sapphire.rma.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 產品線資料表登錄表
+ * 啟動時依 product_lines 與 DatabaseMetaData 建立每條產品線的 RMA / 庫存資料表資訊，
+ * Repository 直接取用已驗證的資料表名稱與欄位清單，不再每次組字串或使用 SELECT *。
+ * 產品線新增或刪除時由 ProductLineService 呼叫 refresh() 重新載入。
+ */
+@Component
+public class ProductTableRegistry {
+    
+    private static final String RMA_TABLE_SUFFIX = "_RMA_record";
+    private static final String STOCK_TABLE_SUFFIX = "_buffer_stock";
+    
+    // 產品線名稱只允許英數字與底線，避免被當成 SQL 片段
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z0-9_]+");
+    
+    // 資料表不存在時，在這段時間內不再重新讀取 DatabaseMetaData
+    private static final long MISSING_TABLE_RETRY_MILLIS = 30_000;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private ProductLineRepository productLineRepository;
+    
+    @Autowired
+    private QueryShapeRegistry queryShapeRegistry;
+    
+    private volatile Map<String, ProductTable> rmaTables = new ConcurrentHashMap<>();
+    private volatile Map<String, ProductTable> stockTables = new ConcurrentHashMap<>();
+    
+    // 不存在的資料表 -> 下次重新讀取的時間
+    private final Map<String, Long> missingTables = new ConcurrentHashMap<>();
+    
+    /**
+     * 啟動完成後載入所有產品線的資料表資訊
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            System.err.println("載入產品線資料表資訊失敗: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 重新載入所有產品線的資料表資訊
+     * 讀不到欄位的資料表 (尚未建立) 不快取，與 getTable 相同記錄在 missingTables，稍後再重新讀取
+     */
+    public void refresh() {
+        Map<String, ProductTable> newRmaTables = new ConcurrentHashMap<>();
+        Map<String, ProductTable> newStockTables = new ConcurrentHashMap<>();
+        Map<String, Long> newMissingTables = new HashMap<>();
+        long retryAt = System.currentTimeMillis() + MISSING_TABLE_RETRY_MILLIS;
+        
+        for (String productType : productLineRepository.findAllProductLineNames()) {
+            if (!isValidIdentifier(productType)) {
+                System.err.println("略過名稱不合法的產品線: " + productType);
+                continue;
+            }
+            loadInto(newRmaTables, newMissingTables, productType, RMA_TABLE_SUFFIX, retryAt);
+            loadInto(newStockTables, newMissingTables, productType, STOCK_TABLE_SUFFIX, retryAt);
+        }
+        
+        rmaTables = newRmaTables;
+        stockTables = newStockTables;
+        missingTables.clear();
+        missingTables.putAll(newMissingTables);
+        
+        // 欄位清單可能改變，已組好的 SQL 需要重建
+        newRmaTables.values().forEach(table -> queryShapeRegistry.evictTable(table.getName()));
+        newStockTables.values().forEach(table -> queryShapeRegistry.evictTable(table.getName()));
+        newMissingTables.keySet().forEach(queryShapeRegistry::evictTable);
+    }
+    
+    private void loadInto(Map<String, ProductTable> tables, Map<String, Long> missing, String productType,
+                          String suffix, long retryAt) {
+        ProductTable table = loadTable(productType + suffix);
+        if (table.hasColumnMetadata()) {
+            tables.put(productType, table);
+        } else {
+            missing.put(table.getName(), retryAt);
+        }
+    }
+    
+    /**
+     * 取得產品線的 RMA 資料表
+     * @throws IllegalArgumentException 產品線名稱不合法
+     */
+    public ProductTable getRmaTable(String productType) {
+        return getTable(rmaTables, productType, RMA_TABLE_SUFFIX);
+    }
+    
+    /**
+     * 取得產品線的庫存資料表
+     * @throws IllegalArgumentException 產品線名稱不合法
+     */
+    public ProductTable getStockTable(String productType) {
+        return getTable(stockTables, productType, STOCK_TABLE_SUFFIX);
+    }
+    
+    /**
+     * 已登錄的產品線
+     */
+    public List<String> getRegisteredProductTypes() {
+        return new ArrayList<>(rmaTables.keySet());
+    }
+    
+    private ProductTable getTable(Map<String, ProductTable> tables, String productType, String suffix) {
+        ProductTable table = tables.get(productType);
+        if (table != null) {
+            return table;
+        }
+        
+        // 尚未載入 (例如啟動後才建立的資料表)：驗證名稱後即時讀取
+        if (!isValidIdentifier(productType)) {
+            throw new IllegalArgumentException("產品線名稱不合法: " + productType);
+        }
+        String tableName = productType + suffix;
+        Long retryAt = missingTables.get(tableName);
+        if (retryAt != null && retryAt > System.currentTimeMillis()) {
+            return new ProductTable(tableName, new ArrayList<>());
+        }
+        
+        table = loadTable(tableName);
+        if (table.hasColumnMetadata()) {
+            tables.put(productType, table);
+            missingTables.remove(tableName);
+        } else {
+            missingTables.put(tableName, System.currentTimeMillis() + MISSING_TABLE_RETRY_MILLIS);
+        }
+        return table;
+    }
+    
+    /**
+     * 由 DatabaseMetaData 讀取資料表欄位 (依定義順序)
+     * 只讀取連線預設 schema 的資料表；資料表名稱是 LIKE 樣式，底線需跳脫 (否則 VGA1RMA_record 也會符合)。
+     * rowversion 欄位 (SQL Server 回報為 binary 型別的 timestamp) 另外記錄，不列入一般欄位
+     */
+    private ProductTable loadTable(String tableName) {
+        ProductTable table = jdbcTemplate.execute((ConnectionCallback<ProductTable>) connection -> {
+            List<String> names = new ArrayList<>();
+            String versionColumn = null;
+            DatabaseMetaData metaData = connection.getMetaData();
+            String schema = connection.getSchema();
+            try (ResultSet rs = metaData.getColumns(connection.getCatalog(), escapePattern(schema, metaData),
+                                                    escapePattern(tableName, metaData), null)) {
+                while (rs.next()) {
+                    String column = quoteIfNeeded(rs.getString("COLUMN_NAME"));
+                    if (versionColumn == null && isRowVersion(rs.getString("TYPE_NAME"), rs.getInt("DATA_TYPE"))) {
+                        versionColumn = column;
+                    } else {
+                        names.add(column);
+                    }
+                }
+            }
+            return new ProductTable(tableName, names, versionColumn);
+        });
+        return table != null ? table : new ProductTable(tableName, new ArrayList<>());
+    }
+    
+    /**
+     * 跳脫 LIKE 樣式中的 _ 與 %
+     */
+    static String escapePattern(String name, DatabaseMetaData metaData) throws SQLException {
+        String escape = metaData.getSearchStringEscape();
+        if (name == null || escape == null || escape.isEmpty()) {
+            return name;
+        }
+        return name.replace(escape, escape + escape).replace("_", escape + "_").replace("%", escape + "%");
+    }
+    
+    private static boolean isRowVersion(String typeName, int dataType) {
+        return ("timestamp".equalsIgnoreCase(typeName) || "rowversion".equalsIgnoreCase(typeName))
+                && (dataType == Types.BINARY || dataType == Types.VARBINARY);
+    }
+    
+    private static boolean isValidIdentifier(String name) {
+        return name != null && IDENTIFIER.matcher(name).matches();
+    }
+    
+    private static String quoteIfNeeded(String columnName) {
+        return isValidIdentifier(columnName) ? columnName : "[" + columnName.replace("]", "]]") + "]";
+    }
+}
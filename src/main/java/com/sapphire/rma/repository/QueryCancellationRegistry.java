@@ -0,0 +1,70 @@
+package com.sapphire.rma.repository;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 執行中請求的查詢 context 登錄表
+ * 前端在換頁或關閉頁面時以請求編號 (X-Request-Id) 取消仍在執行的查詢。
+ */
+@Component
+public class QueryCancellationRegistry {
+    
+    private final Map<String, QueryContext> active = new ConcurrentHashMap<>();
+    
+    private final LongAdder cancelled = new LongAdder();
+    
+    public void register(QueryContext context) {
+        active.put(context.getRequestId(), context);
+    }
+    
+    public void unregister(QueryContext context) {
+        active.remove(context.getRequestId(), context);
+    }
+    
+    /**
+     * 取消請求的查詢
+     * @return 請求是否仍在執行
+     */
+    public boolean cancel(String requestId) {
+        QueryContext context = active.get(requestId);
+        if (context == null) {
+            return false;
+        }
+        context.cancel();
+        cancelled.increment();
+        return true;
+    }
+    
+    /**
+     * 執行中的請求 (執行時間由長到短) 與累計取消次數
+     */
+    public Map<String, Object> getStatistics() {
+        List<QueryContext> contexts = new ArrayList<>(active.values());
+        contexts.sort(Comparator.comparingLong(QueryContext::getElapsedMs).reversed());
+        
+        List<Map<String, Object>> requests = new ArrayList<>();
+        for (QueryContext context : contexts) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("requestId", context.getRequestId());
+            item.put("request", context.getDescription());
+            item.put("elapsedMs", context.getElapsedMs());
+            item.put("remainingMs", context.getRemainingMs());
+            item.put("cancelled", context.isCancelled());
+            requests.add(item);
+        }
+        
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("activeCount", requests.size());
+        statistics.put("cancelledTotal", cancelled.sum());
+        statistics.put("active", requests);
+        return statistics;
+    }
+}
@@ -0,0 +1,171 @@
+package com.sapphire.rma.repository;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 單一 HTTP 請求的查詢期限與取消狀態
+ * 由 QueryTimeoutInterceptor 在請求開始時綁定到目前執行緒，CancellableJdbcTemplate 執行每個 statement 前
+ * 依剩餘時間設定 queryTimeout，並記住執行中的 statement；取消時對它呼叫 Statement.cancel()，
+ * 讓資料庫停止查詢、連線立即歸還連線池。
+ * 其他執行緒代為查詢時 (例如跨產品線搜尋) 以 child() 建立子 context，取消會一併傳給子 context。
+ */
+public final class QueryContext {
+    
+    private static final ThreadLocal<QueryContext> CURRENT = new ThreadLocal<>();
+    
+    private final String requestId;
+    private final String description;
+    // System.nanoTime() 的截止時間，0 表示不限
+    private final long deadline;
+    private final long startTime = System.nanoTime();
+    private final Set<QueryContext> children = ConcurrentHashMap.newKeySet();
+    private volatile Statement statement;
+    private volatile boolean cancelled;
+    
+    private QueryContext(String requestId, String description, long deadline) {
+        this.requestId = requestId;
+        this.description = description;
+        this.deadline = deadline;
+    }
+    
+    /**
+     * 建立新的 context
+     * @param timeoutMs 整個請求可用於查詢的毫秒數，0 以下表示不限
+     */
+    public static QueryContext create(String requestId, String description, long timeoutMs) {
+        return new QueryContext(requestId, description, timeoutMs > 0 ? deadlineAfter(timeoutMs) : 0);
+    }
+    
+    /**
+     * 目前執行緒綁定的 context，沒有時為 null
+     */
+    public static QueryContext current() {
+        return CURRENT.get();
+    }
+    
+    /**
+     * 綁定到目前執行緒
+     */
+    public void bind() {
+        CURRENT.set(this);
+    }
+    
+    /**
+     * 解除目前執行緒的綁定
+     */
+    public static void unbind() {
+        CURRENT.remove();
+    }
+    
+    /**
+     * 建立子 context (期限取自身與 timeoutMs 較早者)，父 context 取消時一併取消
+     */
+    public QueryContext child(long timeoutMs) {
+        long childDeadline = timeoutMs > 0 ? deadlineAfter(timeoutMs) : 0;
+        if (deadline != 0 && (childDeadline == 0 || deadline - childDeadline < 0)) {
+            childDeadline = deadline;
+        }
+        QueryContext child = new QueryContext(requestId, description, childDeadline);
+        children.add(child);
+        if (cancelled) {
+            child.cancel();
+        }
+        return child;
+    }
+    
+    /**
+     * 在目前執行緒綁定此 context 後執行，結束後還原原本的 context
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        QueryContext previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return task.call();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+    
+    /**
+     * 取消此 context：執行中的 statement 會被取消，之後的查詢直接失敗
+     */
+    public void cancel() {
+        cancelled = true;
+        Statement running = statement;
+        if (running != null) {
+            try {
+                running.cancel();
+            } catch (SQLException e) {
+                // statement 已經結束或關閉
+            }
+        }
+        children.forEach(QueryContext::cancel);
+    }
+    
+    /**
+     * 子 context 用完後移除
+     */
+    public void release(QueryContext child) {
+        children.remove(child);
+    }
+    
+    /**
+     * 執行 statement 前呼叫：檢查是否已取消或逾時，設定剩餘時間為 queryTimeout 並記住 statement
+     */
+    void attach(Statement stmt) throws SQLException {
+        if (cancelled) {
+            throw new SQLException("查詢已取消 (請求 " + requestId + ")");
+        }
+        if (deadline != 0) {
+            long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) {
+                throw new SQLTimeoutException("查詢超過請求的逾時時間 (請求 " + requestId + ")");
+            }
+            int remainingSeconds = (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remainingNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+            int configured = stmt.getQueryTimeout();
+            stmt.setQueryTimeout(configured > 0 ? Math.min(configured, remainingSeconds) : remainingSeconds);
+        }
+        statement = stmt;
+        // 綁定與取消同時發生時，確保新的 statement 也被取消
+        if (cancelled) {
+            stmt.cancel();
+        }
+    }
+    
+    public String getRequestId() {
+        return requestId;
+    }
+    
+    public String getDescription() {
+        return description;
+    }
+    
+    public boolean isCancelled() {
+        return cancelled;
+    }
+    
+    public long getElapsedMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+    
+    /**
+     * 剩餘毫秒數，不限時為 -1
+     */
+    public long getRemainingMs() {
+        return deadline == 0 ? -1 : Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+    
+    private static long deadlineAfter(long timeoutMs) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    }
+}
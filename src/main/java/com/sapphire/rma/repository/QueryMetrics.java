@@ -0,0 +1,247 @@
+package com.sapphire.rma.repository;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 查詢延遲統計
+ * 由 InstrumentedDataSource 在每個 statement 結束 (ResultSet / Statement 關閉) 時回報，
+ * 依「查詢形狀 + 產品線」累計 HdrHistogram 延遲分佈、回傳筆數與估計位元組數。
+ * 查詢形狀優先使用 QueryShapeRegistry 的查詢名稱，其他 SQL (例如 JPA) 以正規化後的 SQL 文字表示。
+ * 超過門檻的查詢另外記錄到慢查詢紀錄 (包含綁定參數數量)。
+ */
+@Component
+public class QueryMetrics {
+    
+    // 統計序列數量上限，超過時歸入 OTHER_SHAPE
+    private static final int MAX_SERIES = 1000;
+    private static final String OTHER_SHAPE = "(other)";
+    private static final String NO_PRODUCT_LINE = "-";
+    
+    // 非登錄表 SQL 的形狀名稱長度
+    private static final int MAX_SQL_LABEL_LENGTH = 120;
+    
+    // 延遲以微秒記錄，最大 1 小時，2 位有效數字 (誤差 1%)
+    private static final long MAX_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 2;
+    
+    // 由資料表名稱取出產品線
+    private static final Pattern PRODUCT_TABLE = Pattern.compile("\\b([A-Za-z0-9_]+?)_(RMA_record|buffer_stock)\\b",
+                                                                 Pattern.CASE_INSENSITIVE);
+    
+    @Value("${rma.query-metrics.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${rma.query-metrics.slow-query-ms:1000}")
+    private long slowQueryMs;
+    
+    @Value("${rma.query-metrics.slow-query-log-size:100}")
+    private int slowQueryLogSize;
+    
+    @Autowired
+    private QueryShapeRegistry queryShapeRegistry;
+    
+    private final Map<SeriesKey, Series> series = new ConcurrentHashMap<>();
+    
+    // SQL 文字 -> 統計序列鍵 (避免每次都比對正規表示式)
+    private final Map<String, SeriesKey> keysBySql = new ConcurrentHashMap<>();
+    
+    private final Deque<Map<String, Object>> slowQueries = new ArrayDeque<>();
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * 記錄一次查詢
+     * @param sql 執行的 SQL
+     * @param elapsedNanos 由執行到關閉 ResultSet 的時間
+     * @param rows 讀取的筆數 (更新為影響筆數)
+     * @param bytes 讀取欄位值的估計位元組數
+     * @param parameterCount 綁定參數數量
+     * @param failed 執行時發生錯誤
+     */
+    public void record(String sql, long elapsedNanos, long rows, long bytes, int parameterCount, boolean failed) {
+        SeriesKey key = keyOf(sql);
+        Series target = series.get(key);
+        if (target == null) {
+            if (series.size() >= MAX_SERIES) {
+                key = new SeriesKey(OTHER_SHAPE, NO_PRODUCT_LINE);
+            }
+            target = series.computeIfAbsent(key, k -> new Series());
+        }
+        
+        long micros = Math.min(MAX_LATENCY_MICROS, Math.max(0, TimeUnit.NANOSECONDS.toMicros(elapsedNanos)));
+        target.latency.recordValue(micros);
+        target.rows.add(rows);
+        target.bytes.add(bytes);
+        target.maxParameters.accumulate(parameterCount);
+        if (failed) {
+            target.errors.increment();
+        }
+        
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        if (elapsedMs >= slowQueryMs) {
+            logSlowQuery(key, sql, elapsedMs, rows, bytes, parameterCount, failed);
+        }
+    }
+    
+    /**
+     * 各查詢形狀的延遲統計 (依總耗時由多到少)
+     */
+    public List<Map<String, Object>> getStatistics() {
+        List<Map<String, Object>> statistics = new ArrayList<>();
+        for (Map.Entry<SeriesKey, Series> entry : series.entrySet()) {
+            Series value = entry.getValue();
+            Histogram latency = value.latency.copy();
+            long count = latency.getTotalCount();
+            if (count == 0) {
+                continue;
+            }
+            long rows = value.rows.sum();
+            long bytes = value.bytes.sum();
+            
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("shape", entry.getKey().shape);
+            item.put("productLine", entry.getKey().productLine);
+            item.put("count", count);
+            item.put("errors", value.errors.sum());
+            item.put("totalMs", millis(latency.getMean() * count));
+            item.put("meanMs", millis(latency.getMean()));
+            item.put("p50Ms", millis(latency.getValueAtPercentile(50)));
+            item.put("p90Ms", millis(latency.getValueAtPercentile(90)));
+            item.put("p99Ms", millis(latency.getValueAtPercentile(99)));
+            item.put("maxMs", millis(latency.getMaxValue()));
+            item.put("rows", rows);
+            item.put("avgRows", rows / count);
+            item.put("bytes", bytes);
+            item.put("avgBytes", bytes / count);
+            item.put("maxParameters", value.maxParameters.get());
+            statistics.add(item);
+        }
+        statistics.sort((a, b) -> Double.compare((Double) b.get("totalMs"), (Double) a.get("totalMs")));
+        return statistics;
+    }
+    
+    /**
+     * 最近的慢查詢 (由新到舊)
+     */
+    public List<Map<String, Object>> getSlowQueries() {
+        synchronized (slowQueries) {
+            return new ArrayList<>(slowQueries);
+        }
+    }
+    
+    public long getSlowQueryMs() {
+        return slowQueryMs;
+    }
+    
+    /**
+     * 清除所有統計與慢查詢紀錄
+     */
+    public void reset() {
+        series.clear();
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+    
+    private void logSlowQuery(SeriesKey key, String sql, long elapsedMs, long rows, long bytes,
+                              int parameterCount, boolean failed) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("time", Instant.now().toString());
+        entry.put("shape", key.shape);
+        entry.put("productLine", key.productLine);
+        entry.put("elapsedMs", elapsedMs);
+        entry.put("rows", rows);
+        entry.put("bytes", bytes);
+        entry.put("parameterCount", parameterCount);
+        entry.put("failed", failed);
+        entry.put("sql", sql);
+        synchronized (slowQueries) {
+            slowQueries.addFirst(entry);
+            while (slowQueries.size() > slowQueryLogSize) {
+                slowQueries.removeLast();
+            }
+        }
+        System.err.println(String.format("慢查詢 %d ms [%s / %s] 筆數 %d，參數 %d 個%s",
+                                         elapsedMs, key.shape, key.productLine, rows, parameterCount,
+                                         failed ? "，執行失敗" : ""));
+    }
+    
+    private SeriesKey keyOf(String sql) {
+        if (sql == null) {
+            return new SeriesKey(OTHER_SHAPE, NO_PRODUCT_LINE);
+        }
+        SeriesKey key = keysBySql.get(sql);
+        if (key != null) {
+            return key;
+        }
+        
+        String shape = queryShapeRegistry.getQueryName(sql);
+        if (shape == null) {
+            String normalized = sql.trim().replaceAll("\\s+", " ");
+            shape = normalized.length() > MAX_SQL_LABEL_LENGTH
+                    ? normalized.substring(0, MAX_SQL_LABEL_LENGTH) + "..." : normalized;
+        }
+        Matcher matcher = PRODUCT_TABLE.matcher(sql);
+        key = new SeriesKey(shape, matcher.find() ? matcher.group(1) : NO_PRODUCT_LINE);
+        if (keysBySql.size() < MAX_SERIES * 4) {
+            keysBySql.put(sql, key);
+        }
+        return key;
+    }
+    
+    private static double millis(double micros) {
+        return Math.round(micros / 10.0) / 100.0;
+    }
+    
+    private static final class Series {
+        private final Histogram latency = new ConcurrentHistogram(MAX_LATENCY_MICROS, SIGNIFICANT_DIGITS);
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAccumulator maxParameters = new LongAccumulator(Math::max, 0);
+    }
+    
+    private static final class SeriesKey {
+        private final String shape;
+        private final String productLine;
+        
+        private SeriesKey(String shape, String productLine) {
+            this.shape = shape;
+            this.productLine = productLine;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SeriesKey)) return false;
+            SeriesKey other = (SeriesKey) o;
+            return shape.equals(other.shape) && productLine.equals(other.productLine);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(shape, productLine);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.sapphire.rma.repository;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 查詢形狀 (query shape) 登錄表
+ * 動態查詢的 SQL 只由「查詢名稱 + 資料表 + 條件位元遮罩」決定，總共只有數十種。
+ * 每種形狀的 SQL 只組一次，之後直接取用同一個字串；SQL 文字固定後，
+ * JDBC 驅動的 prepared statement 快取 (見 application.properties) 也能重用伺服器端的執行計畫。
+ * 指定回傳欄位 (projection) 的查詢也以欄位投影區分形狀；形狀數量超過上限時不再登錄，直接組 SQL。
+ */
+@Component
+public class QueryShapeRegistry {
+    
+    // 欄位投影由呼叫端指定，組合數量沒有上限，需限制登錄的形狀數量
+    private static final int MAX_SHAPES = 2000;
+    
+    private final ConcurrentHashMap<ShapeKey, Shape> shapes = new ConcurrentHashMap<>();
+    
+    // SQL 文字 -> 查詢名稱 (查詢統計用來辨識 SQL 屬於哪個查詢)
+    private final ConcurrentHashMap<String, String> queryNames = new ConcurrentHashMap<>();
+    
+    /**
+     * 取得查詢形狀的 SQL，第一次使用時才由 sqlBuilder 組出
+     * @param queryName 查詢名稱，例如 rma.findBySearchCriteria
+     * @param tableName 資料表名稱
+     * @param filterMask 有使用的查詢條件位元遮罩
+     */
+    public String getSql(String queryName, String tableName, int filterMask, Supplier<String> sqlBuilder) {
+        return getSql(queryName, tableName, filterMask, null, sqlBuilder);
+    }
+    
+    /**
+     * 取得指定欄位投影的查詢形狀 SQL
+     * @param projection SELECT 的欄位投影，null 表示資料表的預設投影
+     */
+    public String getSql(String queryName, String tableName, int filterMask, String projection, 
+                         Supplier<String> sqlBuilder) {
+        ShapeKey key = new ShapeKey(queryName, tableName, filterMask, projection);
+        Shape shape = shapes.get(key);
+        if (shape == null) {
+            if (shapes.size() >= MAX_SHAPES) {
+                return sqlBuilder.get();
+            }
+            shape = shapes.computeIfAbsent(key, k -> {
+                Shape created = new Shape(k, sqlBuilder.get());
+                queryNames.put(created.sql, k.queryName);
+                return created;
+            });
+        }
+        shape.hits.increment();
+        return shape.sql;
+    }
+    
+    /**
+     * 取得所有查詢形狀的使用統計
+     */
+    public List<Map<String, Object>> getStatistics() {
+        List<Map<String, Object>> statistics = new ArrayList<>();
+        for (Shape shape : shapes.values()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("queryName", shape.key.queryName);
+            item.put("tableName", shape.key.tableName);
+            item.put("filterMask", shape.key.filterMask);
+            if (shape.key.projection != null) {
+                item.put("projection", shape.key.projection);
+            }
+            item.put("hits", shape.hits.sum());
+            item.put("sql", shape.sql);
+            statistics.add(item);
+        }
+        statistics.sort((a, b) -> Long.compare((Long) b.get("hits"), (Long) a.get("hits")));
+        return statistics;
+    }
+    
+    /**
+     * 依 SQL 文字取得查詢名稱
+     * @return 不是由登錄表產生的 SQL 時為 null
+     */
+    public String getQueryName(String sql) {
+        return sql != null ? queryNames.get(sql) : null;
+    }
+    
+    /**
+     * 已登錄的查詢形狀數量
+     */
+    public int size() {
+        return shapes.size();
+    }
+    
+    /**
+     * 清除指定資料表的查詢形狀 (資料表結構變更時使用)
+     */
+    public void evictTable(String tableName) {
+        shapes.values().removeIf(shape -> {
+            if (!shape.key.tableName.equalsIgnoreCase(tableName)) {
+                return false;
+            }
+            queryNames.remove(shape.sql);
+            return true;
+        });
+    }
+    
+    private static final class Shape {
+        private final ShapeKey key;
+        private final String sql;
+        private final LongAdder hits = new LongAdder();
+        
+        private Shape(ShapeKey key, String sql) {
+            this.key = key;
+            this.sql = sql;
+        }
+    }
+    
+    private static final class ShapeKey {
+        private final String queryName;
+        private final String tableName;
+        private final int filterMask;
+        private final String projection;
+        private final int hash;
+        
+        private ShapeKey(String queryName, String tableName, int filterMask, String projection) {
+            this.queryName = queryName;
+            this.tableName = tableName;
+            this.filterMask = filterMask;
+            this.projection = projection;
+            this.hash = Objects.hash(queryName, tableName, filterMask, projection);
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ShapeKey)) return false;
+            ShapeKey other = (ShapeKey) o;
+            return filterMask == other.filterMask &&
+                   queryName.equals(other.queryName) &&
+                   tableName.equals(other.tableName) &&
+                   Objects.equals(projection, other.projection);
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
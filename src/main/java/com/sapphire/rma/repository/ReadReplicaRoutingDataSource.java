@@ -0,0 +1,214 @@
+package com.sapphire.rma.repository;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 讀取副本路由 DataSource
+ * 唯讀交易 (@Transactional(readOnly = true)) 使用讀取副本的連線池，其他連線使用主資料庫。
+ * 副本的資料有複寫延遲，每條產品線記錄最後一次寫入的時間：寫入後 read-your-writes 期間內
+ * SearchResultCache 不保存該產品線的查詢結果 (mayServeStale)，不會以副本尚未同步的資料重新填入快取；
+ * 資料調整頁面一律使用主資料庫。整條產品線的批次匯入後，所有唯讀交易在期間內都使用主資料庫。
+ * 期間應大於副本平常的延遲。
+ * 副本無法取得連線時立即標記為異常並改用主資料庫，背景定期檢查副本恢復後再切回。
+ * 交易開始時尚未設定唯讀旗標，必須包在 LazyConnectionDataSourceProxy 內使用 (第一個查詢時才決定路由)。
+ */
+public class ReadReplicaRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+    
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+    
+    // 健康檢查時等待 Connection.isValid 的秒數
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    
+    private final DataSource primary;
+    private final DataSource replica;
+    private final long readYourWritesMs;
+    
+    private final ScheduledExecutorService healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "read-replica-health");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private volatile boolean replicaHealthy = true;
+    private volatile String lastError;
+    private volatile Instant lastCheck;
+    
+    // 各產品線最後一次寫入提交的時間 (epoch 毫秒)
+    private final Map<String, Long> lastWriteAt = new ConcurrentHashMap<>();
+    
+    // 最後一次整條產品線批次匯入的時間 (epoch 毫秒)
+    private volatile long lastBulkWriteAt;
+    
+    private final LongAdder primaryConnections = new LongAdder();
+    private final LongAdder replicaConnections = new LongAdder();
+    private final LongAdder readsAfterWrite = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+    
+    /**
+     * @param readYourWritesMs 寫入提交後視為副本可能尚未同步的毫秒數，0 表示不等待
+     */
+    public ReadReplicaRoutingDataSource(DataSource primary, DataSource replica, long healthCheckIntervalMs,
+                                        long readYourWritesMs) {
+        this.primary = primary;
+        this.replica = replica;
+        this.readYourWritesMs = readYourWritesMs;
+        
+        Map<Object, Object> targets = new LinkedHashMap<>();
+        targets.put(PRIMARY, primary);
+        targets.put(REPLICA, replica);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+        
+        healthChecker.scheduleWithFixedDelay(this::checkReplica, 0, healthCheckIntervalMs, TimeUnit.MILLISECONDS);
+    }
+    
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return replicaHealthy && TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                && !isWithin(lastBulkWriteAt) ? REPLICA : PRIMARY;
+    }
+    
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (REPLICA.equals(determineCurrentLookupKey())) {
+            try {
+                Connection connection = replica.getConnection();
+                replicaConnections.increment();
+                return connection;
+            } catch (SQLException e) {
+                markUnhealthy(e);
+            }
+        }
+        usingPrimary();
+        return primary.getConnection();
+    }
+    
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (REPLICA.equals(determineCurrentLookupKey())) {
+            try {
+                Connection connection = replica.getConnection(username, password);
+                replicaConnections.increment();
+                return connection;
+            } catch (SQLException e) {
+                markUnhealthy(e);
+            }
+        }
+        usingPrimary();
+        return primary.getConnection(username, password);
+    }
+    
+    public boolean isReplicaHealthy() {
+        return replicaHealthy;
+    }
+    
+    /**
+     * 記錄產品線的寫入已提交 (由 ReadReplicaConfig 在收到資料異動事件後呼叫)
+     */
+    public void recordWrite(String productType) {
+        if (productType != null) {
+            lastWriteAt.put(productType, System.currentTimeMillis());
+        }
+    }
+    
+    /**
+     * 記錄整條產品線的批次匯入已完成 (app.py 等不經過連線池的寫入)，期間內所有唯讀交易使用主資料庫
+     */
+    public void recordBulkWrite(String productType) {
+        recordWrite(productType);
+        lastBulkWriteAt = System.currentTimeMillis();
+    }
+    
+    /**
+     * 唯讀交易讀到的產品線資料是否可能落後主資料庫 (使用副本且在該產品線最後一次寫入後的期間內)
+     */
+    public boolean mayServeStale(String productType) {
+        Long writtenAt = productType != null ? lastWriteAt.get(productType) : null;
+        return replicaHealthy && writtenAt != null && isWithin(writtenAt) && !isWithin(lastBulkWriteAt);
+    }
+    
+    private boolean isWithin(long writtenAt) {
+        return readYourWritesMs > 0 && System.currentTimeMillis() - writtenAt < readYourWritesMs;
+    }
+    
+    /**
+     * 路由狀態與各連線池取得連線的次數
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("replicaHealthy", replicaHealthy);
+        statistics.put("lastCheck", lastCheck != null ? lastCheck.toString() : null);
+        statistics.put("lastError", lastError);
+        statistics.put("readYourWritesMs", readYourWritesMs);
+        statistics.put("lastBulkWrite", lastBulkWriteAt > 0 ? Instant.ofEpochMilli(lastBulkWriteAt).toString() : null);
+        statistics.put("primaryConnections", primaryConnections.sum());
+        statistics.put("replicaConnections", replicaConnections.sum());
+        statistics.put("readsAfterWrite", readsAfterWrite.sum());
+        statistics.put("failovers", failovers.sum());
+        return statistics;
+    }
+    
+    /**
+     * 停止健康檢查並關閉兩個連線池
+     */
+    @Override
+    public void close() throws Exception {
+        healthChecker.shutdownNow();
+        if (replica instanceof AutoCloseable) {
+            ((AutoCloseable) replica).close();
+        }
+        if (primary instanceof AutoCloseable) {
+            ((AutoCloseable) primary).close();
+        }
+    }
+    
+    /**
+     * 使用主資料庫的連線 (唯讀交易因 read-your-writes 改用主資料庫時另外計數)
+     */
+    private void usingPrimary() {
+        primaryConnections.increment();
+        if (replicaHealthy && TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            readsAfterWrite.increment();
+        }
+    }
+    
+    private void checkReplica() {
+        lastCheck = Instant.now();
+        try (Connection connection = replica.getConnection()) {
+            if (!connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                throw new SQLException("讀取副本連線驗證失敗");
+            }
+            if (!replicaHealthy) {
+                System.err.println("讀取副本已恢復，唯讀交易改回使用讀取副本");
+            }
+            replicaHealthy = true;
+            lastError = null;
+        } catch (Exception e) {
+            markUnhealthy(e);
+        }
+    }
+    
+    private void markUnhealthy(Exception e) {
+        lastError = e.getMessage();
+        if (replicaHealthy) {
+            replicaHealthy = false;
+            failovers.increment();
+            System.err.println("讀取副本無法使用，唯讀交易改用主資料庫: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.sapphire.rma.repository;
+
+import com.sapphire.rma.dto.RecordSet;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * 將查詢結果讀入 RecordSet
+ * 欄位標題只讀一次，每列轉成 Object[]，取值方式與 queryForList 相同
+ */
+public class RecordSetExtractor implements ResultSetExtractor<RecordSet> {
+    
+    public static final RecordSetExtractor INSTANCE = new RecordSetExtractor();
+    
+    @Override
+    public RecordSet extractData(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        
+        String[] columnNames = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnNames[i] = JdbcUtils.lookupColumnName(metaData, i + 1);
+        }
+        
+        RecordSet recordSet = new RecordSet(columnNames);
+        while (rs.next()) {
+            Object[] values = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                values[i] = JdbcUtils.getResultSetValue(rs, i + 1);
+            }
+            recordSet.addRow(values);
+        }
+        return recordSet;
+    }
+}
@@ -0,0 +1,193 @@
+package com.sapphire.rma.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * 以序列號為鍵的新增或更新 (upsert)
+ * SQL Server 使用單一 MERGE ... WITH (HOLDLOCK) 陳述式，存在檢查與寫入在同一個陳述式內完成，
+ * 不需先查詢是否存在，也沒有檢查與新增之間的競爭。
+ * 其他資料庫 (例如測試用的內嵌資料庫) 改用 INSERT ... WHERE NOT EXISTS 或 UPDATE 後 INSERT。
+ * 需要寫入前後的資料列時，SQL Server 由 MERGE 的 OUTPUT DELETED / INSERTED 取回，其他資料庫在寫入前後查詢。
+ */
+@Component
+public class RecordUpserter {
+    
+    private static final String SERIAL_NO = "Serial_No";
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private QueryShapeRegistry queryShapeRegistry;
+    
+    // 第一次使用時由 DatabaseMetaData 判斷
+    private volatile Boolean sqlServer;
+    
+    /**
+     * 新增記錄，序列號已存在時依 policy 處理
+     * @param queryName 查詢名稱前綴，例如 rma.upsert
+     * @param data 欄位名稱 -> 值 (需包含 Serial_No)
+     * @throws IllegalArgumentException 缺少序列號或欄位不存在於資料表
+     */
+    UpsertResult upsert(String queryName, ProductTable table, Map<String, Object> data, ConflictPolicy policy) {
+        return upsert(queryName, table, data, policy, Collections.emptyList()).getResult();
+    }
+    
+    /**
+     * 新增記錄，序列號已存在時依 policy 處理，並取回 outputColumns 在寫入前後的值
+     * @param outputColumns 需要寫入前後值的欄位 (資料表的欄位名稱)，為空時不取回
+     * @throws IllegalArgumentException 缺少序列號或欄位不存在於資料表
+     */
+    UpsertOutcome upsert(String queryName, ProductTable table, Map<String, Object> data, ConflictPolicy policy,
+                         List<String> outputColumns) {
+        List<String> columns = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        String serialColumn = null;
+        Object serialNo = null;
+        
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            Object value = entry.getValue();
+            boolean empty = value == null || value.toString().trim().isEmpty();
+            // MERGE 與 REJECT 只寫入有值的欄位；OVERWRITE 將空值寫為 NULL
+            if (empty && policy != ConflictPolicy.OVERWRITE) {
+                continue;
+            }
+            // 無法取得欄位資訊時沿用呼叫端的欄位名稱 (欄位名稱由服務層決定，不是使用者輸入)
+            String column = table.hasColumnMetadata() ? table.resolveColumn(entry.getKey()) : entry.getKey();
+            if (column == null) {
+                throw new IllegalArgumentException("資料表 " + table.getName() + " 沒有欄位: " + entry.getKey());
+            }
+            if (column.equalsIgnoreCase(SERIAL_NO)) {
+                serialColumn = column;
+                serialNo = value;
+            }
+            columns.add(column);
+            values.add(empty ? null : value);
+        }
+        if (serialColumn == null || serialNo == null || serialNo.toString().trim().isEmpty()) {
+            throw new IllegalArgumentException("序列號為必填項");
+        }
+        
+        if (isSqlServer()) {
+            return merge(queryName, table.getName(), serialColumn, columns, values, policy, outputColumns);
+        }
+        if (outputColumns.isEmpty()) {
+            return new UpsertOutcome(fallback(queryName, table.getName(), serialColumn, serialNo, columns, values, policy),
+                                     RowImages.NONE);
+        }
+        Map<String, Object> before = RowImages.read(jdbcTemplate, table.getName(), outputColumns, serialColumn, serialNo);
+        UpsertResult result = fallback(queryName, table.getName(), serialColumn, serialNo, columns, values, policy);
+        if (result == UpsertResult.REJECTED) {
+            return new UpsertOutcome(result, RowImages.NONE);
+        }
+        return new UpsertOutcome(result, new RowImages(before,
+            RowImages.read(jdbcTemplate, table.getName(), outputColumns, serialColumn, serialNo)));
+    }
+    
+    private UpsertOutcome merge(String queryName, String tableName, String serialColumn, List<String> columns,
+                                List<Object> values, ConflictPolicy policy, List<String> outputColumns) {
+        String columnList = String.join(", ", columns);
+        String output = outputColumns.isEmpty() ? "" : ", " + RowImages.output(outputColumns, true, true);
+        String sql = queryShapeRegistry.getSql(queryName, tableName, policy.ordinal(), columnList + output, () -> {
+            StringJoiner source = new StringJoiner(", ");
+            StringJoiner sourceValues = new StringJoiner(", ");
+            StringJoiner updates = new StringJoiner(", ");
+            for (String column : columns) {
+                source.add("? AS " + column);
+                sourceValues.add("source." + column);
+                if (!column.equals(serialColumn)) {
+                    updates.add("target." + column + " = source." + column);
+                }
+            }
+            // 只有序列號時沒有要更新的欄位，仍以 UPDATE 回報為已存在
+            String updateSet = updates.length() > 0 ? updates.toString()
+                    : "target." + serialColumn + " = source." + serialColumn;
+            
+            return "MERGE INTO " + tableName + " WITH (HOLDLOCK) AS target" +
+                   " USING (SELECT " + source + ") AS source" +
+                   " ON target." + serialColumn + " = source." + serialColumn +
+                   (policy == ConflictPolicy.REJECT ? "" : " WHEN MATCHED THEN UPDATE SET " + updateSet) +
+                   " WHEN NOT MATCHED THEN INSERT (" + columnList + ") VALUES (" + sourceValues + ")" +
+                   " OUTPUT $action AS Merge_Action" + output + ";";
+        });
+        
+        // OUTPUT $action：INSERT / UPDATE；REJECT 且已存在時沒有任何列
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, values.toArray());
+        if (rows.isEmpty()) {
+            return new UpsertOutcome(UpsertResult.REJECTED, RowImages.NONE);
+        }
+        Map<String, Object> row = rows.get(0);
+        boolean inserted = "INSERT".equalsIgnoreCase(String.valueOf(row.get("Merge_Action")));
+        return new UpsertOutcome(inserted ? UpsertResult.INSERTED : UpsertResult.UPDATED,
+                                 outputColumns.isEmpty() ? RowImages.NONE : RowImages.fromOutput(row, outputColumns, !inserted, true));
+    }
+    
+    private UpsertResult fallback(String queryName, String tableName, String serialColumn, Object serialNo,
+                                  List<String> columns, List<Object> values, ConflictPolicy policy) {
+        String columnList = String.join(", ", columns);
+        StringJoiner placeholders = new StringJoiner(", ");
+        columns.forEach(column -> placeholders.add("?"));
+        
+        List<String> updateColumns = new ArrayList<>();
+        List<Object> params = new ArrayList<>();
+        for (int i = 0; i < columns.size(); i++) {
+            if (!columns.get(i).equals(serialColumn)) {
+                updateColumns.add(columns.get(i));
+                params.add(values.get(i));
+            }
+        }
+        if (policy != ConflictPolicy.REJECT && !updateColumns.isEmpty()) {
+            String updateList = String.join(", ", updateColumns);
+            String sql = queryShapeRegistry.getSql(queryName + ".update", tableName, 0, updateList, () -> {
+                StringJoiner updates = new StringJoiner(", ");
+                updateColumns.forEach(column -> updates.add(column + " = ?"));
+                return "UPDATE " + tableName + " SET " + updates + " WHERE " + serialColumn + " = ?";
+            });
+            params.add(serialNo);
+            if (jdbcTemplate.update(sql, params.toArray()) > 0) {
+                return UpsertResult.UPDATED;
+            }
+        }
+        
+        if (policy == ConflictPolicy.REJECT || updateColumns.isEmpty()) {
+            // 只有序列號時沒有要更新的欄位：與 MERGE 相同，已存在時回報為 UPDATE
+            String sql = queryShapeRegistry.getSql(queryName + ".insertIfAbsent", tableName, 0, columnList, () ->
+                "INSERT INTO " + tableName + " (" + columnList + ") SELECT " + placeholders +
+                " WHERE NOT EXISTS (SELECT 1 FROM " + tableName + " WHERE " + serialColumn + " = ?)");
+            List<Object> insertParams = new ArrayList<>(values);
+            insertParams.add(serialNo);
+            if (jdbcTemplate.update(sql, insertParams.toArray()) > 0) {
+                return UpsertResult.INSERTED;
+            }
+            return policy == ConflictPolicy.REJECT ? UpsertResult.REJECTED : UpsertResult.UPDATED;
+        }
+        
+        String sql = queryShapeRegistry.getSql(queryName + ".insert", tableName, 0, columnList, () ->
+            "INSERT INTO " + tableName + " (" + columnList + ") VALUES (" + placeholders + ")");
+        jdbcTemplate.update(sql, values.toArray());
+        return UpsertResult.INSERTED;
+    }
+    
+    /**
+     * 連線的資料庫是否為 SQL Server (可使用 MERGE 與 HOLDLOCK 等資料表提示)
+     */
+    boolean isSqlServer() {
+        Boolean result = sqlServer;
+        if (result == null) {
+            String productName = jdbcTemplate.execute(
+                (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName());
+            result = productName != null && productName.toLowerCase().contains("sql server");
+            sqlServer = result;
+        }
+        return result;
+    }
+}
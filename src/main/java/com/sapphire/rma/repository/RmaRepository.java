@@ -1,14 +1,32 @@
 package com.sapphire.rma.repository;
 
+import com.sapphire.rma.dto.RecordSet;
+import com.sapphire.rma.dto.RmaSearchCursor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /**
  * RMA Repository - 處理 RMA 記錄的所有操作
@@ -19,11 +37,41 @@ public class RmaRepository {
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
+    @Autowired
+    private QueryShapeRegistry queryShapeRegistry;
+    
+    @Autowired
+    private ProductTableRegistry productTableRegistry;
+    
+    @Autowired
+    private RecordUpserter recordUpserter;
+    
+    @Value("${rma.export.fetch-size:1000}")
+    private int exportFetchSize;
+    
+    // 查詢條件位元 (查詢形狀的一部分)
+    private static final int FILTER_SERIAL_NO = 1;
+    private static final int FILTER_PN = 1 << 1;
+    private static final int FILTER_SKU = 1 << 2;
+    private static final int FILTER_START_DATE = 1 << 3;
+    private static final int FILTER_END_DATE = 1 << 4;
+    private static final int FILTER_AFTER_DATE = 1 << 5;
+    private static final int FILTER_AFTER_NULL_DATE = 1 << 6;
+    
+    // 更新頁面回傳 row version 使用的欄位名稱 (0x 開頭的十六進位字串)
+    public static final String ROW_VERSION = "Row_Version";
+    private static final Pattern ROW_VERSION_VALUE = Pattern.compile("0x[0-9A-Fa-f]{16}");
+    
+    // 每日統計使用的欄位
+    private static final String ROLLUP_COLUMNS = "Serial_No, Create_Date, PN, SKU";
+    // 單筆寫入以 OUTPUT 取回寫入前後值的每日統計欄位
+    private static final List<String> ROLLUP_IMAGE_COLUMNS = List.of("Create_Date", "PN", "SKU");
+    
     /**
-     * 根據產品線獲取 RMA 表名
+     * 根據產品線獲取 RMA 表名 (已驗證，由 ProductTableRegistry 提供)
      */
     private String getRmaTableName(String productType) {
-        return productType + "_RMA_record";
+        return productTableRegistry.getRmaTable(productType).getName();
     }
     
     // ==================== 資料查詢頁面 ====================
@@ -32,46 +80,177 @@ public class RmaRepository {
      * 資料查詢頁面 - 動態查詢 RMA 記錄
      * @param productType 產品線 (必填)
      */
-    public List<Map<String, Object>> findBySearchCriteria(String productType, Map<String, Object> searchParams) {
+    public RecordSet findBySearchCriteria(String productType, Map<String, Object> searchParams) {
+        return findBySearchCriteria(productType, searchParams, null);
+    }
+    
+    /**
+     * 資料查詢頁面 - 動態查詢 RMA 記錄，只回傳指定欄位
+     * @param productType 產品線 (必填)
+     * @param fields 要回傳的欄位，為空時回傳全部欄位
+     * @throws IllegalArgumentException 欄位不存在於資料表
+     */
+    public RecordSet findBySearchCriteria(String productType, Map<String, Object> searchParams, List<String> fields) {
         if (productType == null || productType.trim().isEmpty()) {
             throw new IllegalArgumentException("產品線為必填項");
         }
         
-        String tableName = getRmaTableName(productType);
+        ProductTable table = productTableRegistry.getRmaTable(productType);
+        String tableName = table.getName();
+        String projection = table.projectColumns(fields);
+        
+        List<Object> params = new ArrayList<>();
+        int filterMask = collectSearchConditions(searchParams, params);
+        
+        String sql = queryShapeRegistry.getSql("rma.findBySearchCriteria", tableName, filterMask, shapeProjection(fields, projection), () ->
+            "SELECT " + projection + " FROM " + tableName + " WHERE 1=1" + searchConditions(filterMask) + " ORDER BY Create_Date DESC");
+        
+        return jdbcTemplate.query(sql, RecordSetExtractor.INSTANCE, params.toArray());
+    }
+    
+    /**
+     * 資料查詢頁面 - 游標分頁查詢 RMA 記錄
+     * 依 Create_Date DESC, Serial_No DESC 排序，從游標之後取 limit 筆
+     * @param productType 產品線 (必填)
+     * @param after 上一頁最後一筆的游標，第一頁為 null
+     * @param fields 要回傳的欄位，為空時回傳全部欄位 (游標需要的 Create_Date、Serial_No 一律包含)
+     */
+    public RecordSet findPageBySearchCriteria(String productType, Map<String, Object> searchParams,
+                                              int limit, RmaSearchCursor after, List<String> fields) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        ProductTable table = productTableRegistry.getRmaTable(productType);
+        String tableName = table.getName();
+        String projection = table.projectColumns(fields, "Create_Date", "Serial_No");
         
-        StringBuilder sql = new StringBuilder("SELECT * FROM " + tableName + " WHERE 1=1");
         List<Object> params = new ArrayList<>();
+        params.add(limit);
+        int filterMask = collectSearchConditions(searchParams, params);
+        
+        // 游標條件 (SQL Server 的 DESC 排序會把 NULL 日期排在最後)
+        if (after != null) {
+            if (after.getCreateDate() != null) {
+                filterMask |= FILTER_AFTER_DATE;
+                params.add(after.getCreateDate());
+                params.add(after.getCreateDate());
+            } else {
+                filterMask |= FILTER_AFTER_NULL_DATE;
+            }
+            params.add(after.getSerialNo());
+        }
+        
+        int shapeMask = filterMask;
+        String sql = queryShapeRegistry.getSql("rma.findPageBySearchCriteria", tableName, shapeMask, shapeProjection(fields, projection), () ->
+            "SELECT TOP (?) " + projection + " FROM " + tableName + " WHERE 1=1" + searchConditions(shapeMask) + 
+            " ORDER BY Create_Date DESC, Serial_No DESC");
+        
+        return jdbcTemplate.query(sql, RecordSetExtractor.INSTANCE, params.toArray());
+    }
+    
+    /**
+     * 資料匯出 - 逐筆讀取 RMA 記錄
+     * 不建立結果清單，每讀到一列就交給 rowHandler 處理，記憶體用量與筆數無關
+     * @param productType 產品線 (必填)
+     * @param fields 要匯出的欄位，為空時匯出全部欄位
+     */
+    public void streamBySearchCriteria(String productType, Map<String, Object> searchParams, 
+                                       List<String> fields, RowCallbackHandler rowHandler) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        ProductTable table = productTableRegistry.getRmaTable(productType);
+        String tableName = table.getName();
+        String projection = table.projectColumns(fields);
+        
+        List<Object> params = new ArrayList<>();
+        int filterMask = collectSearchConditions(searchParams, params);
+        
+        String sql = queryShapeRegistry.getSql("rma.findBySearchCriteria", tableName, filterMask, shapeProjection(fields, projection), () ->
+            "SELECT " + projection + " FROM " + tableName + " WHERE 1=1" + searchConditions(filterMask) + " ORDER BY Create_Date DESC");
+        
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql, 
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(exportFetchSize);
+            for (int i = 0; i < params.size(); i++) {
+                StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, params.get(i));
+            }
+            return ps;
+        }, rowHandler);
+    }
+    
+    /**
+     * 收集查詢條件的參數，回傳有使用的條件位元遮罩
+     */
+    private int collectSearchConditions(Map<String, Object> searchParams, List<Object> params) {
+        int filterMask = 0;
         
-        // 動態添加查詢條件
         if (searchParams.get("serialNo") != null && !searchParams.get("serialNo").toString().trim().isEmpty()) {
-            sql.append(" AND Serial_No = ?");
+            filterMask |= FILTER_SERIAL_NO;
             params.add(searchParams.get("serialNo").toString().trim());
         }
         
         if (searchParams.get("pn") != null && !searchParams.get("pn").toString().trim().isEmpty()) {
-            sql.append(" AND PN = ?");
+            filterMask |= FILTER_PN;
             params.add(searchParams.get("pn").toString().trim());
         }
         
         if (searchParams.get("sku") != null && !searchParams.get("sku").toString().trim().isEmpty()) {
-            sql.append(" AND SKU = ?");
+            filterMask |= FILTER_SKU;
             params.add(searchParams.get("sku").toString().trim());
         }
         
         // 日期範圍查詢
         if (searchParams.get("startDate") != null) {
-            sql.append(" AND Create_Date >= ?");
+            filterMask |= FILTER_START_DATE;
             params.add(searchParams.get("startDate"));
         }
         
         if (searchParams.get("endDate") != null) {
-            sql.append(" AND Create_Date <= ?");
+            filterMask |= FILTER_END_DATE;
             params.add(searchParams.get("endDate"));
         }
         
-        sql.append(" ORDER BY Create_Date DESC");
-        
-        return jdbcTemplate.queryForList(sql.toString(), params.toArray());
+        return filterMask;
+    }
+    
+    /**
+     * 查詢形狀使用的欄位投影，未指定欄位時為 null (資料表預設投影)
+     */
+    static String shapeProjection(List<String> fields, String projection) {
+        return fields == null || fields.isEmpty() ? null : projection;
+    }
+    
+    /**
+     * 依條件位元遮罩組出 WHERE 條件，順序需與 collectSearchConditions 的參數一致
+     */
+    private static String searchConditions(int filterMask) {
+        StringBuilder conditions = new StringBuilder();
+        if ((filterMask & FILTER_SERIAL_NO) != 0) {
+            conditions.append(" AND Serial_No = ?");
+        }
+        if ((filterMask & FILTER_PN) != 0) {
+            conditions.append(" AND PN = ?");
+        }
+        if ((filterMask & FILTER_SKU) != 0) {
+            conditions.append(" AND SKU = ?");
+        }
+        if ((filterMask & FILTER_START_DATE) != 0) {
+            conditions.append(" AND Create_Date >= ?");
+        }
+        if ((filterMask & FILTER_END_DATE) != 0) {
+            conditions.append(" AND Create_Date <= ?");
+        }
+        if ((filterMask & FILTER_AFTER_DATE) != 0) {
+            conditions.append(" AND (Create_Date < ? OR (Create_Date = ? AND Serial_No < ?) OR Create_Date IS NULL)");
+        }
+        if ((filterMask & FILTER_AFTER_NULL_DATE) != 0) {
+            conditions.append(" AND Create_Date IS NULL AND Serial_No < ?");
+        }
+        return conditions.toString();
     }
     
     // ==================== 資料調整頁面 ====================
@@ -85,37 +264,33 @@ public class RmaRepository {
             throw new IllegalArgumentException("產品線為必填項");
         }
         
-        String tableName = getRmaTableName(productType);
-        
-        StringBuilder sql = new StringBuilder("SELECT * FROM " + tableName + " WHERE 1=1");
-        List<Object> params = new ArrayList<>();
+        ProductTable table = productTableRegistry.getRmaTable(productType);
+        String tableName = table.getName();
         
-        // 動態添加查詢條件
-        if (searchParams.get("serialNo") != null && !searchParams.get("serialNo").toString().trim().isEmpty()) {
-            sql.append(" AND Serial_No = ?");
-            params.add(searchParams.get("serialNo").toString().trim());
-        }
+        // 只使用序列號、PN、SKU 條件
+        Map<String, Object> updateSearchParams = new HashMap<>();
+        updateSearchParams.put("serialNo", searchParams.get("serialNo"));
+        updateSearchParams.put("pn", searchParams.get("pn"));
+        updateSearchParams.put("sku", searchParams.get("sku"));
         
-        if (searchParams.get("pn") != null && !searchParams.get("pn").toString().trim().isEmpty()) {
-            sql.append(" AND PN = ?");
-            params.add(searchParams.get("pn").toString().trim());
-        }
+        List<Object> params = new ArrayList<>();
+        int filterMask = collectSearchConditions(updateSearchParams, params);
         
-        if (searchParams.get("sku") != null && !searchParams.get("sku").toString().trim().isEmpty()) {
-            sql.append(" AND SKU = ?");
-            params.add(searchParams.get("sku").toString().trim());
-        }
+        // 有 rowversion 欄位時一併回傳，更新時用來檢查記錄是否已被其他人修改
+        String versionColumn = table.getVersionColumn();
+        String projection = versionColumn == null ? table.getColumnList()
+                : table.getColumnList() + ", CONVERT(varchar(18), " + versionColumn + ", 1) AS " + ROW_VERSION;
+        String sql = queryShapeRegistry.getSql("rma.findRmaRecordForUpdate", tableName, filterMask, () ->
+            "SELECT " + projection + " FROM " + tableName + " WHERE 1=1" + searchConditions(filterMask));
         
         try {
-            List<Map<String, Object>> results = jdbcTemplate.queryForList(sql.toString(), params.toArray());
+            RecordSet results = jdbcTemplate.query(sql, RecordSetExtractor.INSTANCE, params.toArray());
             return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
         } catch (Exception e) {
             return Optional.empty();
         }
     }
     
-
-    
     /**
      * 資料調整頁面 - 新增 RMA 記錄 (新增模式)
      * @param productType 產品線 (必填)
@@ -147,22 +322,161 @@ public class RmaRepository {
         return jdbcTemplate.update(sql, params.toArray());
     }
     
+    /**
+     * 新增 RMA 記錄，序列號已存在時依 policy 拒絕、覆寫或合併 (單一陳述式，不需先查詢是否存在)
+     * 同時以 OUTPUT 取回每日統計欄位 (Create_Date、PN、SKU) 寫入前後的值
+     * @param productType 產品線 (必填)
+     */
+    public UpsertOutcome upsertRmaRecord(String productType, Map<String, Object> rmaData, ConflictPolicy policy) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        ProductTable table = productTableRegistry.getRmaTable(productType);
+        return recordUpserter.upsert("rma.upsert", table, rmaData, policy, ROLLUP_IMAGE_COLUMNS);
+    }
+    
+    /**
+     * 批次新增 RMA 記錄
+     * 依有值的欄位組合分組 (相同欄位的記錄共用一個 INSERT)，每組以 batchUpdate 每 chunkSize 筆送出一次。
+     * 每筆以 INSERT ... SELECT ... WHERE NOT EXISTS 寫入，存在檢查與新增在同一個陳述式內完成；
+     * SQL Server 對子查詢加上 UPDLOCK, HOLDLOCK，鎖定序列號範圍直到交易結束，兩個批次同時新增同一個序列號時只有一個成功。
+     * 序列號已存在時 update count 為 0，回報為已存在。
+     * 某一段失敗時依驅動回報的 update count 標記失敗的記錄，驅動未執行的記錄改為逐筆新增。
+     * @param productType 產品線 (必填)
+     * @param rows 每筆 RMA 資料 (欄位名稱 -> 值，空值不寫入，需包含 Serial_No)
+     * @param chunkSize 每次 batchUpdate 的筆數
+     * @return 每筆的錯誤訊息 (與 rows 順序相同)，新增成功為 null
+     */
+    public String[] batchInsertRmaRecords(String productType, List<Map<String, Object>> rows, int chunkSize) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        String tableName = getRmaTableName(productType);
+        String[] errors = new String[rows.size()];
+        
+        // 欄位組合 -> 記錄位置
+        Map<List<String>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < rows.size(); i++) {
+            List<String> columns = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : rows.get(i).entrySet()) {
+                if (entry.getValue() != null && !entry.getValue().toString().trim().isEmpty()) {
+                    columns.add(entry.getKey());
+                }
+            }
+            groups.computeIfAbsent(columns, k -> new ArrayList<>()).add(i);
+        }
+        
+        int size = Math.max(1, chunkSize);
+        for (Map.Entry<List<String>, List<Integer>> group : groups.entrySet()) {
+            List<String> columns = group.getKey();
+            String columnList = String.join(", ", columns);
+            String lockHint = recordUpserter.isSqlServer() ? " WITH (UPDLOCK, HOLDLOCK)" : "";
+            String sql = queryShapeRegistry.getSql("rma.batchInsert", tableName, columns.size(), columnList, () -> {
+                StringBuilder values = new StringBuilder();
+                for (int i = 0; i < columns.size(); i++) {
+                    values.append(i == 0 ? "?" : ", ?");
+                }
+                return "INSERT INTO " + tableName + " (" + columnList + ") SELECT " + values +
+                       " WHERE NOT EXISTS (SELECT 1 FROM " + tableName + lockHint + " WHERE Serial_No = ?)";
+            });
+            
+            List<Integer> indexes = group.getValue();
+            for (int from = 0; from < indexes.size(); from += size) {
+                List<Integer> chunk = indexes.subList(from, Math.min(indexes.size(), from + size));
+                List<Object[]> batchArgs = new ArrayList<>(chunk.size());
+                for (int index : chunk) {
+                    Map<String, Object> row = rows.get(index);
+                    Object serialNo = row.get("Serial_No");
+                    if (serialNo == null) {
+                        throw new IllegalArgumentException("序列號為必填項");
+                    }
+                    Object[] args = new Object[columns.size() + 1];
+                    for (int c = 0; c < columns.size(); c++) {
+                        args[c] = row.get(columns.get(c));
+                    }
+                    args[columns.size()] = serialNo;
+                    batchArgs.add(args);
+                }
+                insertChunk(sql, chunk, batchArgs, errors, productType);
+            }
+        }
+        return errors;
+    }
+    
+    private void insertChunk(String sql, List<Integer> chunk, List<Object[]> batchArgs, String[] errors,
+                             String productType) {
+        try {
+            int[] counts = jdbcTemplate.batchUpdate(sql, batchArgs);
+            for (int i = 0; i < chunk.size() && i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    errors[chunk.get(i)] = alreadyExists(batchArgs.get(i), productType);
+                }
+            }
+        } catch (DataAccessException e) {
+            String message = "新增失敗: " + e.getMostSpecificCause().getMessage();
+            int[] counts = e.getCause() instanceof BatchUpdateException
+                    ? ((BatchUpdateException) e.getCause()).getUpdateCounts() : null;
+            if (counts == null) {
+                // 無法得知哪些記錄已寫入，不重試以免重複新增
+                for (int index : chunk) {
+                    errors[index] = message;
+                }
+                return;
+            }
+            
+            for (int i = 0; i < chunk.size(); i++) {
+                if (i < counts.length) {
+                    if (counts[i] == Statement.EXECUTE_FAILED) {
+                        errors[chunk.get(i)] = message;
+                    }
+                    continue;
+                }
+                // 驅動在失敗後停止執行的記錄：逐筆新增
+                try {
+                    if (jdbcTemplate.update(sql, batchArgs.get(i)) == 0) {
+                        errors[chunk.get(i)] = alreadyExists(batchArgs.get(i), productType);
+                    }
+                } catch (DataAccessException ex) {
+                    errors[chunk.get(i)] = "新增失敗: " + ex.getMostSpecificCause().getMessage();
+                }
+            }
+        }
+    }
+    
+    // 參數的最後一個是 NOT EXISTS 的序列號
+    private static String alreadyExists(Object[] args, String productType) {
+        return "序列號 " + args[args.length - 1] + " 已存在於 " + productType + " 產品線";
+    }
+    
     /**
      * 資料調整頁面 - 更新 RMA 記錄並刪除庫存 (更新模式點擊更新按鈕)
      * 這是核心的事務操作
+     * 資料表有 rowversion 欄位且指定 expectedRowVersion 時採樂觀並行控制：
+     * UPDATE 的 WHERE 同時比對 row version，記錄已被其他人修改時不更新也不刪除庫存。
+     * 每日統計欄位更新前後的值由 UPDATE 的 OUTPUT DELETED / INSERTED 取回 (不另外查詢)。
      * @param productType 產品線 (必填)
+     * @param expectedRowVersion 讀取記錄時的 row version (findRmaRecordForUpdate 回傳的 Row_Version)，為 null 時不檢查
+     * @return 記錄在讀取後已被修改或刪除時為 {@link RmaUpdateResult#conflict()}
      */
     @Transactional
-    public boolean updateRmaRecordWithStockDeletion(String productType, String rmaSerialNo, 
-                                                   Map<String, Object> rmaUpdateData, 
-                                                   String stockSerialNoToDelete) {
+    public RmaUpdateResult updateRmaRecordWithStockDeletion(String productType, String rmaSerialNo, 
+                                                           Map<String, Object> rmaUpdateData, 
+                                                           String stockSerialNoToDelete,
+                                                           String expectedRowVersion) {
         if (productType == null || productType.trim().isEmpty()) {
             throw new IllegalArgumentException("產品線為必填項");
         }
+        if (expectedRowVersion != null && !ROW_VERSION_VALUE.matcher(expectedRowVersion).matches()) {
+            throw new IllegalArgumentException("row version 格式錯誤: " + expectedRowVersion);
+        }
         
         try {
             // 1. 更新 RMA 記錄
-            String rmaTableName = getRmaTableName(productType);
+            ProductTable rmaTable = productTableRegistry.getRmaTable(productType);
+            String rmaTableName = rmaTable.getName();
+            String versionColumn = rmaTable.getVersionColumn();
             StringBuilder setClause = new StringBuilder();
             List<Object> params = new ArrayList<>();
             
@@ -178,8 +492,40 @@ public class RmaRepository {
             
             params.add(rmaSerialNo); // WHERE 條件的參數
             
-            String updateRmaSql = "UPDATE " + rmaTableName + " SET " + setClause.toString() + " WHERE Serial_No = ?";
-            int rmaUpdated = jdbcTemplate.update(updateRmaSql, params.toArray());
+            int rmaUpdated;
+            String rowVersion = null;
+            RowImages images = RowImages.NONE;
+            if (recordUpserter.isSqlServer()) {
+                // 以 OUTPUT 取回每日統計欄位更新前後的值，以及更新後的 row version (用戶端不需重新查詢即可繼續編輯)
+                String updateRmaSql = "UPDATE " + rmaTableName + " SET " + setClause.toString() +
+                                      " OUTPUT " + RowImages.output(ROLLUP_IMAGE_COLUMNS, true, true);
+                if (versionColumn != null) {
+                    updateRmaSql += ", CONVERT(varchar(18), INSERTED." + versionColumn + ", 1) AS " + ROW_VERSION;
+                }
+                updateRmaSql += " WHERE Serial_No = ?";
+                if (versionColumn != null && expectedRowVersion != null) {
+                    updateRmaSql += " AND " + versionColumn + " = CONVERT(binary(8), ?, 1)";
+                    params.add(expectedRowVersion);
+                }
+                List<Map<String, Object>> rows = jdbcTemplate.queryForList(updateRmaSql, params.toArray());
+                rmaUpdated = rows.size();
+                if (!rows.isEmpty()) {
+                    Object version = rows.get(0).get(ROW_VERSION);
+                    rowVersion = version != null ? version.toString() : null;
+                    images = RowImages.fromOutput(rows.get(0), ROLLUP_IMAGE_COLUMNS, true, true);
+                }
+                
+                if (rmaUpdated == 0 && versionColumn != null && expectedRowVersion != null) {
+                    return RmaUpdateResult.conflict();
+                }
+            } else {
+                Map<String, Object> before = RowImages.read(jdbcTemplate, rmaTableName, ROLLUP_IMAGE_COLUMNS, "Serial_No", rmaSerialNo);
+                String updateRmaSql = "UPDATE " + rmaTableName + " SET " + setClause.toString() + " WHERE Serial_No = ?";
+                rmaUpdated = jdbcTemplate.update(updateRmaSql, params.toArray());
+                if (rmaUpdated > 0) {
+                    images = new RowImages(before, RowImages.read(jdbcTemplate, rmaTableName, ROLLUP_IMAGE_COLUMNS, "Serial_No", rmaSerialNo));
+                }
+            }
             
             // 2. 刪除庫存記錄 (如果有指定要刪除的庫存)
             if (stockSerialNoToDelete != null && !stockSerialNoToDelete.trim().isEmpty()) {
@@ -187,21 +533,152 @@ public class RmaRepository {
                 String deleteStockSql = "DELETE FROM " + stockTableName + " WHERE Serial_No = ?";
                 int stockDeleted = jdbcTemplate.update(deleteStockSql, stockSerialNoToDelete);
                 
-                return rmaUpdated > 0 && stockDeleted > 0;
+                return new RmaUpdateResult(rmaUpdated > 0 && stockDeleted > 0, rowVersion, images);
             }
             
             // 如果沒有要刪除庫存，只要 RMA 更新成功就可以
-            return rmaUpdated > 0;
+            return new RmaUpdateResult(rmaUpdated > 0, rowVersion, images);
             
         } catch (Exception e) {
             throw new RuntimeException("更新 RMA 記錄失敗", e);
         }
     }
     
+    // ==================== 自動完成 ====================
+    
+    /**
+     * 取得欄位所有不重複的值 (建立前綴索引使用)
+     * @param productType 產品線 (必填)
+     * @param column 欄位名稱 (需存在於資料表)
+     */
+    public List<String> findDistinctValues(String productType, String column) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        ProductTable table = productTableRegistry.getRmaTable(productType);
+        String tableName = table.getName();
+        String resolved = resolveSuggestColumn(table, column);
+        String sql = queryShapeRegistry.getSql("rma.findDistinctValues", tableName, 0, resolved, () ->
+            "SELECT DISTINCT " + resolved + " FROM " + tableName + " WHERE " + resolved + " IS NOT NULL");
+        return jdbcTemplate.queryForList(sql, String.class);
+    }
+    
+    /**
+     * 依前綴查詢欄位值 (前綴索引尚未建立時使用)
+     * @param productType 產品線 (必填)
+     * @param column 欄位名稱 (需存在於資料表)
+     */
+    public List<String> findValuesByPrefix(String productType, String column, String prefix, int limit) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        ProductTable table = productTableRegistry.getRmaTable(productType);
+        String tableName = table.getName();
+        String resolved = resolveSuggestColumn(table, column);
+        String sql = queryShapeRegistry.getSql("rma.findValuesByPrefix", tableName, 0, resolved, () ->
+            "SELECT DISTINCT TOP (?) " + resolved + " FROM " + tableName + " WHERE " + resolved + " LIKE ? ORDER BY " + resolved);
+        return jdbcTemplate.queryForList(sql, String.class, limit, escapeLike(prefix) + "%");
+    }
+    
+    /**
+     * 取得序列號的指定欄位值 (自動完成等記憶體索引依異動的序列號增量更新時使用)
+     * 資料表沒有的欄位不會出現在結果中；已不存在的序列號沒有對應的列。
+     * @param productType 產品線 (必填)
+     * @param columns 要取得的欄位 (一律包含 Serial_No)
+     */
+    public List<Map<String, Object>> findValuesBySerialNos(String productType, Collection<String> columns,
+                                                           Collection<String> serialNos) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        if (serialNos.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        ProductTable table = productTableRegistry.getRmaTable(productType);
+        Set<String> selected = new LinkedHashSet<>();
+        selected.add("Serial_No");
+        for (String column : columns) {
+            String resolved = table.resolveColumn(column);
+            if (resolved != null) {
+                selected.add(resolved);
+            }
+        }
+        return SerialNoBatchQuery.findRows(jdbcTemplate, queryShapeRegistry, "rma.findValuesBySerialNos", 
+                                           table.getName(), String.join(", ", selected), serialNos);
+    }
+    
+    // ==================== 每日統計 ====================
+    
+    /**
+     * 逐筆讀取每日統計需要的欄位 (Serial_No、Create_Date、PN、SKU)
+     * @param productType 產品線 (必填)
+     */
+    public void streamRollupSource(String productType, RowCallbackHandler rowHandler) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        String tableName = getRmaTableName(productType);
+        String sql = queryShapeRegistry.getSql("rma.streamRollupSource", tableName, 0, () ->
+            "SELECT " + ROLLUP_COLUMNS + " FROM " + tableName);
+        jdbcTemplate.query(sql, rowHandler);
+    }
+    
+    /**
+     * 讀取多個序列號的每日統計欄位 (Serial_No、Create_Date、PN、SKU)，不存在的序列號不回傳
+     * @param productType 產品線 (必填)
+     */
+    public List<Map<String, Object>> findRollupSourceBySerialNos(String productType, Collection<String> serialNos) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        return SerialNoBatchQuery.findRows(jdbcTemplate, queryShapeRegistry, "rma.findRollupSourceBySerialNos", 
+                                           getRmaTableName(productType), ROLLUP_COLUMNS, serialNos);
+    }
+    
+    /**
+     * 由資料庫依日期、PN、SKU 彙總筆數 (每日統計尚未建立時使用)
+     * @param productType 產品線 (必填)
+     * @param startDate 起始日期 (包含)，null 表示不限
+     * @param endDate 結束日期 (包含)，null 表示不限
+     * @return 每列包含 Create_Day、PN、SKU、Record_Count，不含沒有 Create_Date 的記錄
+     */
+    public RecordSet countByDay(String productType, LocalDate startDate, LocalDate endDate) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        String tableName = getRmaTableName(productType);
+        List<Object> params = new ArrayList<>();
+        int filterMask = 0;
+        if (startDate != null) {
+            filterMask |= FILTER_START_DATE;
+            params.add(startDate);
+        }
+        if (endDate != null) {
+            filterMask |= FILTER_END_DATE;
+            params.add(endDate.plusDays(1));
+        }
+        int mask = filterMask;
+        
+        String sql = queryShapeRegistry.getSql("rma.countByDay", tableName, mask, () ->
+            "SELECT CAST(Create_Date AS DATE) AS Create_Day, PN, SKU, COUNT(*) AS Record_Count FROM " + tableName +
+            " WHERE Create_Date IS NOT NULL" +
+            ((mask & FILTER_START_DATE) != 0 ? " AND Create_Date >= ?" : "") +
+            ((mask & FILTER_END_DATE) != 0 ? " AND Create_Date < ?" : "") +
+            " GROUP BY CAST(Create_Date AS DATE), PN, SKU");
+        return jdbcTemplate.query(sql, RecordSetExtractor.INSTANCE, params.toArray());
+    }
+    
     // ==================== 共用方法 ====================
     
     /**
      * 檢查 RMA 記錄是否存在
+     * 新增前不需要先呼叫：upsert 與批次新增在寫入陳述式內檢查序列號是否存在 (MERGE / INSERT ... WHERE NOT EXISTS)
      * @param productType 產品線 (必填)
      */
     public boolean existsBySerialNo(String productType, String serialNo) {
@@ -210,33 +687,58 @@ public class RmaRepository {
         }
         
         String tableName = getRmaTableName(productType);
-        String sql = "SELECT COUNT(*) FROM " + tableName + " WHERE Serial_No = ?";
+        String sql = queryShapeRegistry.getSql("rma.existsBySerialNo", tableName, 0, () ->
+            "SELECT COUNT(*) FROM " + tableName + " WHERE Serial_No = ?");
         Integer count = jdbcTemplate.queryForObject(sql, Integer.class, serialNo);
         return count != null && count > 0;
     }
-
+    
+    /**
+     * 批次查詢序列號是否存在 (分批 IN 清單查詢，取代逐筆 COUNT(*))
+     * @param productType 產品線 (必填)
+     * @return 存在於資料表中的序列號 (不分大小寫)
+     */
+    public Set<String> findExistingSerialNos(String productType, Collection<String> serialNos) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        return SerialNoBatchQuery.findExisting(jdbcTemplate, queryShapeRegistry, "rma.findExistingSerialNos", 
+                                               getRmaTableName(productType), serialNos);
+    }
+    
     // 需要添加到 RmaRepository.java 中的方法
 
     /**
-     * 根據產品線獲取庫存表名 (用於 updateRmaRecordWithStockDeletion 方法)
+     * 根據產品線獲取庫存表名 (用於 updateRmaRecordWithStockDeletion 方法，由 ProductTableRegistry 提供)
      */
     private String getStockTableName(String productType) {
-        return productType + "_buffer_stock";
+        return productTableRegistry.getStockTable(productType).getName();
     }
 
     /**
      * 刪除 RMA 記錄
      * @param productType 產品線 (必填)
      * @param serialNo 序列號
+     * @return 刪除的資料列 (每日統計欄位 Create_Date、PN、SKU，由 DELETE 的 OUTPUT DELETED 取回)，沒有刪除任何記錄時為 empty
      */
-    public int deleteBySerialNo(String productType, String serialNo) {
+    public Optional<Map<String, Object>> deleteBySerialNo(String productType, String serialNo) {
         if (productType == null || productType.trim().isEmpty()) {
             throw new IllegalArgumentException("產品線為必填項");
         }
 
         String tableName = getRmaTableName(productType);
-        String sql = "DELETE FROM " + tableName + " WHERE Serial_No = ?";
-        return jdbcTemplate.update(sql, serialNo);
+        if (!recordUpserter.isSqlServer()) {
+            Map<String, Object> before = RowImages.read(jdbcTemplate, tableName, ROLLUP_IMAGE_COLUMNS, "Serial_No", serialNo);
+            int deleted = jdbcTemplate.update("DELETE FROM " + tableName + " WHERE Serial_No = ?", serialNo);
+            return deleted > 0 ? Optional.ofNullable(before) : Optional.empty();
+        }
+        String sql = queryShapeRegistry.getSql("rma.deleteBySerialNo", tableName, 0, () ->
+            "DELETE FROM " + tableName + " OUTPUT " + RowImages.output(ROLLUP_IMAGE_COLUMNS, true, false) +
+            " WHERE Serial_No = ?");
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, serialNo);
+        return rows.isEmpty() ? Optional.empty()
+                              : Optional.of(RowImages.fromOutput(rows.get(0), ROLLUP_IMAGE_COLUMNS, true, false).getBefore());
     }
 
     /**
@@ -249,9 +751,28 @@ public class RmaRepository {
         }
 
         String tableName = getRmaTableName(productType);
-        String sql = "SELECT COUNT(*) FROM " + tableName;
+        String sql = queryShapeRegistry.getSql("rma.countByProductType", tableName, 0, () ->
+            "SELECT COUNT(*) FROM " + tableName);
         Integer count = jdbcTemplate.queryForObject(sql, Integer.class);
         return count != null ? count : 0;
     }
-
-}
\ No newline at end of file
+    
+    /**
+     * 取得自動完成欄位在資料表中的正確名稱
+     * @throws IllegalArgumentException 欄位不存在於資料表
+     */
+    static String resolveSuggestColumn(ProductTable table, String column) {
+        String resolved = table.resolveColumn(column);
+        if (resolved == null) {
+            throw new IllegalArgumentException("資料表 " + table.getName() + " 沒有欄位: " + column);
+        }
+        return resolved;
+    }
+    
+    /**
+     * 跳脫 LIKE 的萬用字元，讓輸入值只做字面比對
+     */
+    static String escapeLike(String value) {
+        return value.replace("[", "[[]").replace("%", "[%]").replace("_", "[_]");
+    }
+}
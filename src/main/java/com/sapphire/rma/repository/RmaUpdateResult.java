@@ -0,0 +1,62 @@
+package com.sapphire.rma.repository;
+
+/**
+ * 更新 RMA 記錄的結果
+ * row version 不符以回傳值表示而不是拋出例外：例外穿過 @Transactional 的儲存庫方法時
+ * 會將呼叫端 (服務層) 的交易標記為 rollback-only，提交時變成 UnexpectedRollbackException。
+ */
+public final class RmaUpdateResult {
+    
+    private static final RmaUpdateResult CONFLICT = new RmaUpdateResult(false, null, RowImages.NONE, true);
+    
+    private final boolean updated;
+    private final String rowVersion;
+    private final RowImages images;
+    private final boolean conflict;
+    
+    RmaUpdateResult(boolean updated, String rowVersion, RowImages images) {
+        this(updated, rowVersion, images, false);
+    }
+    
+    private RmaUpdateResult(boolean updated, String rowVersion, RowImages images, boolean conflict) {
+        this.updated = updated;
+        this.rowVersion = rowVersion;
+        this.images = images;
+        this.conflict = conflict;
+    }
+    
+    /**
+     * 記錄在讀取後已被其他人修改或刪除 (沒有更新，也沒有刪除庫存)
+     */
+    public static RmaUpdateResult conflict() {
+        return CONFLICT;
+    }
+    
+    /**
+     * RMA 記錄已更新 (且指定的庫存記錄已刪除)
+     */
+    public boolean isUpdated() {
+        return updated;
+    }
+    
+    /**
+     * 更新後的 row version (0x 開頭的十六進位字串)，資料表沒有 rowversion 欄位時為 null
+     */
+    public String getRowVersion() {
+        return rowVersion;
+    }
+    
+    /**
+     * 每日統計欄位更新前後的值，RMA 記錄沒有更新時兩者皆為 null
+     */
+    public RowImages getImages() {
+        return images;
+    }
+    
+    /**
+     * row version 不符，記錄已被其他人修改或刪除
+     */
+    public boolean isConflict() {
+        return conflict;
+    }
+}
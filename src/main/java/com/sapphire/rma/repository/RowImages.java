@@ -0,0 +1,88 @@
+package com.sapphire.rma.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * 寫入前後的資料列 (只含指定的欄位)
+ * SQL Server 由寫入陳述式的 OUTPUT DELETED / INSERTED 取回，值就是這次寫入取代與寫入的值，
+ * 兩個寫入同時修改同一筆記錄時也不會取得相同的寫入前資料。
+ */
+public final class RowImages {
+    
+    static final RowImages NONE = new RowImages(null, null);
+    
+    private static final String BEFORE = "Before_";
+    private static final String AFTER = "After_";
+    
+    private final Map<String, Object> before;
+    private final Map<String, Object> after;
+    
+    RowImages(Map<String, Object> before, Map<String, Object> after) {
+        this.before = before;
+        this.after = after;
+    }
+    
+    /**
+     * 寫入前的資料列，原本不存在 (新增) 時為 null
+     */
+    public Map<String, Object> getBefore() {
+        return before;
+    }
+    
+    /**
+     * 寫入後的資料列，已刪除時為 null
+     */
+    public Map<String, Object> getAfter() {
+        return after;
+    }
+    
+    /**
+     * OUTPUT 子句的欄位：DELETED.欄位 AS Before_欄位、INSERTED.欄位 AS After_欄位
+     * @param deleted 包含寫入前的欄位 (UPDATE / MERGE / DELETE)
+     * @param inserted 包含寫入後的欄位 (INSERT / UPDATE / MERGE)
+     */
+    static String output(List<String> columns, boolean deleted, boolean inserted) {
+        StringJoiner output = new StringJoiner(", ");
+        for (String column : columns) {
+            if (deleted) {
+                output.add("DELETED." + column + " AS " + BEFORE + column);
+            }
+            if (inserted) {
+                output.add("INSERTED." + column + " AS " + AFTER + column);
+            }
+        }
+        return output.toString();
+    }
+    
+    /**
+     * 由 OUTPUT 的一列取出寫入前後的資料列
+     * @param existed 寫入前記錄存在 (MERGE 新增時 DELETED 欄位都是 NULL，需由 $action 判斷)
+     * @param exists 寫入後記錄仍存在
+     */
+    static RowImages fromOutput(Map<String, Object> row, List<String> columns, boolean existed, boolean exists) {
+        return new RowImages(existed ? image(row, columns, BEFORE) : null, exists ? image(row, columns, AFTER) : null);
+    }
+    
+    /**
+     * 不支援 OUTPUT 的資料庫：以序列號讀取資料列，不存在時為 null
+     */
+    static Map<String, Object> read(JdbcTemplate jdbcTemplate, String tableName, List<String> columns,
+                                    String serialColumn, Object serialNo) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+            "SELECT " + String.join(", ", columns) + " FROM " + tableName + " WHERE " + serialColumn + " = ?", serialNo);
+        return rows.isEmpty() ? null : image(rows.get(0), columns, "");
+    }
+    
+    private static Map<String, Object> image(Map<String, Object> row, List<String> columns, String prefix) {
+        Map<String, Object> image = new LinkedHashMap<>();
+        for (String column : columns) {
+            image.put(column, row.get(prefix + column));
+        }
+        return image;
+    }
+}
@@ -0,0 +1,124 @@
+package com.sapphire.rma.repository;
+
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 以 IN 清單分批查詢 (或刪除) 序列號
+ * SQL Server 單一查詢最多 2100 個參數，每批最多 1000 個序列號。
+ * 每批的參數數量補齊到固定級距 (重複最後一個序列號)，讓 IN 清單只有少數幾種 SQL，
+ * 可以共用 QueryShapeRegistry 與 prepared statement 快取。
+ */
+final class SerialNoBatchQuery {
+    
+    // IN 清單的參數數量級距
+    private static final int[] BATCH_SIZES = {16, 64, 256, 1000};
+    
+    private SerialNoBatchQuery() {}
+    
+    /**
+     * 查詢存在於資料表中的序列號
+     * @return 資料表中的序列號 (不分大小寫)
+     */
+    static Set<String> findExisting(JdbcTemplate jdbcTemplate, QueryShapeRegistry queryShapeRegistry,
+                                    String queryName, String tableName, Collection<String> serialNos) {
+        return executeInBatches(jdbcTemplate, queryShapeRegistry, queryName, tableName, serialNos,
+                                "SELECT Serial_No FROM " + tableName + " WHERE Serial_No IN (");
+    }
+    
+    /**
+     * 刪除序列號的記錄，以 OUTPUT DELETED.Serial_No 取得實際刪除的序列號 (不需先查詢是否存在)
+     * @return 已刪除的序列號 (不分大小寫)
+     */
+    static Set<String> deleteExisting(JdbcTemplate jdbcTemplate, QueryShapeRegistry queryShapeRegistry,
+                                      String queryName, String tableName, Collection<String> serialNos) {
+        return executeInBatches(jdbcTemplate, queryShapeRegistry, queryName, tableName, serialNos,
+                                "DELETE FROM " + tableName + " OUTPUT DELETED.Serial_No WHERE Serial_No IN (");
+    }
+    
+    /**
+     * 查詢序列號的記錄 (只取指定欄位)
+     * @param projection SELECT 的欄位，例如 "Serial_No, PN, SKU"
+     */
+    static List<Map<String, Object>> findRows(JdbcTemplate jdbcTemplate, QueryShapeRegistry queryShapeRegistry,
+                                              String queryName, String tableName, String projection,
+                                              Collection<String> serialNos) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        executeInBatches(jdbcTemplate, queryShapeRegistry, queryName, tableName, serialNos,
+                         "SELECT " + projection + " FROM " + tableName + " WHERE Serial_No IN (",
+                         new ColumnMapRowMapper(), rows);
+        return rows;
+    }
+    
+    /**
+     * 分批執行以 IN 清單結尾、回傳 Serial_No 欄位的 SQL
+     * 回傳的序列號去除尾端空白 (SQL Server 比對時忽略尾端空白，資料表中的值可能帶有空白)
+     * @param sqlPrefix IN 清單之前的 SQL，例如 "SELECT Serial_No FROM t WHERE Serial_No IN ("
+     */
+    private static Set<String> executeInBatches(JdbcTemplate jdbcTemplate, QueryShapeRegistry queryShapeRegistry,
+                                                String queryName, String tableName, Collection<String> serialNos,
+                                                String sqlPrefix) {
+        Set<String> result = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        executeInBatches(jdbcTemplate, queryShapeRegistry, queryName, tableName, serialNos, sqlPrefix,
+                         (rs, rowNum) -> stripTrailing(rs.getString(1)), result);
+        return result;
+    }
+    
+    private static String stripTrailing(String value) {
+        if (value == null) {
+            return null;
+        }
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+    
+    /**
+     * 分批執行以 IN 清單結尾的 SQL，結果加入 result
+     */
+    private static <T> void executeInBatches(JdbcTemplate jdbcTemplate, QueryShapeRegistry queryShapeRegistry,
+                                             String queryName, String tableName, Collection<String> serialNos,
+                                             String sqlPrefix, RowMapper<T> rowMapper, Collection<T> result) {
+        String[] values = serialNos.toArray(new String[0]);
+        int maxBatch = BATCH_SIZES[BATCH_SIZES.length - 1];
+        
+        for (int from = 0; from < values.length; from += maxBatch) {
+            int count = Math.min(maxBatch, values.length - from);
+            int batchSize = batchSize(count);
+            
+            Object[] params = new Object[batchSize];
+            System.arraycopy(values, from, params, 0, count);
+            Arrays.fill(params, count, batchSize, values[from + count - 1]);
+            
+            String sql = queryShapeRegistry.getSql(queryName, tableName, batchSize, () -> {
+                StringBuilder builder = new StringBuilder(sqlPrefix);
+                for (int i = 0; i < batchSize; i++) {
+                    builder.append(i == 0 ? "?" : ", ?");
+                }
+                return builder.append(")").toString();
+            });
+            
+            result.addAll(jdbcTemplate.query(sql, rowMapper, params));
+        }
+    }
+    
+    private static int batchSize(int count) {
+        for (int size : BATCH_SIZES) {
+            if (count <= size) {
+                return size;
+            }
+        }
+        return BATCH_SIZES[BATCH_SIZES.length - 1];
+    }
+}
@@ -1,13 +1,21 @@
 package com.sapphire.rma.repository;
 
+import com.sapphire.rma.dto.RecordSet;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Repository;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * Stock Repository - 專門處理所有產品線的庫存記錄
@@ -18,11 +26,29 @@ public class StockRepository {
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
+    @Autowired
+    private QueryShapeRegistry queryShapeRegistry;
+    
+    @Autowired
+    private ProductTableRegistry productTableRegistry;
+    
+    @Autowired
+    private RecordUpserter recordUpserter;
+    
+    @Value("${rma.export.fetch-size:1000}")
+    private int exportFetchSize;
+    
+    // 查詢條件位元 (查詢形狀的一部分)
+    private static final int FILTER_SERIAL_NO = 1;
+    private static final int FILTER_PN = 1 << 1;
+    private static final int FILTER_SKU = 1 << 2;
+    private static final int FILTER_PRODUCT_NAME = 1 << 3;
+    
     /**
-     * 根據產品線獲取庫存表名
+     * 根據產品線獲取庫存表名 (已驗證，由 ProductTableRegistry 提供)
      */
     private String getTableName(String productType) {
-        return productType + "_buffer_stock";
+        return productTableRegistry.getStockTable(productType).getName();
     }
     
     // ==================== 資料調整頁面 - 庫存查詢 ====================
@@ -32,14 +58,39 @@ public class StockRepository {
      * 直接撈出該產品線的所有庫存資料，不帶任何條件
      * @param productType 產品線 (必填)
      */
-    public List<Map<String, Object>> findAllByProductType(String productType) {
+    public RecordSet findAllByProductType(String productType) {
         if (productType == null || productType.trim().isEmpty()) {
             throw new IllegalArgumentException("產品線為必填項");
         }
         
-        String tableName = getTableName(productType);
-        String sql = "SELECT * FROM " + tableName + " ORDER BY Serial_No";
-        return jdbcTemplate.queryForList(sql);
+        ProductTable table = productTableRegistry.getStockTable(productType);
+        String tableName = table.getName();
+        String sql = queryShapeRegistry.getSql("stock.findAllByProductType", tableName, 0, () ->
+            "SELECT " + table.getColumnList() + " FROM " + tableName + " ORDER BY Serial_No");
+        return jdbcTemplate.query(sql, RecordSetExtractor.INSTANCE);
+    }
+    
+    /**
+     * 資料匯出 - 逐筆讀取指定產品線的所有庫存
+     * 不建立結果清單，每讀到一列就交給 rowHandler 處理
+     * @param productType 產品線 (必填)
+     */
+    public void streamAllByProductType(String productType, RowCallbackHandler rowHandler) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        ProductTable table = productTableRegistry.getStockTable(productType);
+        String tableName = table.getName();
+        String sql = queryShapeRegistry.getSql("stock.findAllByProductType", tableName, 0, () ->
+            "SELECT " + table.getColumnList() + " FROM " + tableName + " ORDER BY Serial_No");
+        
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(sql, 
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(exportFetchSize);
+            return ps;
+        }, rowHandler);
     }
     
     /**
@@ -51,12 +102,14 @@ public class StockRepository {
             throw new IllegalArgumentException("產品線為必填項");
         }
         
-        String tableName = getTableName(productType);
-        String sql = "SELECT * FROM " + tableName + " WHERE Serial_No = ?";
+        ProductTable table = productTableRegistry.getStockTable(productType);
+        String tableName = table.getName();
+        String sql = queryShapeRegistry.getSql("stock.findBySerialNo", tableName, 0, () ->
+            "SELECT " + table.getColumnList() + " FROM " + tableName + " WHERE Serial_No = ?");
         
         try {
-            Map<String, Object> result = jdbcTemplate.queryForMap(sql, serialNo);
-            return Optional.of(result);
+            RecordSet results = jdbcTemplate.query(sql, RecordSetExtractor.INSTANCE, serialNo);
+            return results.isEmpty() ? Optional.empty() : Optional.of(results.get(0));
         } catch (Exception e) {
             return Optional.empty();
         }
@@ -67,46 +120,77 @@ public class StockRepository {
      * 這個方法主要用於其他可能的查詢需求
      * @param productType 產品線 (必填)
      */
-    public List<Map<String, Object>> findBySearchCriteria(String productType, Map<String, Object> searchParams) {
+    public RecordSet findBySearchCriteria(String productType, Map<String, Object> searchParams) {
+        return findBySearchCriteria(productType, searchParams, null);
+    }
+    
+    /**
+     * 動態查詢庫存記錄，只回傳指定欄位
+     * @param productType 產品線 (必填)
+     * @param fields 要回傳的欄位，為空時回傳全部欄位
+     * @throws IllegalArgumentException 欄位不存在於資料表
+     */
+    public RecordSet findBySearchCriteria(String productType, Map<String, Object> searchParams, List<String> fields) {
         if (productType == null || productType.trim().isEmpty()) {
             throw new IllegalArgumentException("產品線為必填項");
         }
         
-        String tableName = getTableName(productType);
+        ProductTable table = productTableRegistry.getStockTable(productType);
+        String tableName = table.getName();
+        String projection = table.projectColumns(fields);
         
-        StringBuilder sql = new StringBuilder("SELECT * FROM " + tableName + " WHERE 1=1");
         List<Object> params = new ArrayList<>();
+        int filterMask = 0;
         
         // 動態添加查詢條件
         if (searchParams.get("serialNo") != null && !searchParams.get("serialNo").toString().trim().isEmpty()) {
-            sql.append(" AND Serial_No = ?");
+            filterMask |= FILTER_SERIAL_NO;
             params.add(searchParams.get("serialNo").toString().trim());
         }
         
         if (searchParams.get("pn") != null && !searchParams.get("pn").toString().trim().isEmpty()) {
-            sql.append(" AND PN = ?");
+            filterMask |= FILTER_PN;
             params.add(searchParams.get("pn").toString().trim());
         }
         
         if (searchParams.get("sku") != null && !searchParams.get("sku").toString().trim().isEmpty()) {
-            sql.append(" AND SKU = ?");
+            filterMask |= FILTER_SKU;
             params.add(searchParams.get("sku").toString().trim());
         }
         
         if (searchParams.get("productName") != null && !searchParams.get("productName").toString().trim().isEmpty()) {
-            sql.append(" AND Prodcut_name LIKE ?");
+            filterMask |= FILTER_PRODUCT_NAME;
             params.add("%" + searchParams.get("productName").toString().trim() + "%");
         }
         
-        sql.append(" ORDER BY Serial_No");
+        int shapeMask = filterMask;
+        String sql = queryShapeRegistry.getSql("stock.findBySearchCriteria", tableName, shapeMask, 
+                                               RmaRepository.shapeProjection(fields, projection), () -> {
+            StringBuilder builder = new StringBuilder("SELECT " + projection + " FROM " + tableName + " WHERE 1=1");
+            if ((shapeMask & FILTER_SERIAL_NO) != 0) {
+                builder.append(" AND Serial_No = ?");
+            }
+            if ((shapeMask & FILTER_PN) != 0) {
+                builder.append(" AND PN = ?");
+            }
+            if ((shapeMask & FILTER_SKU) != 0) {
+                builder.append(" AND SKU = ?");
+            }
+            if ((shapeMask & FILTER_PRODUCT_NAME) != 0) {
+                builder.append(" AND Prodcut_name LIKE ?");
+            }
+            builder.append(" ORDER BY Serial_No");
+            return builder.toString();
+        });
         
-        return jdbcTemplate.queryForList(sql.toString(), params.toArray());
+        return jdbcTemplate.query(sql, RecordSetExtractor.INSTANCE, params.toArray());
     }
     
     // ==================== 庫存記錄管理 ====================
     
     /**
      * 檢查序列號是否存在於庫存中
+     * 新增前不需要先呼叫：upsert 與批次新增在寫入陳述式內檢查序列號是否存在 (MERGE / INSERT ... WHERE NOT EXISTS)
      * @param productType 產品線 (必填)
      */
     public boolean existsBySerialNo(String productType, String serialNo) {
@@ -115,11 +199,26 @@ public class StockRepository {
         }
         
         String tableName = getTableName(productType);
-        String sql = "SELECT COUNT(*) FROM " + tableName + " WHERE Serial_No = ?";
+        String sql = queryShapeRegistry.getSql("stock.existsBySerialNo", tableName, 0, () ->
+            "SELECT COUNT(*) FROM " + tableName + " WHERE Serial_No = ?");
         Integer count = jdbcTemplate.queryForObject(sql, Integer.class, serialNo);
         return count != null && count > 0;
     }
     
+    /**
+     * 批次查詢序列號是否存在 (分批 IN 清單查詢，取代逐筆 COUNT(*))
+     * @param productType 產品線 (必填)
+     * @return 存在於資料表中的序列號 (不分大小寫)
+     */
+    public Set<String> findExistingSerialNos(String productType, Collection<String> serialNos) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        return SerialNoBatchQuery.findExisting(jdbcTemplate, queryShapeRegistry, "stock.findExistingSerialNos", 
+                                               getTableName(productType), serialNos);
+    }
+    
     /**
      * 新增庫存記錄
      * @param productType 產品線 (必填)
@@ -151,6 +250,19 @@ public class StockRepository {
         return jdbcTemplate.update(sql, params.toArray());
     }
     
+    /**
+     * 新增庫存記錄，序列號已存在時依 policy 拒絕、覆寫或合併 (單一陳述式，不需先查詢是否存在)
+     * @param productType 產品線 (必填)
+     */
+    public UpsertResult upsertStockRecord(String productType, Map<String, Object> stockData, ConflictPolicy policy) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        ProductTable table = productTableRegistry.getStockTable(productType);
+        return recordUpserter.upsert("stock.upsert", table, stockData, policy);
+    }
+    
     /**
      * 刪除庫存記錄 (用於資料調整頁面的"更換"功能)
      * 當庫存被用於替換時，會從庫存表中刪除
@@ -162,10 +274,26 @@ public class StockRepository {
         }
         
         String tableName = getTableName(productType);
-        String sql = "DELETE FROM " + tableName + " WHERE Serial_No = ?";
+        String sql = queryShapeRegistry.getSql("stock.deleteBySerialNo", tableName, 0, () ->
+            "DELETE FROM " + tableName + " WHERE Serial_No = ?");
         return jdbcTemplate.update(sql, serialNo);
     }
     
+    /**
+     * 批次刪除庫存記錄 (分批 DELETE ... WHERE Serial_No IN (...)，不需逐筆檢查是否存在)
+     * @param productType 產品線 (必填)
+     * @return 實際刪除的序列號 (不分大小寫)
+     */
+    public Set<String> deleteBySerialNos(String productType, Collection<String> serialNos) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        String tableName = getTableName(productType);
+        return SerialNoBatchQuery.deleteExisting(jdbcTemplate, queryShapeRegistry, "stock.deleteBySerialNos",
+                                                 tableName, serialNos);
+    }
+    
     /**
      * 更新庫存記錄 (一般情況下庫存資料不會更新，但提供此方法以備不時之需)
      * @param productType 產品線 (必填)
@@ -202,45 +330,117 @@ public class StockRepository {
      * 彈性查詢 - 支援模糊查詢 (掃碼功能)
      * @param productType 產品線 (必填)
      */
-    public List<Map<String, Object>> findByKeyword(String productType, String keyword) {
+    public RecordSet findByKeyword(String productType, String keyword) {
         if (productType == null || productType.trim().isEmpty()) {
             throw new IllegalArgumentException("產品線為必填項");
         }
         
-        String tableName = getTableName(productType);
-        String sql = "SELECT * FROM " + tableName + " WHERE " +
-                    "Serial_No LIKE ? OR PN LIKE ? OR SKU LIKE ? OR Prodcut_name LIKE ? " +
-                    "ORDER BY Serial_No";
+        ProductTable table = productTableRegistry.getStockTable(productType);
+        String tableName = table.getName();
+        String sql = queryShapeRegistry.getSql("stock.findByKeyword", tableName, 0, () ->
+            "SELECT " + table.getColumnList() + " FROM " + tableName + " WHERE " +
+            "Serial_No LIKE ? OR PN LIKE ? OR SKU LIKE ? OR Prodcut_name LIKE ? " +
+            "ORDER BY Serial_No");
         String likeKeyword = "%" + keyword + "%";
-        return jdbcTemplate.queryForList(sql, likeKeyword, likeKeyword, likeKeyword, likeKeyword);
+        return jdbcTemplate.query(sql, RecordSetExtractor.INSTANCE, likeKeyword, likeKeyword, likeKeyword, likeKeyword);
     }
     
     /**
      * 根據 PN 查詢庫存
      * @param productType 產品線 (必填)
      */
-    public List<Map<String, Object>> findByPN(String productType, String pn) {
+    public RecordSet findByPN(String productType, String pn) {
         if (productType == null || productType.trim().isEmpty()) {
             throw new IllegalArgumentException("產品線為必填項");
         }
         
-        String tableName = getTableName(productType);
-        String sql = "SELECT * FROM " + tableName + " WHERE PN = ? ORDER BY Serial_No";
-        return jdbcTemplate.queryForList(sql, pn);
+        ProductTable table = productTableRegistry.getStockTable(productType);
+        String tableName = table.getName();
+        String sql = queryShapeRegistry.getSql("stock.findByPN", tableName, 0, () ->
+            "SELECT " + table.getColumnList() + " FROM " + tableName + " WHERE PN = ? ORDER BY Serial_No");
+        return jdbcTemplate.query(sql, RecordSetExtractor.INSTANCE, pn);
     }
     
     /**
      * 根據 SKU 查詢庫存
      * @param productType 產品線 (必填)
      */
-    public List<Map<String, Object>> findBySKU(String productType, String sku) {
+    public RecordSet findBySKU(String productType, String sku) {
         if (productType == null || productType.trim().isEmpty()) {
             throw new IllegalArgumentException("產品線為必填項");
         }
         
-        String tableName = getTableName(productType);
-        String sql = "SELECT * FROM " + tableName + " WHERE SKU = ? ORDER BY Serial_No";
-        return jdbcTemplate.queryForList(sql, sku);
+        ProductTable table = productTableRegistry.getStockTable(productType);
+        String tableName = table.getName();
+        String sql = queryShapeRegistry.getSql("stock.findBySKU", tableName, 0, () ->
+            "SELECT " + table.getColumnList() + " FROM " + tableName + " WHERE SKU = ? ORDER BY Serial_No");
+        return jdbcTemplate.query(sql, RecordSetExtractor.INSTANCE, sku);
+    }
+    
+    // ==================== 自動完成 ====================
+    
+    /**
+     * 取得欄位所有不重複的值 (建立前綴索引使用)
+     * @param productType 產品線 (必填)
+     * @param column 欄位名稱 (需存在於資料表)
+     */
+    public List<String> findDistinctValues(String productType, String column) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        ProductTable table = productTableRegistry.getStockTable(productType);
+        String tableName = table.getName();
+        String resolved = RmaRepository.resolveSuggestColumn(table, column);
+        String sql = queryShapeRegistry.getSql("stock.findDistinctValues", tableName, 0, resolved, () ->
+            "SELECT DISTINCT " + resolved + " FROM " + tableName + " WHERE " + resolved + " IS NOT NULL");
+        return jdbcTemplate.queryForList(sql, String.class);
+    }
+    
+    /**
+     * 依前綴查詢欄位值 (前綴索引尚未建立時使用)
+     * @param productType 產品線 (必填)
+     * @param column 欄位名稱 (需存在於資料表)
+     */
+    public List<String> findValuesByPrefix(String productType, String column, String prefix, int limit) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        
+        ProductTable table = productTableRegistry.getStockTable(productType);
+        String tableName = table.getName();
+        String resolved = RmaRepository.resolveSuggestColumn(table, column);
+        String sql = queryShapeRegistry.getSql("stock.findValuesByPrefix", tableName, 0, resolved, () ->
+            "SELECT DISTINCT TOP (?) " + resolved + " FROM " + tableName + " WHERE " + resolved + " LIKE ? ORDER BY " + resolved);
+        return jdbcTemplate.queryForList(sql, String.class, limit, RmaRepository.escapeLike(prefix) + "%");
+    }
+    
+    /**
+     * 取得序列號的指定欄位值 (自動完成等記憶體索引依異動的序列號增量更新時使用)
+     * 資料表沒有的欄位不會出現在結果中；已不存在的序列號沒有對應的列。
+     * @param productType 產品線 (必填)
+     * @param columns 要取得的欄位 (一律包含 Serial_No)
+     */
+    public List<Map<String, Object>> findValuesBySerialNos(String productType, Collection<String> columns,
+                                                           Collection<String> serialNos) {
+        if (productType == null || productType.trim().isEmpty()) {
+            throw new IllegalArgumentException("產品線為必填項");
+        }
+        if (serialNos.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        ProductTable table = productTableRegistry.getStockTable(productType);
+        Set<String> selected = new LinkedHashSet<>();
+        selected.add("Serial_No");
+        for (String column : columns) {
+            String resolved = table.resolveColumn(column);
+            if (resolved != null) {
+                selected.add(resolved);
+            }
+        }
+        return SerialNoBatchQuery.findRows(jdbcTemplate, queryShapeRegistry, "stock.findValuesBySerialNos", 
+                                           table.getName(), String.join(", ", selected), serialNos);
     }
     
     // ==================== 統計功能 ====================
@@ -255,7 +455,8 @@ public class StockRepository {
         }
         
         String tableName = getTableName(productType);
-        String sql = "SELECT COUNT(*) FROM " + tableName;
+        String sql = queryShapeRegistry.getSql("stock.countByProductType", tableName, 0, () ->
+            "SELECT COUNT(*) FROM " + tableName);
         Integer count = jdbcTemplate.queryForObject(sql, Integer.class);
         return count != null ? count : 0;
     }
@@ -264,14 +465,15 @@ public class StockRepository {
      * 根據產品名稱統計庫存數量
      * @param productType 產品線 (必填)
      */
-    public List<Map<String, Object>> getStockStatisticsByProduct(String productType) {
+    public RecordSet getStockStatisticsByProduct(String productType) {
         if (productType == null || productType.trim().isEmpty()) {
             throw new IllegalArgumentException("產品線為必填項");
         }
         
         String tableName = getTableName(productType);
-        String sql = "SELECT Prodcut_name, COUNT(*) as stock_count FROM " + tableName + 
-                    " GROUP BY Prodcut_name ORDER BY stock_count DESC";
-        return jdbcTemplate.queryForList(sql);
+        String sql = queryShapeRegistry.getSql("stock.getStockStatisticsByProduct", tableName, 0, () ->
+            "SELECT Prodcut_name, COUNT(*) as stock_count FROM " + tableName + 
+            " GROUP BY Prodcut_name ORDER BY stock_count DESC");
+        return jdbcTemplate.query(sql, RecordSetExtractor.INSTANCE);
     }
 }
\ No newline at end of file
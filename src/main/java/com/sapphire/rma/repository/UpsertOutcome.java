@@ -0,0 +1,26 @@
+package com.sapphire.rma.repository;
+
+/**
+ * 新增或更新 (upsert) 的結果與寫入前後的資料列
+ */
+public final class UpsertOutcome {
+    
+    private final UpsertResult result;
+    private final RowImages images;
+    
+    UpsertOutcome(UpsertResult result, RowImages images) {
+        this.result = result;
+        this.images = images;
+    }
+    
+    public UpsertResult getResult() {
+        return result;
+    }
+    
+    /**
+     * 寫入前後的資料列 (REJECTED 時兩者皆為 null)
+     */
+    public RowImages getImages() {
+        return images;
+    }
+}
@@ -0,0 +1,16 @@
+package com.sapphire.rma.repository;
+
+/**
+ * 新增或更新 (upsert) 的結果
+ */
+public enum UpsertResult {
+    
+    /** 序列號不存在，已新增 */
+    INSERTED,
+    
+    /** 序列號已存在，已依衝突處理方式更新 */
+    UPDATED,
+    
+    /** 序列號已存在，衝突處理方式為 REJECT，未寫入 */
+    REJECTED
+}
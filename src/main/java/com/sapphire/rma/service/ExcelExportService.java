@@ -0,0 +1,163 @@
+package com.sapphire.rma.service;
+
+import com.sapphire.rma.repository.RmaRepository;
+import com.sapphire.rma.repository.StockRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Excel 匯出服務
+ * 查詢結果每讀到一列就寫入 xlsx 的工作表 (StreamingXlsxWriter)，檔案開頭在查詢前就送出，
+ * 大量資料匯出時用戶端持續收到資料，不會等到查詢結束才開始下載；工作表大小不受 heap 限制，也不需要暫存檔。
+ * 欄位標題與 backend/app.py 匯入時使用的標題一致，匯出的檔案可以直接再上傳匯入。
+ */
+@Service
+public class ExcelExportService {
+    
+    // app.py 優先讀取的 RMA 工作表名稱
+    public static final String RMA_SHEET_NAME = "TW RMA history";
+    public static final String STOCK_SHEET_NAME = "Buffer stock";
+    
+    public static final String XLSX_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+    
+    /**
+     * RMA 資料庫欄位 -> Excel 標題 (對應 app.py processRmaData 的 columnMapping，含原始空白)
+     */
+    private static final Map<String, String> RMA_COLUMN_HEADERS;
+    
+    /**
+     * 庫存資料庫欄位 -> Excel 標題 (對應 app.py processStockData 的 columnMapping)
+     */
+    private static final Map<String, String> STOCK_COLUMN_HEADERS;
+    
+    static {
+        Map<String, String> rmaHeaders = new LinkedHashMap<>();
+        rmaHeaders.put("Rma_No", "Rma No");
+        rmaHeaders.put("Customer_Name", "Customer Name");
+        rmaHeaders.put("Serial_No", "Serial No (可用掃碼)");
+        rmaHeaders.put("PN", "Part No(可用掃碼)");
+        rmaHeaders.put("SKU", "SKU#(可用掃碼)");
+        rmaHeaders.put("Product_Name", "Product Name");
+        rmaHeaders.put("Sell_Ship_Date", "Sell/Ship Date");
+        rmaHeaders.put("Create_Date", "Create Date ");
+        rmaHeaders.put("Return_Date", "Return Date");
+        rmaHeaders.put("Failure_desc", "Failure desc");
+        rmaHeaders.put("VI_Damage_Status", "VI Damage Status");
+        rmaHeaders.put("Test_Result_Desc", "Test Result Desc");
+        rmaHeaders.put("Replacement_SN_in_TW", "Replacement SN in TW(可用掃碼)");
+        rmaHeaders.put("Replacement_PN_in_TW", "Replacement PN in TW(可用掃碼)");
+        rmaHeaders.put("Replacement_SKU_in_TW", "Replacement SKU# in TW(可用掃碼)");
+        rmaHeaders.put("Replacement_SN_from_HK", "Replacement SN from HK");
+        rmaHeaders.put("Replacement_PN_from_HK", "Replacement PN from HK");
+        rmaHeaders.put("Replacement_SKU_from_HK", "Replacement SKU# from HK");
+        rmaHeaders.put("RMA_board_Test_Result", "RMA board Test Result");
+        rmaHeaders.put("End_user_invoice_date", "End user invoice date ");
+        rmaHeaders.put("Warranty_Until", "Warranty Until ");
+        rmaHeaders.put("Remark", " Remark");
+        RMA_COLUMN_HEADERS = Collections.unmodifiableMap(rmaHeaders);
+        
+        Map<String, String> stockHeaders = new LinkedHashMap<>();
+        stockHeaders.put("Prodcut_name", "Prodcut name");
+        stockHeaders.put("PN", "PN#");
+        stockHeaders.put("SKU", "SKU#");
+        stockHeaders.put("Serial_No", "S/N");
+        STOCK_COLUMN_HEADERS = Collections.unmodifiableMap(stockHeaders);
+    }
+    
+    @Autowired
+    private RmaRepository rmaRepository;
+    
+    @Autowired
+    private StockRepository stockRepository;
+    
+    /**
+     * 匯出指定產品線的所有 RMA 記錄
+     * @return 匯出筆數
+     */
+    @Transactional(readOnly = true)
+    public long exportRmaRecords(String productType, OutputStream outputStream) throws IOException {
+        return writeWorkbook(RMA_SHEET_NAME, RMA_COLUMN_HEADERS, outputStream,
+            rowHandler -> rmaRepository.streamBySearchCriteria(productType, new HashMap<>(), null, rowHandler));
+    }
+    
+    /**
+     * 匯出指定產品線的所有庫存記錄
+     * @return 匯出筆數
+     */
+    @Transactional(readOnly = true)
+    public long exportStockRecords(String productType, OutputStream outputStream) throws IOException {
+        return writeWorkbook(STOCK_SHEET_NAME, STOCK_COLUMN_HEADERS, outputStream,
+            rowHandler -> stockRepository.streamAllByProductType(productType, rowHandler));
+    }
+    
+    /**
+     * 建立工作表並逐列寫入查詢結果
+     * @param query 以指定的 RowCallbackHandler 執行串流查詢
+     */
+    private long writeWorkbook(String sheetName, Map<String, String> columnHeaders, OutputStream outputStream,
+                               Consumer<RowCallbackHandler> query) throws IOException {
+        String[] columns = columnHeaders.keySet().toArray(new String[0]);
+        StreamingXlsxWriter writer = new StreamingXlsxWriter(outputStream, sheetName, columns.length);
+        writer.writeRow(columnHeaders.values().toArray());
+        
+        // 第一列資料進來時才對應欄位位置，找不到的欄位留空
+        int[][] columnIndexes = {null};
+        long[] rowCount = {0};
+        Object[] values = new Object[columns.length];
+        
+        try {
+            query.accept(rs -> {
+                if (columnIndexes[0] == null) {
+                    columnIndexes[0] = resolveColumnIndexes(rs.getMetaData(), columns);
+                }
+                
+                for (int i = 0; i < columns.length; i++) {
+                    int index = columnIndexes[0][i];
+                    values[i] = index > 0 ? JdbcUtils.getResultSetValue(rs, index) : null;
+                }
+                try {
+                    writer.writeRow(values);
+                } catch (IOException e) {
+                    // 用戶端中斷下載：結束查詢
+                    throw new UncheckedIOException(e);
+                }
+                rowCount[0]++;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        
+        writer.finish();
+        return rowCount[0];
+    }
+    
+    /**
+     * 依欄位名稱 (不分大小寫) 找出結果集中的欄位位置，找不到為 0
+     */
+    private int[] resolveColumnIndexes(ResultSetMetaData metaData, String[] columns) throws SQLException {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            positions.put(JdbcUtils.lookupColumnName(metaData, i).toUpperCase(), i);
+        }
+        
+        int[] indexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indexes[i] = positions.getOrDefault(columns[i].toUpperCase(), 0);
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,193 @@
+package com.sapphire.rma.service;
+
+import com.sapphire.rma.dto.FederatedLineResult;
+import com.sapphire.rma.dto.RmaSearchRequest;
+import com.sapphire.rma.dto.RmaSearchResponse;
+import com.sapphire.rma.repository.QueryContext;
+import com.sapphire.rma.repository.RmaRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 跨產品線 RMA 搜尋服務
+ * 不指定產品線時，同時查詢所有產品線的 RMA 資料表 (固定大小的執行緒池)，
+ * 結果依 Create_Date 由新到舊合併。每條產品線有各自的逾時，逾時或失敗的產品線
+ * 只在 lineResults 中標示，其餘結果照常回傳，總耗時取決於最慢的產品線而非總和。
+ * 每條產品線的查詢在請求 QueryContext 的子 context 中執行，逾時或請求被取消時資料庫查詢會一併取消。
+ */
+@Service
+public class FederatedSearchService {
+    
+    // 合併後每筆記錄標示所屬產品線的欄位
+    public static final String PRODUCT_LINE_COLUMN = "Product_Line";
+    
+    @Autowired
+    private RmaRepository rmaRepository;
+    
+    @Autowired
+    private ProductLineService productLineService;
+    
+    // 執行緒數需小於連線池大小 (Hikari 預設 10)，避免佔滿連線
+    @Value("${rma.federated-search.threads:4}")
+    private int threads;
+    
+    @Value("${rma.federated-search.queue-capacity:64}")
+    private int queueCapacity;
+    
+    @Value("${rma.federated-search.line-timeout-ms:5000}")
+    private long lineTimeoutMs;
+    
+    private ThreadPoolExecutor executor;
+    
+    @PostConstruct
+    public void init() {
+        AtomicInteger sequence = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                Thread thread = new Thread(runnable, "federated-search-" + sequence.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * 跨產品線搜尋 RMA 記錄 (忽略 request 的 productType)
+     */
+    public RmaSearchResponse searchAllProductLines(RmaSearchRequest request) {
+        QueryContext requestContext = QueryContext.current();
+        List<QueryContext> lineContexts = new ArrayList<>();
+        try {
+            if (!request.hasSearchCriteria()) {
+                return RmaSearchResponse.error("跨產品線搜尋至少需要一個搜尋條件");
+            }
+            if (request.isPaged() || request.getContinuationToken() != null) {
+                return RmaSearchResponse.error("跨產品線搜尋不支援分頁");
+            }
+            
+            Map<String, Object> searchParams = RmaService.buildSearchParams(request);
+            List<String> fields = request.getFields();
+            if (fields != null && !fields.isEmpty()) {
+                // 合併排序需要 Create_Date
+                fields = new ArrayList<>(fields);
+                fields.add("Create_Date");
+            }
+            List<String> searchFields = fields;
+            
+            // 1. 送出所有產品線的查詢
+            List<String> productTypes = productLineService.getAllProductLineNames();
+            List<Future<List<Map<String, Object>>>> futures = new ArrayList<>();
+            long startTime = System.nanoTime();
+            for (String productType : productTypes) {
+                QueryContext lineContext = requestContext != null
+                        ? requestContext.child(lineTimeoutMs)
+                        : QueryContext.create("federated-search", "跨產品線搜尋", lineTimeoutMs);
+                lineContexts.add(lineContext);
+                try {
+                    futures.add(executor.submit(() -> lineContext.call(() ->
+                        rmaRepository.findBySearchCriteria(productType, searchParams, searchFields))));
+                } catch (RejectedExecutionException e) {
+                    futures.add(null);
+                }
+            }
+            
+            // 2. 在同一個截止時間前收集結果，逾時的查詢取消
+            long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(lineTimeoutMs);
+            List<FederatedLineResult> lineResults = new ArrayList<>();
+            List<Map<String, Object>> records = new ArrayList<>();
+            for (int i = 0; i < productTypes.size(); i++) {
+                String productType = productTypes.get(i);
+                Future<List<Map<String, Object>>> future = futures.get(i);
+                if (future == null) {
+                    lineResults.add(new FederatedLineResult(productType, FederatedLineResult.REJECTED, 0, 0,
+                                                            "查詢佇列已滿"));
+                    continue;
+                }
+                
+                try {
+                    List<Map<String, Object>> lineRecords = future.get(
+                        Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    for (Map<String, Object> record : lineRecords) {
+                        Map<String, Object> merged = new LinkedHashMap<>();
+                        merged.put(PRODUCT_LINE_COLUMN, productType);
+                        merged.putAll(record);
+                        records.add(merged);
+                    }
+                    lineResults.add(new FederatedLineResult(productType, FederatedLineResult.OK,
+                                                            lineRecords.size(), elapsedMs(startTime), null));
+                } catch (TimeoutException e) {
+                    lineContexts.get(i).cancel();
+                    future.cancel(true);
+                    lineResults.add(new FederatedLineResult(productType, FederatedLineResult.TIMEOUT, 0,
+                                                            elapsedMs(startTime), "查詢超過 " + lineTimeoutMs + " 毫秒"));
+                } catch (ExecutionException e) {
+                    lineResults.add(new FederatedLineResult(productType, FederatedLineResult.ERROR, 0,
+                                                            elapsedMs(startTime), e.getCause().getMessage()));
+                }
+            }
+            
+            // 3. 依 Create_Date 由新到舊合併 (沒有日期的排在最後)
+            records.sort(Comparator.comparing((Map<String, Object> record) -> record.get("Create_Date"),
+                                              FederatedSearchService::compareDates).reversed());
+            
+            long failedLines = lineResults.stream().filter(line -> !line.isOk()).count();
+            String message = String.format("跨 %d 條產品線找到 %d 筆 RMA 記錄%s",
+                                         productTypes.size(), records.size(),
+                                         failedLines > 0 ? "，其中 " + failedLines + " 條產品線未完成" : "");
+            
+            return RmaSearchResponse.federated(message, records, lineResults);
+            
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lineContexts.forEach(QueryContext::cancel);
+            return RmaSearchResponse.error("跨產品線搜尋被中斷");
+        } catch (Exception e) {
+            lineContexts.forEach(QueryContext::cancel);
+            return RmaSearchResponse.error("跨產品線搜尋失敗: " + e.getMessage());
+        } finally {
+            if (requestContext != null) {
+                lineContexts.forEach(requestContext::release);
+            }
+        }
+    }
+    
+    private static long elapsedMs(long startTime) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+    
+    /**
+     * 比較日期 (由舊到新)，null 視為最舊
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareDates(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        if (a.getClass() == b.getClass() && a instanceof Comparable) {
+            return ((Comparable) a).compareTo(b);
+        }
+        return a.toString().compareTo(b.toString());
+    }
+}
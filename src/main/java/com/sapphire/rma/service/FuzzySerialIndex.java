@@ -0,0 +1,400 @@
+package com.sapphire.rma.service;
+
+import com.sapphire.rma.repository.RmaRepository;
+import com.sapphire.rma.repository.StockRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 序列號模糊比對索引 (掃描器誤讀條碼時找出相近的序列號)
+ * 每條產品線以 RMA 與庫存資料表的不重複序列號建立一棵 BK-tree (Levenshtein 距離，不分大小寫)，
+ * 查詢時只走訪距離可能在範圍內的子樹，不需對資料庫嘗試各種 LIKE 組合。
+ * 索引在第一次查詢時於背景建立；收到 RecordChangedEvent 後 (交易提交後)：
+ * 帶有序列號的事件只查詢這些序列號是否仍存在，在背景插入樹中或標記為已刪除；
+ * 整條產品線的事件 (例如批次匯入) 才重新建立整棵樹。
+ * 重建完成前繼續使用舊的樹；尚未建立時回傳空結果。
+ */
+@Component
+public class FuzzySerialIndex {
+    
+    public static final int DEFAULT_MAX_DISTANCE = 2;
+    public static final int MAX_DISTANCE = 2;
+    public static final int DEFAULT_LIMIT = 10;
+    public static final int MAX_LIMIT = 50;
+    
+    private static final String SERIAL_NO = "Serial_No";
+    
+    @Autowired
+    private RmaRepository rmaRepository;
+    
+    @Autowired
+    private StockRepository stockRepository;
+    
+    private final Map<String, LineIndex> indexes = new ConcurrentHashMap<>();
+    
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "fuzzy-serial-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    @PreDestroy
+    public void shutdown() {
+        builder.shutdownNow();
+    }
+    
+    /**
+     * 索引是否已建立 (尚未建立時會排入背景建立)
+     */
+    public boolean isReady(String productType) {
+        LineIndex index = indexes.computeIfAbsent(productType, k -> new LineIndex());
+        if (index.stale) {
+            scheduleBuild(productType, index);
+        }
+        return index.tree != null;
+    }
+    
+    /**
+     * 找出編輯距離在 maxDistance 以內的序列號
+     * 依距離、同時存在於 RMA 與庫存、序列號排序。
+     * @return 每筆包含 serialNo、distance、inRma、inStock；索引尚未建立時為空
+     */
+    public List<Map<String, Object>> search(String productType, String serialNo, int maxDistance, int limit) {
+        int distance = Math.max(0, Math.min(maxDistance, MAX_DISTANCE));
+        int size = Math.max(1, Math.min(limit, MAX_LIMIT));
+        String query = serialNo != null ? serialNo.trim().toUpperCase(Locale.ROOT) : "";
+        if (query.isEmpty() || !isReady(productType)) {
+            return new ArrayList<>();
+        }
+        
+        List<Match> matches = indexes.get(productType).tree.search(query, distance);
+        matches.sort(Comparator.comparingInt((Match m) -> m.distance)
+                .thenComparing(m -> !(m.node.inRma && m.node.inStock))
+                .thenComparing(m -> m.node.serialNo));
+        
+        List<Map<String, Object>> candidates = new ArrayList<>(Math.min(size, matches.size()));
+        for (Match match : matches) {
+            if (candidates.size() >= size) {
+                break;
+            }
+            Map<String, Object> candidate = new LinkedHashMap<>();
+            candidate.put("serialNo", match.node.serialNo);
+            candidate.put("distance", match.distance);
+            candidate.put("inRma", match.node.inRma);
+            candidate.put("inStock", match.node.inStock);
+            candidates.add(candidate);
+        }
+        return candidates;
+    }
+    
+    /**
+     * 產品線資料已異動 (交易提交後)
+     * 整條產品線異動時重建索引，否則只插入或標記異動的序列號
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRecordChanged(RecordChangedEvent event) {
+        String productType = event.getProductType();
+        LineIndex index = indexes.get(productType);
+        if (index == null) {
+            return;
+        }
+        if (event.isWholeProductLine()) {
+            index.stale = true;
+            scheduleBuild(productType, index);
+            return;
+        }
+        
+        // 與重建使用同一個執行緒，排在進行中的重建之後，套用在最新的樹上
+        boolean fromRma = event.getRecordType() == RecordType.RMA;
+        List<String> serialNos = event.getSerialNos();
+        builder.execute(() -> {
+            BkTree tree = index.tree;
+            if (tree == null) {
+                // 尚未建立：建立時會讀到最新的資料
+                return;
+            }
+            try {
+                List<Map<String, Object>> rows = fromRma
+                        ? rmaRepository.findValuesBySerialNos(productType, Collections.emptyList(), serialNos)
+                        : stockRepository.findValuesBySerialNos(productType, Collections.emptyList(), serialNos);
+                Set<String> existing = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+                for (Map<String, Object> row : rows) {
+                    Object value = row.get(SERIAL_NO);
+                    if (value != null) {
+                        existing.add(value.toString().trim());
+                    }
+                }
+                for (String serialNo : serialNos) {
+                    if (existing.contains(serialNo.trim())) {
+                        tree.add(serialNo, fromRma);
+                    } else {
+                        tree.remove(serialNo, fromRma);
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("更新 " + productType + " 序列號模糊比對索引失敗，改為重建: " + e.getMessage());
+                index.stale = true;
+                scheduleBuild(productType, index);
+            }
+        });
+    }
+    
+    /**
+     * 各產品線索引的序列號數量
+     */
+    public List<Map<String, Object>> getStatistics() {
+        List<Map<String, Object>> statistics = new ArrayList<>();
+        indexes.forEach((productType, index) -> {
+            BkTree tree = index.tree;
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("productType", productType);
+            item.put("ready", tree != null);
+            item.put("serialCount", tree != null ? tree.size : 0);
+            item.put("stale", index.stale);
+            statistics.add(item);
+        });
+        return statistics;
+    }
+    
+    private void scheduleBuild(String productType, LineIndex index) {
+        synchronized (index) {
+            if (index.building) {
+                return;
+            }
+            index.building = true;
+            index.stale = false;
+        }
+        builder.execute(() -> {
+            try {
+                BkTree tree = new BkTree();
+                for (String serialNo : rmaRepository.findDistinctValues(productType, SERIAL_NO)) {
+                    tree.add(serialNo, true);
+                }
+                for (String serialNo : stockRepository.findDistinctValues(productType, SERIAL_NO)) {
+                    tree.add(serialNo, false);
+                }
+                index.tree = tree;
+            } catch (Exception e) {
+                System.err.println("建立 " + productType + " 序列號模糊比對索引失敗: " + e.getMessage());
+            } finally {
+                synchronized (index) {
+                    index.building = false;
+                }
+            }
+            // 建立期間又有異動時再重建一次
+            if (index.stale) {
+                scheduleBuild(productType, index);
+            }
+        });
+    }
+    
+    /**
+     * Levenshtein 距離 (BK-tree 依精確距離決定子樹，不能提早結束)
+     */
+    private static int distance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+    
+    /**
+     * 單一產品線的索引
+     */
+    private static final class LineIndex {
+        // 建立完成前為 null，之後整棵樹替換
+        private volatile BkTree tree;
+        private volatile boolean stale = true;
+        private boolean building;
+    }
+    
+    /**
+     * BK-tree：子節點依與父節點的距離分組，查詢距離 d 內的值時只需走訪距離在 [dist - d, dist + d] 的子樹
+     * 只由背景執行緒修改；查詢執行緒不加鎖讀取，子節點陣列以整個替換的方式發佈。
+     * 已刪除的序列號保留節點 (仍用於走訪子樹)，但 RMA 與庫存都不存在時不列入結果。
+     */
+    private static final class BkTree {
+        private volatile Node root;
+        private volatile int size;
+        
+        private void add(String value, boolean fromRma) {
+            if (value == null || value.trim().isEmpty()) {
+                return;
+            }
+            String serialNo = value.trim();
+            String key = serialNo.toUpperCase(Locale.ROOT);
+            if (root == null) {
+                Node node = new Node(key, serialNo, 0);
+                node.mark(fromRma);
+                root = node;
+                size++;
+                return;
+            }
+            
+            Node node = root;
+            while (true) {
+                int d = distance(key, node.key);
+                if (d == 0) {
+                    if (!node.isLive()) {
+                        size++;
+                    }
+                    node.mark(fromRma);
+                    return;
+                }
+                Node child = node.child(d);
+                if (child == null) {
+                    child = new Node(key, serialNo, d);
+                    child.mark(fromRma);
+                    node.addChild(child);
+                    size++;
+                    return;
+                }
+                node = child;
+            }
+        }
+        
+        /**
+         * 序列號已從 RMA 或庫存刪除：清除對應的標記
+         */
+        private void remove(String value, boolean fromRma) {
+            if (value == null || value.trim().isEmpty()) {
+                return;
+            }
+            String key = value.trim().toUpperCase(Locale.ROOT);
+            Node node = root;
+            while (node != null) {
+                int d = distance(key, node.key);
+                if (d == 0) {
+                    boolean live = node.isLive();
+                    node.unmark(fromRma);
+                    if (live && !node.isLive()) {
+                        size--;
+                    }
+                    return;
+                }
+                node = node.child(d);
+            }
+        }
+        
+        private List<Match> search(String query, int maxDistance) {
+            List<Match> matches = new ArrayList<>();
+            if (root == null) {
+                return matches;
+            }
+            
+            Deque<Node> pending = new ArrayDeque<>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                int d = distance(query, node.key);
+                if (d <= maxDistance && node.isLive()) {
+                    matches.add(new Match(node, d));
+                }
+                for (Node child : node.children) {
+                    if (child.parentDistance >= d - maxDistance && child.parentDistance <= d + maxDistance) {
+                        pending.push(child);
+                    }
+                }
+            }
+            return matches;
+        }
+    }
+    
+    private static final class Node {
+        // 比對用 (大寫)
+        private final String key;
+        // 資料表中的序列號 (第一次讀到的大小寫)
+        private final String serialNo;
+        // 與父節點的距離
+        private final int parentDistance;
+        private volatile boolean inRma;
+        private volatile boolean inStock;
+        
+        // 序列號長度有限，子節點數量少；新增時複製整個陣列，查詢中的執行緒看到的陣列不會改變
+        private volatile Node[] children = NO_CHILDREN;
+        
+        private Node(String key, String serialNo, int parentDistance) {
+            this.key = key;
+            this.serialNo = serialNo;
+            this.parentDistance = parentDistance;
+        }
+        
+        private void mark(boolean fromRma) {
+            if (fromRma) {
+                inRma = true;
+            } else {
+                inStock = true;
+            }
+        }
+        
+        private void unmark(boolean fromRma) {
+            if (fromRma) {
+                inRma = false;
+            } else {
+                inStock = false;
+            }
+        }
+        
+        private boolean isLive() {
+            return inRma || inStock;
+        }
+        
+        private Node child(int distance) {
+            for (Node child : children) {
+                if (child.parentDistance == distance) {
+                    return child;
+                }
+            }
+            return null;
+        }
+        
+        private void addChild(Node child) {
+            Node[] current = children;
+            Node[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = child;
+            children = updated;
+        }
+    }
+    
+    private static final Node[] NO_CHILDREN = new Node[0];
+    
+    private static final class Match {
+        private final Node node;
+        private final int distance;
+        
+        private Match(Node node, int distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+    }
+}
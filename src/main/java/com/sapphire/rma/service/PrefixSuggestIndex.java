@@ -0,0 +1,262 @@
+package com.sapphire.rma.service;
+
+import com.sapphire.rma.repository.RmaRepository;
+import com.sapphire.rma.repository.StockRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 序號 / PN / SKU 前綴自動完成索引
+ * 每條產品線、每個欄位保存一份排序後的不重複值陣列 (不分大小寫)，
+ * 以二分搜尋找到前綴的起點後往後取 N 筆，不需查詢資料庫。
+ * 索引在第一次查詢時於背景建立；收到 RecordChangedEvent 後 (交易提交後)：
+ * 帶有序列號的事件只查詢這些序列號目前的值，在背景把新值合併進陣列 (已刪除的序列號一併移除)；
+ * 整條產品線的事件 (例如批次匯入) 才重新讀取整個欄位。
+ * 更新完成前繼續使用舊的陣列；尚未建立時改用資料庫的前綴查詢。
+ * PN / SKU 的值不會因為單筆記錄刪除或修改而移除 (無法得知其他記錄是否仍使用)，
+ * 下次整條產品線重建時才會清除。
+ */
+@Component
+public class PrefixSuggestIndex {
+    
+    // 支援自動完成的欄位
+    private static final List<String> SUGGEST_FIELDS = List.of("Serial_No", "PN", "SKU");
+    
+    public static final int DEFAULT_LIMIT = 10;
+    public static final int MAX_LIMIT = 50;
+    
+    @Autowired
+    private RmaRepository rmaRepository;
+    
+    @Autowired
+    private StockRepository stockRepository;
+    
+    private final Map<String, FieldIndex> indexes = new ConcurrentHashMap<>();
+    
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "prefix-suggest-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    @PreDestroy
+    public void shutdown() {
+        builder.shutdownNow();
+    }
+    
+    /**
+     * 取得前綴的自動完成建議 (依字母順序)
+     * @param field 欄位名稱 (Serial_No、PN 或 SKU，不分大小寫)
+     * @throws IllegalArgumentException 欄位不支援自動完成
+     */
+    public List<String> suggest(RecordType source, String productType, String field, String prefix, int limit) {
+        String column = resolveField(field);
+        int size = Math.max(1, Math.min(limit, MAX_LIMIT));
+        String value = prefix != null ? prefix.trim() : "";
+        
+        FieldIndex index = indexes.computeIfAbsent(key(source, productType, column), k -> new FieldIndex());
+        String[] values = index.values;
+        if (index.stale) {
+            scheduleBuild(source, productType, column, index);
+        }
+        if (values == null) {
+            return source == RecordType.RMA
+                    ? rmaRepository.findValuesByPrefix(productType, column, value, size)
+                    : stockRepository.findValuesByPrefix(productType, column, value, size);
+        }
+        
+        List<String> suggestions = new ArrayList<>(size);
+        for (int i = lowerBound(values, value); i < values.length && suggestions.size() < size; i++) {
+            if (!values[i].regionMatches(true, 0, value, 0, value.length())) {
+                break;
+            }
+            suggestions.add(values[i]);
+        }
+        return suggestions;
+    }
+    
+    /**
+     * 產品線資料已異動 (交易提交後)
+     * 整條產品線異動時重建所有欄位的索引，否則只合併異動序列號的值
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRecordChanged(RecordChangedEvent event) {
+        RecordType source = event.getRecordType();
+        String productType = event.getProductType();
+        Map<String, FieldIndex> lineIndexes = new LinkedHashMap<>();
+        for (String column : SUGGEST_FIELDS) {
+            FieldIndex index = indexes.get(key(source, productType, column));
+            if (index != null) {
+                lineIndexes.put(column, index);
+            }
+        }
+        if (lineIndexes.isEmpty()) {
+            return;
+        }
+        
+        if (event.isWholeProductLine()) {
+            lineIndexes.forEach((column, index) -> {
+                index.stale = true;
+                scheduleBuild(source, productType, column, index);
+            });
+            return;
+        }
+        
+        // 與重建使用同一個執行緒，排在進行中的重建之後，不會被較舊的重建結果覆蓋
+        List<String> serialNos = event.getSerialNos();
+        builder.execute(() -> {
+            try {
+                applyChanges(source, productType, serialNos, lineIndexes);
+            } catch (Exception e) {
+                System.err.println("更新 " + productType + " 自動完成索引失敗，改為重建: " + e.getMessage());
+                lineIndexes.forEach((column, index) -> {
+                    index.stale = true;
+                    scheduleBuild(source, productType, column, index);
+                });
+            }
+        });
+    }
+    
+    /**
+     * 查詢異動序列號目前的值並合併進各欄位的陣列
+     */
+    private void applyChanges(RecordType source, String productType, List<String> serialNos,
+                              Map<String, FieldIndex> lineIndexes) {
+        List<Map<String, Object>> rows = source == RecordType.RMA
+                ? rmaRepository.findValuesBySerialNos(productType, lineIndexes.keySet(), serialNos)
+                : stockRepository.findValuesBySerialNos(productType, lineIndexes.keySet(), serialNos);
+        
+        lineIndexes.forEach((column, index) -> {
+            String[] values = index.values;
+            if (values == null) {
+                // 尚未建立：建立時會讀到最新的資料
+                return;
+            }
+            Set<String> added = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            for (Map<String, Object> row : rows) {
+                Object value = row.get(column);
+                if (value != null) {
+                    added.add(value.toString());
+                }
+            }
+            // 序列號是唯一鍵：查不到的序列號已刪除
+            Set<String> removed = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            if ("Serial_No".equals(column)) {
+                removed.addAll(serialNos);
+                removed.removeAll(added);
+            }
+            index.values = merge(values, added, removed);
+        });
+    }
+    
+    private void scheduleBuild(RecordType source, String productType, String column, FieldIndex index) {
+        synchronized (index) {
+            if (index.building) {
+                return;
+            }
+            index.building = true;
+            index.stale = false;
+        }
+        builder.execute(() -> {
+            try {
+                List<String> loaded = source == RecordType.RMA
+                        ? rmaRepository.findDistinctValues(productType, column)
+                        : stockRepository.findDistinctValues(productType, column);
+                String[] values = loaded.toArray(new String[0]);
+                Arrays.sort(values, String.CASE_INSENSITIVE_ORDER);
+                index.values = values;
+            } catch (Exception e) {
+                System.err.println("建立 " + productType + " " + column + " 自動完成索引失敗: " + e.getMessage());
+            } finally {
+                synchronized (index) {
+                    index.building = false;
+                }
+            }
+            // 建立期間又有異動時再重建一次
+            if (index.stale) {
+                scheduleBuild(source, productType, column, index);
+            }
+        });
+    }
+    
+    private static String resolveField(String field) {
+        for (String column : SUGGEST_FIELDS) {
+            if (column.equalsIgnoreCase(field)) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("不支援自動完成的欄位: " + field + "，可用欄位: " + SUGGEST_FIELDS);
+    }
+    
+    private static String key(RecordType source, String productType, String column) {
+        return source + ":" + productType + ":" + column;
+    }
+    
+    /**
+     * 將新增的值合併進排序後的陣列，並移除 removed 中的值 (產生新陣列，讀取中的舊陣列不受影響)
+     */
+    static String[] merge(String[] values, Set<String> added, Set<String> removed) {
+        List<String> result = new ArrayList<>(values.length + added.size());
+        Iterator<String> additions = added.iterator();
+        String next = additions.hasNext() ? additions.next() : null;
+        for (String value : values) {
+            while (next != null && String.CASE_INSENSITIVE_ORDER.compare(next, value) < 0) {
+                result.add(next);
+                next = additions.hasNext() ? additions.next() : null;
+            }
+            if (next != null && String.CASE_INSENSITIVE_ORDER.compare(next, value) == 0) {
+                // 已存在
+                next = additions.hasNext() ? additions.next() : null;
+            }
+            if (!removed.contains(value)) {
+                result.add(value);
+            }
+        }
+        while (next != null) {
+            result.add(next);
+            next = additions.hasNext() ? additions.next() : null;
+        }
+        return result.toArray(new String[0]);
+    }
+    
+    /**
+     * 第一個不小於 prefix 的位置 (不分大小寫)
+     */
+    private static int lowerBound(String[] values, String prefix) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (String.CASE_INSENSITIVE_ORDER.compare(values[mid], prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * 單一產品線、單一欄位的索引
+     */
+    private static final class FieldIndex {
+        // 建立完成前為 null，之後整個陣列替換
+        private volatile String[] values;
+        private volatile boolean stale = true;
+        private boolean building;
+    }
+}
@@ -2,6 +2,7 @@ package com.sapphire.rma.service;
 
 import com.sapphire.rma.entity.ProductLine;
 import com.sapphire.rma.repository.ProductLineRepository;
+import com.sapphire.rma.repository.ProductTableRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -14,6 +15,9 @@ public class ProductLineService {
     @Autowired
     private ProductLineRepository productLineRepository;
     
+    @Autowired
+    private ProductTableRegistry productTableRegistry;
+    
     /**
      * 取得所有產品線
      */
@@ -46,7 +50,9 @@ public class ProductLineService {
      * 新增產品線
      */
     public ProductLine saveProductLine(ProductLine productLine) {
-        return productLineRepository.save(productLine);
+        ProductLine saved = productLineRepository.save(productLine);
+        productTableRegistry.refresh();
+        return saved;
     }
     
     /**
@@ -54,7 +60,7 @@ public class ProductLineService {
      */
     public ProductLine addProductLine(String productLineName) {
         ProductLine productLine = new ProductLine(productLineName);
-        return productLineRepository.save(productLine);
+        return saveProductLine(productLine);
     }
     
     /**
@@ -77,6 +83,7 @@ public class ProductLineService {
      */
     public void deleteProductLine(Long id) {
         productLineRepository.deleteById(id);
+        productTableRegistry.refresh();
     }
     
     /**
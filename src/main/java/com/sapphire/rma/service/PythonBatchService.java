@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.io.BufferedReader;
@@ -18,6 +19,9 @@ public class PythonBatchService {
     @Autowired
     private ProductLineService productLineService;
     
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
     @Value("${spring.datasource.url}")
     private String databaseUrl;
     
@@ -60,7 +64,13 @@ public class PythonBatchService {
             env.put("PYTHONIOENCODING", "utf-8");
             env.put("PYTHONLEGACYWINDOWSSTDIO", "utf-8");
             
-            return executeProcess(processBuilder, productType);
+            try {
+                return executeProcess(processBuilder, productType);
+            } finally {
+                // 批次匯入直接寫入資料庫，整條產品線的索引與快取都需重建
+                eventPublisher.publishEvent(new RecordChangedEvent(RecordType.RMA, productType));
+                eventPublisher.publishEvent(new RecordChangedEvent(RecordType.STOCK, productType));
+            }
             
         } catch (Exception e) {
             return createErrorResult(productType, "執行批次處理失敗: " + e.getMessage());
@@ -0,0 +1,126 @@
+package com.sapphire.rma.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 產品線資料異動事件
+ * 由 RmaService / StockService / PythonBatchService 在寫入後發佈，
+ * 記憶體索引與查詢快取以 @TransactionalEventListener 在交易提交後處理。
+ * RMA 的單筆與批次異動另外附上異動前後的資料列 (RowChange)，收到事件的一方不必再查詢資料庫。
+ */
+public class RecordChangedEvent {
+    
+    private final RecordType recordType;
+    private final String productType;
+    private final List<String> serialNos;
+    private final List<RowChange> changes;
+    
+    /**
+     * 整條產品線的資料都可能異動 (例如批次匯入)
+     */
+    public RecordChangedEvent(RecordType recordType, String productType) {
+        this(recordType, productType, Collections.emptyList());
+    }
+    
+    public RecordChangedEvent(RecordType recordType, String productType, String serialNo) {
+        this(recordType, productType, Collections.singletonList(serialNo));
+    }
+    
+    public RecordChangedEvent(RecordType recordType, String productType, Collection<String> serialNos) {
+        this(recordType, productType, serialNos, Collections.emptyList());
+    }
+    
+    private RecordChangedEvent(RecordType recordType, String productType, Collection<String> serialNos,
+                               List<RowChange> changes) {
+        this.recordType = recordType;
+        this.productType = productType;
+        this.serialNos = List.copyOf(serialNos);
+        this.changes = List.copyOf(changes);
+    }
+    
+    /**
+     * 附上異動前後資料列的事件，異動的序列號取自 changes
+     */
+    public static RecordChangedEvent withChanges(RecordType recordType, String productType, List<RowChange> changes) {
+        List<String> serialNos = new ArrayList<>(changes.size());
+        for (RowChange change : changes) {
+            serialNos.add(change.getSerialNo());
+        }
+        return new RecordChangedEvent(recordType, productType, serialNos, changes);
+    }
+    
+    public RecordType getRecordType() {
+        return recordType;
+    }
+    
+    public String getProductType() {
+        return productType;
+    }
+    
+    /**
+     * 異動的序列號，為空時表示整條產品線
+     */
+    public List<String> getSerialNos() {
+        return serialNos;
+    }
+    
+    public boolean isWholeProductLine() {
+        return serialNos.isEmpty();
+    }
+    
+    /**
+     * 異動前後的資料列，與 getSerialNos 一一對應；事件沒有附上時為空
+     */
+    public List<RowChange> getChanges() {
+        return changes;
+    }
+    
+    public boolean hasChanges() {
+        return !changes.isEmpty();
+    }
+    
+    @Override
+    public String toString() {
+        return "RecordChangedEvent{" +
+                "recordType=" + recordType +
+                ", productType='" + productType + '\'' +
+                ", serialNos=" + serialNos.size() +
+                ", changes=" + changes.size() +
+                '}';
+    }
+    
+    /**
+     * 單一序列號異動前後的資料列 (在寫入的交易內讀取，只含接收端需要的欄位)
+     */
+    public static final class RowChange {
+        private final String serialNo;
+        private final Map<String, Object> before;
+        private final Map<String, Object> after;
+        
+        /**
+         * @param before 異動前的資料列，新增時為 null
+         * @param after 異動後的資料列，刪除時為 null
+         */
+        public RowChange(String serialNo, Map<String, Object> before, Map<String, Object> after) {
+            this.serialNo = serialNo;
+            this.before = before;
+            this.after = after;
+        }
+        
+        public String getSerialNo() {
+            return serialNo;
+        }
+        
+        public Map<String, Object> getBefore() {
+            return before;
+        }
+        
+        public Map<String, Object> getAfter() {
+            return after;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.sapphire.rma.service;
+
+/**
+ * 資料種類 (每條產品線各有一張 RMA 表與一張庫存表)
+ */
+public enum RecordType {
+    RMA, STOCK
+}
@@ -0,0 +1,499 @@
+package com.sapphire.rma.service;
+
+import com.sapphire.rma.dto.RecordSet;
+import com.sapphire.rma.repository.ProductLineRepository;
+import com.sapphire.rma.repository.RmaRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * RMA 每日統計
+ * 每條產品線在記憶體中保存「日期 (Create_Date) -> (PN, SKU) -> 筆數」的彙總，
+ * 日期範圍的筆數統計只需走訪範圍內的日期，不必查詢並傳回每一筆記錄。
+ * 收到 RMA 的 RecordChangedEvent 後 (交易提交後) 依事件附上的異動前後資料列調整筆數
+ * (不保存每個序列號的資料)；事件沒有附上資料列或批次匯入後整條產品線重新計算。
+ * 其他應用程式實例、直接執行的 app.py 或手動 SQL 的寫入不會產生事件，
+ * 因此每隔 refresh-minutes 在背景重新計算已建立的統計 (計算期間仍使用目前的統計)。
+ * 統計尚未建立完成時改由資料庫 GROUP BY 計算。
+ */
+@Component
+public class RmaDailyRollup {
+    
+    public static final String GROUP_BY_PN = "pn";
+    public static final String GROUP_BY_SKU = "sku";
+    
+    // 建立統計期間資料被異動時的重試次數
+    private static final int MAX_BUILD_ATTEMPTS = 3;
+    
+    @Autowired
+    private RmaRepository rmaRepository;
+    
+    @Autowired
+    private ProductLineRepository productLineRepository;
+    
+    @Value("${rma.daily-rollup.refresh-minutes:60}")
+    private long refreshMinutes;
+    
+    private final Map<String, LineRollup> rollups = new ConcurrentHashMap<>();
+    
+    private final ScheduledExecutorService builder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rma-daily-rollup");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * 啟動完成後於背景建立所有產品線的統計，並排程定期重新計算
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            for (String productType : productLineRepository.findAllProductLineNames()) {
+                scheduleBuild(productType);
+            }
+        } catch (Exception e) {
+            System.err.println("建立 RMA 每日統計失敗: " + e.getMessage());
+        }
+        if (refreshMinutes > 0) {
+            builder.scheduleWithFixedDelay(this::refreshAll, refreshMinutes, refreshMinutes, TimeUnit.MINUTES);
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        builder.shutdownNow();
+    }
+    
+    /**
+     * 統計日期範圍內每日的 RMA 筆數 (依 Create_Date 的日期，包含起訖日)
+     * @param startDate 起始日期，null 表示不限
+     * @param endDate 結束日期，null 表示不限
+     * @param pn 只計算此 PN (不分大小寫)，null 表示全部
+     * @param sku 只計算此 SKU (不分大小寫)，null 表示全部
+     * @param groupBy null 只依日期彙總；pn / sku 同一天再依 PN 或 SKU 分開
+     * @return 依日期排序，每個項目包含 date、count (分組時另有 PN 或 SKU)
+     * @throws IllegalArgumentException groupBy 不支援
+     */
+    public List<Map<String, Object>> countByDay(String productType, LocalDate startDate, LocalDate endDate,
+                                                String pn, String sku, String groupBy) {
+        DailyCounter counter = new DailyCounter(pn, sku, groupBy);
+        
+        Optional<LineRollup> rollup = readyRollup(productType);
+        if (rollup.isPresent()) {
+            rollup.get().collect(startDate, endDate, counter);
+        } else {
+            RecordSet rows = rmaRepository.countByDay(productType, startDate, endDate);
+            int dayPosition = rows.indexOf("Create_Day");
+            int pnPosition = rows.indexOf("PN");
+            int skuPosition = rows.indexOf("SKU");
+            int countPosition = rows.indexOf("Record_Count");
+            for (int r = 0; r < rows.size(); r++) {
+                Object[] row = rows.getRow(r);
+                LocalDate day = toLocalDate(row[dayPosition]);
+                if (day != null) {
+                    counter.add(day, new Group(row[pnPosition], row[skuPosition]),
+                                ((Number) row[countPosition]).longValue());
+                }
+            }
+        }
+        return counter.result();
+    }
+    
+    /**
+     * 產品線的統計是否已建立完成 (否則由資料庫計算)
+     */
+    public boolean isReady(String productType) {
+        return readyRollup(productType).isPresent();
+    }
+    
+    /**
+     * RMA 記錄已異動，交易提交後依異動前後的資料列調整筆數
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRecordChanged(RecordChangedEvent event) {
+        String productType = event.getProductType();
+        LineRollup rollup = rollups.get(productType);
+        if (event.getRecordType() != RecordType.RMA || rollup == null) {
+            return;
+        }
+        if (event.isWholeProductLine() || !event.hasChanges()) {
+            rebuild(productType);
+            return;
+        }
+        for (RecordChangedEvent.RowChange change : event.getChanges()) {
+            rollup.apply(toContribution(change.getBefore()), toContribution(change.getAfter()));
+        }
+    }
+    
+    /**
+     * 重新計算指定產品線的統計
+     */
+    public void rebuild(String productType) {
+        rollups.remove(productType);
+        scheduleBuild(productType);
+    }
+    
+    /**
+     * 重新計算所有已建立的統計 (排程執行，補上沒有產生事件的寫入)
+     * 計算期間與失敗時仍使用目前的統計。
+     */
+    void refreshAll() {
+        for (String productType : new TreeMap<>(rollups).keySet()) {
+            LineRollup rollup = rollups.get(productType);
+            if (rollup != null && rollup.isReady()) {
+                build(productType);
+            }
+        }
+    }
+    
+    /**
+     * 各產品線統計狀態
+     */
+    public List<Map<String, Object>> getStatistics() {
+        List<Map<String, Object>> statistics = new ArrayList<>();
+        for (Map.Entry<String, LineRollup> entry : new TreeMap<>(rollups).entrySet()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("productType", entry.getKey());
+            item.putAll(entry.getValue().statistics());
+            statistics.add(item);
+        }
+        return statistics;
+    }
+    
+    private Optional<LineRollup> readyRollup(String productType) {
+        LineRollup rollup = rollups.get(productType);
+        if (rollup == null) {
+            scheduleBuild(productType);
+            return Optional.empty();
+        }
+        return rollup.isReady() ? Optional.of(rollup) : Optional.empty();
+    }
+    
+    private void scheduleBuild(String productType) {
+        if (productType == null || rollups.putIfAbsent(productType, new LineRollup()) != null) {
+            return;
+        }
+        builder.execute(() -> build(productType));
+    }
+    
+    /**
+     * 讀取整條產品線並取代目前的統計
+     * 讀取期間收到異動事件時重新讀取；仍無法完成時，尚未建立的統計移除 (改由資料庫計算)，
+     * 已建立的統計 (定期重新計算) 保留並已套用期間的異動。
+     */
+    private void build(String productType) {
+        LineRollup rollup = rollups.get(productType);
+        if (rollup == null) {
+            return;
+        }
+        try {
+            for (int attempt = 0; attempt < MAX_BUILD_ATTEMPTS; attempt++) {
+                long version = rollup.version();
+                TreeMap<LocalDate, Map<Group, Long>> days = new TreeMap<>();
+                long[] records = new long[1];
+                rmaRepository.streamRollupSource(productType, rs -> {
+                    if (rs.getString("Serial_No") != null) {
+                        increment(days, new Contribution(toLocalDate(rs.getObject("Create_Date")),
+                                                         new Group(rs.getObject("PN"), rs.getObject("SKU"))), 1);
+                        records[0]++;
+                    }
+                });
+                if (rollup.load(days, records[0], version)) {
+                    return;
+                }
+            }
+            System.err.println("RMA 每日統計建立期間資料持續異動: " + productType);
+        } catch (Exception e) {
+            System.err.println("建立 " + productType + " RMA 每日統計失敗: " + e.getMessage());
+        }
+        if (!rollup.isReady()) {
+            rollups.remove(productType, rollup);
+        }
+    }
+    
+    /**
+     * 事件附上的資料列轉為計入的位置，資料列為 null (新增前 / 刪除後) 時為 null
+     */
+    private static Contribution toContribution(Map<String, Object> row) {
+        if (row == null) {
+            return null;
+        }
+        return new Contribution(toLocalDate(row.get("Create_Date")), new Group(row.get("PN"), row.get("SKU")));
+    }
+    
+    /**
+     * 調整 contribution 所在日期與分組的筆數，歸零的分組與日期移除
+     */
+    private static void increment(TreeMap<LocalDate, Map<Group, Long>> days, Contribution contribution, long delta) {
+        if (contribution.day == null) {
+            return;
+        }
+        Map<Group, Long> groups = days.computeIfAbsent(contribution.day, d -> new HashMap<>());
+        long count = groups.getOrDefault(contribution.group, 0L) + delta;
+        if (count > 0) {
+            groups.put(contribution.group, count);
+        } else {
+            groups.remove(contribution.group);
+            if (groups.isEmpty()) {
+                days.remove(contribution.day);
+            }
+        }
+    }
+    
+    /**
+     * 將 Create_Date 欄位值轉成日期 (日期 / 時間戳記 / 文字)，無法辨識時為 null
+     */
+    private static LocalDate toLocalDate(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof LocalDate) {
+            return (LocalDate) value;
+        }
+        if (value instanceof LocalDateTime) {
+            return ((LocalDateTime) value).toLocalDate();
+        }
+        if (value instanceof java.sql.Date) {
+            return ((java.sql.Date) value).toLocalDate();
+        }
+        if (value instanceof Timestamp) {
+            return ((Timestamp) value).toLocalDateTime().toLocalDate();
+        }
+        if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+        }
+        String text = value.toString().trim();
+        try {
+            return LocalDate.parse(text.length() > 10 ? text.substring(0, 10) : text);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * 統計的分組 (PN, SKU)
+     */
+    private static final class Group {
+        private final String pn;
+        private final String sku;
+        
+        private Group(Object pn, Object sku) {
+            this.pn = pn != null ? pn.toString() : null;
+            this.sku = sku != null ? sku.toString() : null;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Group)) {
+                return false;
+            }
+            Group other = (Group) o;
+            return Objects.equals(pn, other.pn) && Objects.equals(sku, other.sku);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(pn, sku);
+        }
+    }
+    
+    /**
+     * 單一記錄計入的位置，沒有 Create_Date 時 day 為 null (不計入任何一天)
+     */
+    private static final class Contribution {
+        private final LocalDate day;
+        private final Group group;
+        
+        private Contribution(LocalDate day, Group group) {
+            this.day = day;
+            this.group = group;
+        }
+    }
+    
+    /**
+     * 單一產品線的統計
+     */
+    private static final class LineRollup {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        
+        private boolean ready;
+        private TreeMap<LocalDate, Map<Group, Long>> days = new TreeMap<>();
+        private long records;
+        private long version;
+        
+        private boolean isReady() {
+            lock.readLock().lock();
+            try {
+                return ready;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        private long version() {
+            lock.readLock().lock();
+            try {
+                return version;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        /**
+         * 以讀取的完整資料取代目前的統計；讀取期間若有異動 (version 改變) 則放棄，由呼叫端重試
+         */
+        private boolean load(TreeMap<LocalDate, Map<Group, Long>> loaded, long loadedRecords, long expectedVersion) {
+            lock.writeLock().lock();
+            try {
+                if (version != expectedVersion) {
+                    return false;
+                }
+                days = loaded;
+                records = loadedRecords;
+                ready = true;
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        /**
+         * 套用單筆異動：扣除異動前、加上異動後的位置
+         * @param before 異動前，新增時為 null
+         * @param after 異動後，刪除時為 null
+         */
+        private void apply(Contribution before, Contribution after) {
+            lock.writeLock().lock();
+            try {
+                version++;
+                if (!ready) {
+                    return;
+                }
+                if (before != null) {
+                    increment(days, before, -1);
+                    records--;
+                }
+                if (after != null) {
+                    increment(days, after, 1);
+                    records++;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        private void collect(LocalDate startDate, LocalDate endDate, DailyCounter counter) {
+            lock.readLock().lock();
+            try {
+                NavigableMap<LocalDate, Map<Group, Long>> range = days;
+                if (startDate != null) {
+                    range = range.tailMap(startDate, true);
+                }
+                if (endDate != null) {
+                    range = range.headMap(endDate, true);
+                }
+                for (Map.Entry<LocalDate, Map<Group, Long>> day : range.entrySet()) {
+                    for (Map.Entry<Group, Long> group : day.getValue().entrySet()) {
+                        counter.add(day.getKey(), group.getKey(), group.getValue());
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        private Map<String, Object> statistics() {
+            lock.readLock().lock();
+            try {
+                Map<String, Object> statistics = new LinkedHashMap<>();
+                statistics.put("ready", ready);
+                statistics.put("records", records);
+                statistics.put("days", days.size());
+                statistics.put("firstDay", days.isEmpty() ? null : days.firstKey().toString());
+                statistics.put("lastDay", days.isEmpty() ? null : days.lastKey().toString());
+                return statistics;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+    
+    /**
+     * 依日期 (與 PN / SKU) 累加筆數，輸出依日期、分組值排序
+     */
+    private static final class DailyCounter {
+        private final String pn;
+        private final String sku;
+        private final String groupBy;
+        private final TreeMap<LocalDate, TreeMap<String, long[]>> counts = new TreeMap<>();
+        
+        private DailyCounter(String pn, String sku, String groupBy) {
+            if (groupBy != null && !GROUP_BY_PN.equalsIgnoreCase(groupBy) && !GROUP_BY_SKU.equalsIgnoreCase(groupBy)) {
+                throw new IllegalArgumentException("不支援的分組方式: " + groupBy + "，可用: " + GROUP_BY_PN + "、" + GROUP_BY_SKU);
+            }
+            this.pn = blankToNull(pn);
+            this.sku = blankToNull(sku);
+            this.groupBy = groupBy != null ? groupBy.toLowerCase(Locale.ROOT) : null;
+        }
+        
+        private void add(LocalDate day, Group group, long count) {
+            if ((pn != null && !pn.equalsIgnoreCase(group.pn)) || (sku != null && !sku.equalsIgnoreCase(group.sku))) {
+                return;
+            }
+            String groupValue = GROUP_BY_PN.equals(groupBy) ? group.pn : GROUP_BY_SKU.equals(groupBy) ? group.sku : null;
+            // TreeMap 不接受 null 鍵，空值以空字串分組
+            counts.computeIfAbsent(day, d -> new TreeMap<>(String.CASE_INSENSITIVE_ORDER))
+                  .computeIfAbsent(groupValue != null ? groupValue : "", g -> new long[1])[0] += count;
+        }
+        
+        private List<Map<String, Object>> result() {
+            List<Map<String, Object>> result = new ArrayList<>();
+            for (Map.Entry<LocalDate, TreeMap<String, long[]>> day : counts.entrySet()) {
+                for (Map.Entry<String, long[]> group : day.getValue().entrySet()) {
+                    Map<String, Object> item = new LinkedHashMap<>();
+                    item.put("date", day.getKey().toString());
+                    if (groupBy != null) {
+                        item.put(GROUP_BY_PN.equals(groupBy) ? "PN" : "SKU", group.getKey().isEmpty() ? null : group.getKey());
+                    }
+                    item.put("count", group.getValue()[0]);
+                    result.add(item);
+                }
+            }
+            return result;
+        }
+        
+        private static String blankToNull(String value) {
+            return value == null || value.trim().isEmpty() ? null : value.trim();
+        }
+    }
+}
@@ -1,16 +1,37 @@
 package com.sapphire.rma.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sapphire.rma.dto.*;
+import com.sapphire.rma.repository.ConflictPolicy;
 import com.sapphire.rma.repository.RmaRepository;
+import com.sapphire.rma.repository.RmaUpdateResult;
 import com.sapphire.rma.repository.StockRepository;
+import com.sapphire.rma.repository.UpsertOutcome;
+import com.sapphire.rma.repository.UpsertResult;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.ResultSetMetaData;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * RMA 業務邏輯服務
@@ -29,6 +50,32 @@ public class RmaService {
     @Autowired
     private ProductLineService productLineService;
     
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Autowired
+    private SearchResultCache searchResultCache;
+    
+    @Autowired
+    private RmaDailyRollup rmaDailyRollup;
+    
+    @Autowired
+    private FuzzySerialIndex fuzzySerialIndex;
+    
+    @Autowired
+    private StockReservations stockReservations;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    // 批次新增每次 batchUpdate 的筆數
+    @Value("${rma.batch-create.chunk-size:100}")
+    private int batchCreateChunkSize;
+    
+    // 批次新增單次請求的筆數上限
+    @Value("${rma.batch-create.max-records:2000}")
+    private int batchCreateMaxRecords;
+    
     /**
      * 資料查詢頁面 - 搜尋 RMA 記錄
      */
@@ -41,26 +88,17 @@ public class RmaService {
             }
             
             // 準備搜尋參數
-            Map<String, Object> searchParams = new HashMap<>();
-            if (request.getSerialNo() != null) {
-                searchParams.put("serialNo", request.getSerialNo());
-            }
-            if (request.getPn() != null) {
-                searchParams.put("pn", request.getPn());
-            }
-            if (request.getSku() != null) {
-                searchParams.put("sku", request.getSku());
-            }
-            if (request.getStartDate() != null) {
-                searchParams.put("startDate", request.getStartDate());
-            }
-            if (request.getEndDate() != null) {
-                searchParams.put("endDate", request.getEndDate());
+            Map<String, Object> searchParams = buildSearchParams(request);
+            
+            // 分頁查詢
+            if (request.isPaged()) {
+                return searchRmaRecordsPage(request, searchParams);
             }
             
             // 執行搜尋
-            List<Map<String, Object>> records = rmaRepository.findBySearchCriteria(
-                request.getProductType(), searchParams);
+            List<Map<String, Object>> records = searchResultCache.get(
+                RecordType.RMA, request.getProductType(), searchCacheKey(request),
+                () -> rmaRepository.findBySearchCriteria(request.getProductType(), searchParams, request.getFields()));
             
             String message = String.format("找到 %d 筆 %s 產品線的 RMA 記錄", 
                                          records.size(), request.getProductType());
@@ -73,9 +111,120 @@ public class RmaService {
     }
     
     /**
-     * 資料調整頁面 - 載入初始資料（只有庫存）
+     * 資料查詢頁面 - 游標分頁搜尋 RMA 記錄
+     * 多取一筆判斷是否還有下一頁，回傳以最後一筆為基準的 continuationToken
+     */
+    private RmaSearchResponse searchRmaRecordsPage(RmaSearchRequest request, Map<String, Object> searchParams) {
+        int pageSize = request.getPageSize();
+        String token = request.getContinuationToken();
+        RmaSearchCursor after = token != null && !token.trim().isEmpty() ? RmaSearchCursor.decode(token.trim()) : null;
+        
+        List<Map<String, Object>> records = searchResultCache.get(
+            RecordType.RMA, request.getProductType(), searchCacheKey(request),
+            () -> rmaRepository.findPageBySearchCriteria(request.getProductType(), searchParams, pageSize + 1, after, request.getFields()));
+        
+        String nextToken = null;
+        if (records.size() > pageSize) {
+            records = records.subList(0, pageSize);
+            nextToken = RmaSearchCursor.fromRecord(records.get(pageSize - 1)).encode();
+        }
+        
+        String message = String.format("本頁 %d 筆 %s 產品線的 RMA 記錄%s", 
+                                     records.size(), request.getProductType(), nextToken != null ? "，還有下一頁" : "");
+        
+        return RmaSearchResponse.page(message, records, request.getProductType(), nextToken);
+    }
+    
+    /**
+     * 搜尋結果快取的鍵 (去除空白，空字串視為未指定，欄位清單不分大小寫與順序)
+     */
+    private static String searchCacheKey(RmaSearchRequest request) {
+        String key = "serialNo=" + SearchResultCache.criterion(request.getSerialNo()) +
+                     "|pn=" + SearchResultCache.criterion(request.getPn()) +
+                     "|sku=" + SearchResultCache.criterion(request.getSku()) +
+                     "|startDate=" + SearchResultCache.criterion(request.getStartDate()) +
+                     "|endDate=" + SearchResultCache.criterion(request.getEndDate()) +
+                     "|fields=" + SearchResultCache.fields(request.getFields());
+        if (request.isPaged()) {
+            key += "|pageSize=" + request.getPageSize() +
+                   "|after=" + SearchResultCache.criterion(request.getContinuationToken());
+        }
+        return key;
+    }
+    
+    /**
+     * 資料查詢頁面 - 以 NDJSON 格式串流匯出 RMA 記錄
+     * 每讀到一列就直接寫出一行 JSON，不在記憶體中累積結果
+     * @return 匯出筆數
      */
     @Transactional(readOnly = true)
+    public long exportRmaRecords(RmaSearchRequest request, OutputStream outputStream) throws IOException {
+        Map<String, Object> searchParams = buildSearchParams(request);
+        
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+        generator.setRootValueSeparator(null);
+        
+        long[] rowCount = {0};
+        String[][] columnNames = {null};
+        
+        try {
+            rmaRepository.streamBySearchCriteria(request.getProductType(), searchParams, request.getFields(), rs -> {
+                try {
+                    if (columnNames[0] == null) {
+                        ResultSetMetaData metaData = rs.getMetaData();
+                        columnNames[0] = new String[metaData.getColumnCount()];
+                        for (int i = 0; i < columnNames[0].length; i++) {
+                            columnNames[0][i] = JdbcUtils.lookupColumnName(metaData, i + 1);
+                        }
+                    }
+                    
+                    generator.writeStartObject();
+                    for (int i = 0; i < columnNames[0].length; i++) {
+                        generator.writeObjectField(columnNames[0][i], JdbcUtils.getResultSetValue(rs, i + 1));
+                    }
+                    generator.writeEndObject();
+                    generator.writeRaw('\n');
+                    rowCount[0]++;
+                } catch (IOException e) {
+                    // 用戶端中斷連線時停止讀取
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        
+        generator.flush();
+        return rowCount[0];
+    }
+    
+    /**
+     * 將搜尋請求轉換為 Repository 使用的搜尋參數
+     */
+    static Map<String, Object> buildSearchParams(RmaSearchRequest request) {
+        Map<String, Object> searchParams = new HashMap<>();
+        if (request.getSerialNo() != null) {
+            searchParams.put("serialNo", request.getSerialNo());
+        }
+        if (request.getPn() != null) {
+            searchParams.put("pn", request.getPn());
+        }
+        if (request.getSku() != null) {
+            searchParams.put("sku", request.getSku());
+        }
+        if (request.getStartDate() != null) {
+            searchParams.put("startDate", request.getStartDate());
+        }
+        if (request.getEndDate() != null) {
+            searchParams.put("endDate", request.getEndDate());
+        }
+        return searchParams;
+    }
+    
+    /**
+     * 資料調整頁面 - 載入初始資料（只有庫存）
+     * 不使用唯讀交易：資料調整頁面一律讀取主資料庫，不顯示讀取副本尚未同步的庫存
+     */
     public UpdatePageResponse loadUpdatePageData(String productType) {
         try {
             // 驗證產品線
@@ -98,8 +247,9 @@ public class RmaService {
     
     /**
      * 資料調整頁面 - 查詢特定 RMA 記錄和庫存
+     * 不使用唯讀交易：讀取的 Row_Version 用於更新時的衝突檢查，必須來自主資料庫，
+     * 讀取副本的延遲會讓剛儲存的記錄在下次更新時被誤判為衝突。
      */
-    @Transactional(readOnly = true)
     public UpdatePageResponse searchForUpdate(String productType, String serialNo, String pn, String sku) {
         try {
             // 驗證產品線
@@ -129,8 +279,18 @@ public class RmaService {
                 String message = String.format("找到 RMA 記錄，載入 %d 筆庫存", stockRecords.size());
                 return UpdatePageResponse.success(message, productType, rmaRecordOpt.get(), stockRecords);
             } else {
+                // 序列號可能是條碼誤讀，附上編輯距離內的相近序列號
+                List<Map<String, Object>> candidates = serialNo != null && !serialNo.trim().isEmpty()
+                        ? fuzzySerialIndex.search(productType, serialNo, FuzzySerialIndex.DEFAULT_MAX_DISTANCE,
+                                                  FuzzySerialIndex.DEFAULT_LIMIT)
+                        : List.of();
                 String message = String.format("未找到符合條件的 RMA 記錄，載入 %d 筆庫存", stockRecords.size());
-                return UpdatePageResponse.successWithStockOnly(message, productType, stockRecords);
+                if (!candidates.isEmpty()) {
+                    message += String.format("，找到 %d 個相近的序列號", candidates.size());
+                }
+                UpdatePageResponse response = UpdatePageResponse.successWithStockOnly(message, productType, stockRecords);
+                response.setSerialCandidates(candidates);
+                return response;
             }
             
         } catch (Exception e) {
@@ -140,58 +300,172 @@ public class RmaService {
     
     /**
      * 新增 RMA 記錄
+     * @param policy 序列號已存在時的處理方式
      */
-    public RmaOperationResponse createRmaRecord(RmaCreateRequest request) {
+    public RmaOperationResponse createRmaRecord(RmaCreateRequest request, ConflictPolicy policy) {
         try {
             // 驗證產品線
             if (!productLineService.isValidProductLine(request.getProductType())) {
                 return RmaOperationResponse.createError("無效的產品線: " + request.getProductType());
             }
             
-            // 檢查序列號是否已存在
-            if (rmaRepository.existsBySerialNo(request.getProductType(), request.getSerialNo())) {
+            // 準備 RMA 資料
+            Map<String, Object> rmaData = toRmaData(request);
+            
+            // 建立 RMA 記錄 (存在檢查與寫入在同一個陳述式內完成)
+            UpsertOutcome outcome = rmaRepository.upsertRmaRecord(request.getProductType(), rmaData, policy);
+            if (outcome.getResult() == UpsertResult.REJECTED) {
                 return RmaOperationResponse.createError("序列號 " + request.getSerialNo() + " 已存在於 " + request.getProductType() + " 產品線");
             }
+            publishRmaChanged(request.getProductType(), request.getSerialNo(),
+                              outcome.getImages().getBefore(), outcome.getImages().getAfter());
             
-            // 準備 RMA 資料
-            Map<String, Object> rmaData = new HashMap<>();
-            if (request.getRmaNo() != null) rmaData.put("Rma_No", request.getRmaNo());
-            if (request.getCustomerName() != null) rmaData.put("Customer_Name", request.getCustomerName());
-            rmaData.put("Serial_No", request.getSerialNo()); // 必填
-            if (request.getPn() != null) rmaData.put("PN", request.getPn());
-            if (request.getSku() != null) rmaData.put("SKU", request.getSku());
-            if (request.getProductName() != null) rmaData.put("Product_Name", request.getProductName());
-            if (request.getSellShipDate() != null) rmaData.put("Sell_Ship_Date", request.getSellShipDate());
-            if (request.getCreateDate() != null) rmaData.put("Create_Date", request.getCreateDate());
-            if (request.getReturnDate() != null) rmaData.put("Return_Date", request.getReturnDate());
-            if (request.getFailureDesc() != null) rmaData.put("Failure_desc", request.getFailureDesc());
-            if (request.getViDamageStatus() != null) rmaData.put("VI_Damage_Status", request.getViDamageStatus());
-            if (request.getTestResultDesc() != null) rmaData.put("Test_Result_Desc", request.getTestResultDesc());
-            if (request.getReplacementSnInTw() != null) rmaData.put("Replacement_SN_in_TW", request.getReplacementSnInTw());
-            if (request.getReplacementPnInTw() != null) rmaData.put("Replacement_PN_in_TW", request.getReplacementPnInTw());
-            if (request.getReplacementSkuInTw() != null) rmaData.put("Replacement_SKU_in_TW", request.getReplacementSkuInTw());
-            if (request.getReplacementSnFromHk() != null) rmaData.put("Replacement_SN_from_HK", request.getReplacementSnFromHk());
-            if (request.getReplacementPnFromHk() != null) rmaData.put("Replacement_PN_from_HK", request.getReplacementPnFromHk());
-            if (request.getReplacementSkuFromHk() != null) rmaData.put("Replacement_SKU_from_HK", request.getReplacementSkuFromHk());
-            if (request.getRmaBoardTestResult() != null) rmaData.put("RMA_board_Test_Result", request.getRmaBoardTestResult());
-            if (request.getEndUserInvoiceDate() != null) rmaData.put("End_user_invoice_date", request.getEndUserInvoiceDate());
-            if (request.getWarrantyUntil() != null) rmaData.put("Warranty_Until", request.getWarrantyUntil());
-            if (request.getRemark() != null) rmaData.put("Remark", request.getRemark());
-            
-            // 建立 RMA 記錄
-            int result = rmaRepository.insertRmaRecord(request.getProductType(), rmaData);
-            
-            if (result > 0) {
-                return RmaOperationResponse.createSuccess(request.getProductType(), request.getSerialNo());
-            } else {
-                return RmaOperationResponse.createError("新增失敗，資料庫操作無效果");
+            if (outcome.getResult() == UpsertResult.UPDATED) {
+                return RmaOperationResponse.updateSuccess(request.getProductType(), request.getSerialNo());
             }
+            return RmaOperationResponse.createSuccess(request.getProductType(), request.getSerialNo());
             
         } catch (Exception e) {
             return RmaOperationResponse.createError("新增失敗: " + e.getMessage());
         }
     }
     
+    /**
+     * 批次新增 RMA 記錄
+     * 依產品線分組，每條產品線只驗證一次產品線，再由 Repository 依欄位組合分組以 batchUpdate 寫入。
+     * 序列號是否已存在由 INSERT ... WHERE NOT EXISTS 在寫入時檢查 (不先查詢，兩個批次同時新增同一個序列號時不會重複)。
+     * 序列號去除前後空白後寫入；個別記錄失敗不影響其他記錄。
+     */
+    public RmaBatchCreateResponse batchCreateRmaRecords(List<RmaCreateRequest> requests) {
+        try {
+            if (requests == null || requests.isEmpty()) {
+                return RmaBatchCreateResponse.error("未提供要新增的 RMA 記錄");
+            }
+            if (requests.size() > batchCreateMaxRecords) {
+                return RmaBatchCreateResponse.error("單次最多新增 " + batchCreateMaxRecords + " 筆 RMA 記錄");
+            }
+            
+            String[] errors = new String[requests.size()];
+            
+            // 檢查必填欄位與批次內重複的序列號，依產品線分組
+            Map<String, List<Integer>> byProductType = new LinkedHashMap<>();
+            Set<String> seen = new HashSet<>();
+            for (int i = 0; i < requests.size(); i++) {
+                RmaCreateRequest request = requests.get(i);
+                if (request == null) {
+                    errors[i] = "記錄為空";
+                } else if (request.getProductType() == null || request.getProductType().trim().isEmpty()) {
+                    errors[i] = "產品線不能為空";
+                } else if (request.getSerialNo() == null || request.getSerialNo().trim().isEmpty()) {
+                    errors[i] = "序列號不能為空";
+                } else if (!seen.add(request.getProductType() + ":" + request.getSerialNo().trim().toLowerCase())) {
+                    errors[i] = "序列號 " + request.getSerialNo() + " 在批次中重複";
+                } else {
+                    byProductType.computeIfAbsent(request.getProductType(), k -> new ArrayList<>()).add(i);
+                }
+            }
+            
+            for (Map.Entry<String, List<Integer>> group : byProductType.entrySet()) {
+                String productType = group.getKey();
+                List<Integer> indexes = group.getValue();
+                
+                // 驗證產品線
+                if (!productLineService.isValidProductLine(productType)) {
+                    for (int index : indexes) {
+                        errors[index] = "無效的產品線: " + productType;
+                    }
+                    continue;
+                }
+                
+                List<Map<String, Object>> rows = new ArrayList<>(indexes.size());
+                for (int index : indexes) {
+                    Map<String, Object> row = toRmaData(requests.get(index));
+                    row.put("Serial_No", requests.get(index).getSerialNo().trim());
+                    rows.add(row);
+                }
+                
+                String[] insertErrors = rmaRepository.batchInsertRmaRecords(productType, rows, batchCreateChunkSize);
+                List<String> inserted = new ArrayList<>();
+                for (int i = 0; i < indexes.size(); i++) {
+                    int index = indexes.get(i);
+                    if (insertErrors[i] != null) {
+                        errors[index] = insertErrors[i];
+                    } else {
+                        inserted.add((String) rows.get(i).get("Serial_No"));
+                    }
+                }
+                if (!inserted.isEmpty()) {
+                    publishRmaInserted(productType, inserted);
+                }
+            }
+            
+            return RmaBatchCreateResponse.success(requests, errors);
+            
+        } catch (Exception e) {
+            return RmaBatchCreateResponse.error("批次新增失敗: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 發佈單筆 RMA 異動事件，異動前後的每日統計欄位由寫入陳述式的 OUTPUT 取回 (資料庫轉換後的實際值)
+     * @param before 異動前的資料列，原本不存在時為 null
+     * @param after 異動後的資料列，已刪除時為 null
+     */
+    private void publishRmaChanged(String productType, String serialNo, Map<String, Object> before,
+                                   Map<String, Object> after) {
+        eventPublisher.publishEvent(RecordChangedEvent.withChanges(RecordType.RMA, productType,
+            List.of(new RecordChangedEvent.RowChange(serialNo, before, after))));
+    }
+    
+    /**
+     * 發佈批次新增的 RMA 異動事件 (新增前不存在，新增後的資料列以一次查詢讀取)
+     */
+    private void publishRmaInserted(String productType, List<String> serialNos) {
+        Map<String, Map<String, Object>> rows = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map<String, Object> row : rmaRepository.findRollupSourceBySerialNos(productType, serialNos)) {
+            Object serialNo = row.get("Serial_No");
+            if (serialNo != null) {
+                rows.put(serialNo.toString().trim(), row);
+            }
+        }
+        List<RecordChangedEvent.RowChange> changes = new ArrayList<>(serialNos.size());
+        for (String serialNo : serialNos) {
+            changes.add(new RecordChangedEvent.RowChange(serialNo, null, rows.get(serialNo)));
+        }
+        eventPublisher.publishEvent(RecordChangedEvent.withChanges(RecordType.RMA, productType, changes));
+    }
+    
+    /**
+     * 新增請求轉為 RMA 資料表欄位 (依欄位順序，相同欄位組合的記錄可共用 INSERT)
+     * 未填的欄位值為 null：新增時略過，OVERWRITE 覆寫時寫為 NULL
+     */
+    private static Map<String, Object> toRmaData(RmaCreateRequest request) {
+        Map<String, Object> rmaData = new LinkedHashMap<>();
+        rmaData.put("Rma_No", request.getRmaNo());
+        rmaData.put("Customer_Name", request.getCustomerName());
+        rmaData.put("Serial_No", request.getSerialNo()); // 必填
+        rmaData.put("PN", request.getPn());
+        rmaData.put("SKU", request.getSku());
+        rmaData.put("Product_Name", request.getProductName());
+        rmaData.put("Sell_Ship_Date", request.getSellShipDate());
+        rmaData.put("Create_Date", request.getCreateDate());
+        rmaData.put("Return_Date", request.getReturnDate());
+        rmaData.put("Failure_desc", request.getFailureDesc());
+        rmaData.put("VI_Damage_Status", request.getViDamageStatus());
+        rmaData.put("Test_Result_Desc", request.getTestResultDesc());
+        rmaData.put("Replacement_SN_in_TW", request.getReplacementSnInTw());
+        rmaData.put("Replacement_PN_in_TW", request.getReplacementPnInTw());
+        rmaData.put("Replacement_SKU_in_TW", request.getReplacementSkuInTw());
+        rmaData.put("Replacement_SN_from_HK", request.getReplacementSnFromHk());
+        rmaData.put("Replacement_PN_from_HK", request.getReplacementPnFromHk());
+        rmaData.put("Replacement_SKU_from_HK", request.getReplacementSkuFromHk());
+        rmaData.put("RMA_board_Test_Result", request.getRmaBoardTestResult());
+        rmaData.put("End_user_invoice_date", request.getEndUserInvoiceDate());
+        rmaData.put("Warranty_Until", request.getWarrantyUntil());
+        rmaData.put("Remark", request.getRemark());
+        return rmaData;
+    }
+    
     /**
      * 更新 RMA 記錄（可能包含刪除庫存）
      */
@@ -231,24 +505,59 @@ public class RmaService {
             if (request.getWarrantyUntil() != null) updateData.put("Warranty_Until", request.getWarrantyUntil());
             if (request.getRemark() != null) updateData.put("Remark", request.getRemark());
             
-            // 執行更新（包含庫存刪除）
-            boolean result = rmaRepository.updateRmaRecordWithStockDeletion(
-                request.getProductType(),
-                request.getSerialNo(),
-                updateData,
-                request.getStockSerialNoToDelete()
-            );
+            // 要刪除的庫存先取得保留 (沿用頁面選擇庫存時的保留)，已被其他人保留時不進入資料庫交易
+            StockReservations.Lease lease = null;
+            if (request.shouldDeleteStock()) {
+                lease = stockReservations.reserve(request.getProductType(), request.getStockSerialNoToDelete(),
+                                                  request.getReservationToken());
+                if (lease == null) {
+                    return RmaOperationResponse.updateError("庫存 " + request.getStockSerialNoToDelete() + " 已被其他使用者保留，請選擇其他庫存");
+                }
+            }
+            
+            // 執行更新（包含庫存刪除），帶入讀取時的 row version 檢查是否已被他人修改
+            String rowVersion = request.getRowVersion() != null && !request.getRowVersion().trim().isEmpty()
+                    ? request.getRowVersion().trim() : null;
+            RmaUpdateResult result;
+            try {
+                result = rmaRepository.updateRmaRecordWithStockDeletion(
+                    request.getProductType(),
+                    request.getSerialNo(),
+                    updateData,
+                    request.getStockSerialNoToDelete(),
+                    rowVersion
+                );
+            } catch (RuntimeException e) {
+                settleLease(request, lease, false);
+                throw e;
+            }
+            if (result.isConflict()) {
+                settleLease(request, lease, false);
+                return RmaOperationResponse.updateConflict(request.getProductType(), request.getSerialNo(),
+                    "序列號 " + request.getSerialNo() + " 的 RMA 記錄已被其他使用者修改或刪除，請重新查詢後再更新");
+            }
             
-            if (result) {
+            settleLease(request, lease, result.isUpdated());
+            publishRmaChanged(request.getProductType(), request.getSerialNo(),
+                              result.getImages().getBefore(), result.getImages().getAfter());
+            if (request.shouldDeleteStock()) {
+                eventPublisher.publishEvent(new RecordChangedEvent(RecordType.STOCK, request.getProductType(), 
+                                                                   request.getStockSerialNoToDelete()));
+            }
+            
+            if (result.isUpdated()) {
+                RmaOperationResponse response;
                 if (request.shouldDeleteStock()) {
-                    return RmaOperationResponse.updateWithStockDeleteSuccess(
+                    response = RmaOperationResponse.updateWithStockDeleteSuccess(
                         request.getProductType(), 
                         request.getSerialNo(), 
                         request.getStockSerialNoToDelete()
                     );
                 } else {
-                    return RmaOperationResponse.updateSuccess(request.getProductType(), request.getSerialNo());
+                    response = RmaOperationResponse.updateSuccess(request.getProductType(), request.getSerialNo());
                 }
+                response.setRowVersion(result.getRowVersion());
+                return response;
             } else {
                 return RmaOperationResponse.updateError("更新失敗，資料庫操作無效果");
             }
@@ -258,6 +567,45 @@ public class RmaService {
         }
     }
     
+    /**
+     * 交易結束後處理庫存保留
+     * 提交成功且庫存已刪除時消耗保留；否則保留使用者自己的保留，只釋放這次臨時取得的。
+     * 在交易內釋放會讓其他使用者在刪除提交前 (或回滾後) 取得錯誤的保留狀態，因此等到交易完成。
+     * @param stockDeleted 更新成功且庫存已刪除
+     */
+    private void settleLease(RmaUpdateWithStockRequest request, StockReservations.Lease lease, boolean stockDeleted) {
+        if (lease == null) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            finishLease(request, lease, stockDeleted);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                finishLease(request, lease, stockDeleted && status == STATUS_COMMITTED);
+            }
+        });
+    }
+    
+    private void finishLease(RmaUpdateWithStockRequest request, StockReservations.Lease lease, boolean consumed) {
+        if (consumed) {
+            stockReservations.consume(request.getProductType(), request.getStockSerialNoToDelete(), lease.getToken());
+        } else {
+            releaseTemporaryLease(request, lease);
+        }
+    }
+    
+    /**
+     * 請求沒有帶保留 token 時，更新期間臨時取得的保留在失敗後釋放
+     */
+    private void releaseTemporaryLease(RmaUpdateWithStockRequest request, StockReservations.Lease lease) {
+        if (lease != null && (request.getReservationToken() == null || request.getReservationToken().trim().isEmpty())) {
+            stockReservations.release(request.getProductType(), request.getStockSerialNoToDelete(), lease.getToken());
+        }
+    }
+    
     /**
      * 刪除 RMA 記錄
      */
@@ -274,9 +622,10 @@ public class RmaService {
             }
             
             // 執行刪除
-            int result = rmaRepository.deleteBySerialNo(productType, serialNo);
+            Optional<Map<String, Object>> deleted = rmaRepository.deleteBySerialNo(productType, serialNo);
+            publishRmaChanged(productType, serialNo, deleted.orElse(null), null);
             
-            if (result > 0) {
+            if (deleted.isPresent()) {
                 return RmaOperationResponse.deleteSuccess(productType, serialNo);
             } else {
                 return RmaOperationResponse.deleteError("刪除失敗，資料庫操作無效果");
@@ -299,4 +648,61 @@ public class RmaService {
             return false;
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * 批次查詢RMA 序列號是否存在
+     */
+    @Transactional(readOnly = true)
+    public SerialLookupResponse lookupSerialNos(String productType, List<String> serialNos) {
+        try {
+            // 驗證產品線
+            if (!productLineService.isValidProductLine(productType)) {
+                return SerialLookupResponse.error("無效的產品線: " + productType);
+            }
+            
+            if (serialNos == null || serialNos.isEmpty()) {
+                return SerialLookupResponse.error("未提供要查詢的序列號");
+            }
+            
+            List<String> normalized = SerialLookupResponse.normalize(serialNos);
+            if (normalized.size() > SerialLookupResponse.MAX_SERIAL_NOS) {
+                return SerialLookupResponse.error("單次最多查詢 " + SerialLookupResponse.MAX_SERIAL_NOS + " 個序列號");
+            }
+            
+            Set<String> existing = rmaRepository.findExistingSerialNos(productType, normalized);
+            return SerialLookupResponse.success(productType, normalized, existing);
+            
+        } catch (Exception e) {
+            return SerialLookupResponse.error("批次查詢序列號失敗: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 統計日期範圍內每日的 RMA 筆數 (依 Create_Date，包含起訖日)
+     * 由每日統計回答，不需查詢並傳回每一筆記錄
+     */
+    @Transactional(readOnly = true)
+    public RmaDailyCountResponse countByDay(String productType, LocalDate startDate, LocalDate endDate,
+                                            String pn, String sku, String groupBy) {
+        try {
+            // 驗證產品線
+            if (!productLineService.isValidProductLine(productType)) {
+                return RmaDailyCountResponse.error("無效的產品線: " + productType);
+            }
+            
+            if (startDate != null && endDate != null && startDate.isAfter(endDate)) {
+                return RmaDailyCountResponse.error("起始日期不可晚於結束日期");
+            }
+            
+            String source = rmaDailyRollup.isReady(productType)
+                    ? RmaDailyCountResponse.SOURCE_ROLLUP : RmaDailyCountResponse.SOURCE_DATABASE;
+            List<Map<String, Object>> counts = rmaDailyRollup.countByDay(productType, startDate, endDate, pn, sku, groupBy);
+            return RmaDailyCountResponse.success(productType, startDate, endDate, groupBy, source, counts);
+            
+        } catch (IllegalArgumentException e) {
+            return RmaDailyCountResponse.error(e.getMessage());
+        } catch (Exception e) {
+            return RmaDailyCountResponse.error("統計每日 RMA 筆數失敗: " + e.getMessage());
+        }
+    }
+}
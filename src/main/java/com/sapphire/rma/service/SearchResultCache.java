@@ -0,0 +1,195 @@
+package com.sapphire.rma.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.sapphire.rma.dto.RecordSet;
+import com.sapphire.rma.repository.ReadReplicaRoutingDataSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * RMA / 庫存搜尋結果快取
+ * 以「資料種類 + 產品線 + 正規化後的搜尋條件」為鍵，保存 Repository 查詢結果。
+ * 使用 Caffeine (W-TinyLFU)，以儲存格數 (筆數 x 欄位數) 計算容量。
+ * 收到 RecordChangedEvent 後 (交易提交後) 清除該產品線的快取；
+ * 另有存活時間，涵蓋不經過本服務的寫入 (例如直接操作資料庫)。
+ * 啟用讀取副本時，產品線寫入後副本可能尚未同步的期間內查詢結果不存入快取 (仍回傳給呼叫端)。
+ */
+@Component
+public class SearchResultCache {
+    
+    @Value("${rma.search-cache.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${rma.search-cache.max-cells:2000000}")
+    private long maxCells;
+    
+    @Value("${rma.search-cache.ttl-seconds:300}")
+    private long ttlSeconds;
+    
+    // 未啟用讀取副本時為 null
+    @Autowired(required = false)
+    private ReadReplicaRoutingDataSource readReplicaRoutingDataSource;
+    
+    private Cache<CacheKey, List<Map<String, Object>>> cache;
+    
+    // 每條產品線的版本，資料異動時遞增；查詢開始前取得的版本是鍵的一部分，
+    // 異動前開始、異動後才完成的查詢結果不會被之後的查詢取用
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+    
+    // 副本可能尚未同步而未存入快取的查詢次數
+    private final AtomicLong uncachedLoads = new AtomicLong();
+    
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+            .maximumWeight(maxCells)
+            .weigher((CacheKey key, List<Map<String, Object>> records) -> weigh(records))
+            .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+            .recordStats()
+            .build();
+    }
+    
+    /**
+     * 取得快取的查詢結果，沒有時由 loader 查詢並存入快取
+     * @param criteria 正規化後的搜尋條件 (相同條件需產生相同字串)
+     */
+    public List<Map<String, Object>> get(RecordType recordType, String productType, String criteria,
+                                         Supplier<List<Map<String, Object>>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        if (readReplicaRoutingDataSource != null && readReplicaRoutingDataSource.mayServeStale(productType)) {
+            uncachedLoads.incrementAndGet();
+            return loader.get();
+        }
+        long version = version(recordType, productType).get();
+        return cache.get(new CacheKey(recordType, productType, version, criteria), key -> loader.get());
+    }
+    
+    /**
+     * 產品線資料已異動，交易提交後清除該產品線的快取
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRecordChanged(RecordChangedEvent event) {
+        invalidate(event.getRecordType(), event.getProductType());
+    }
+    
+    /**
+     * 清除指定產品線的快取
+     */
+    public void invalidate(RecordType recordType, String productType) {
+        version(recordType, productType).incrementAndGet();
+        cache.asMap().keySet().removeIf(key -> key.recordType == recordType && key.productType.equals(productType));
+    }
+    
+    /**
+     * 快取統計 (命中率、淘汰數等)
+     */
+    public Map<String, Object> getStatistics() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("enabled", enabled);
+        statistics.put("entries", cache.estimatedSize());
+        statistics.put("weightedCells", cache.policy().eviction()
+            .map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L));
+        statistics.put("maxCells", maxCells);
+        statistics.put("ttlSeconds", ttlSeconds);
+        statistics.put("requests", stats.requestCount());
+        statistics.put("hits", stats.hitCount());
+        statistics.put("misses", stats.missCount());
+        statistics.put("hitRate", stats.hitRate());
+        statistics.put("evictions", stats.evictionCount());
+        statistics.put("uncachedLoads", uncachedLoads.get());
+        statistics.put("averageLoadMs", stats.averageLoadPenalty() / 1_000_000.0);
+        return statistics;
+    }
+    
+    /**
+     * 正規化搜尋條件：去除前後空白，空值與空字串視為未指定
+     */
+    static String criterion(Object value) {
+        if (value == null || value.toString().trim().isEmpty()) {
+            return "";
+        }
+        return value.toString().trim();
+    }
+    
+    /**
+     * 正規化欄位清單：不分大小寫與順序，未指定時為 *
+     */
+    static String fields(List<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return "*";
+        }
+        return fields.stream()
+            .map(field -> field == null ? "" : field.trim().toLowerCase())
+            .distinct()
+            .sorted()
+            .collect(Collectors.joining(","));
+    }
+    
+    private AtomicLong version(RecordType recordType, String productType) {
+        return versions.computeIfAbsent(recordType + ":" + productType, k -> new AtomicLong());
+    }
+    
+    /**
+     * 以儲存格數估算結果大小
+     */
+    private static int weigh(List<Map<String, Object>> records) {
+        if (records.isEmpty()) {
+            return 1;
+        }
+        int columns = records instanceof RecordSet 
+                ? ((RecordSet) records).getColumnCount() 
+                : records.get(0).size();
+        long cells = (long) records.size() * Math.max(1, columns);
+        return (int) Math.min(Integer.MAX_VALUE, cells);
+    }
+    
+    private static final class CacheKey {
+        private final RecordType recordType;
+        private final String productType;
+        private final long version;
+        private final String criteria;
+        private final int hash;
+        
+        private CacheKey(RecordType recordType, String productType, long version, String criteria) {
+            this.recordType = recordType;
+            this.productType = productType;
+            this.version = version;
+            this.criteria = criteria;
+            this.hash = Objects.hash(recordType, productType, version, criteria);
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+            CacheKey other = (CacheKey) o;
+            return version == other.version &&
+                   recordType == other.recordType &&
+                   productType.equals(other.productType) &&
+                   criteria.equals(other.criteria);
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.sapphire.rma.service;
+
+import com.sapphire.rma.dto.RecordSet;
+import com.sapphire.rma.repository.ProductLineRepository;
+import com.sapphire.rma.repository.StockRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 庫存關鍵字索引 (trigram 反向索引)
+ * 每條產品線在記憶體中保存一份庫存資料，並對 Serial_No、PN、SKU、Prodcut_name
+ * 建立三字元 (trigram) 反向索引，取代每次按鍵都對資料表做 LIKE '%kw%' 全表掃描。
+ * 啟動後於背景建立；收到庫存的 RecordChangedEvent 後 (交易提交後) 重新讀取異動的資料。
+ * 索引尚未建立完成時回傳 empty，由呼叫端改用資料庫查詢。
+ */
+@Component
+public class StockKeywordIndex {
+    
+    private static final int GRAM_SIZE = 3;
+    private static final String[] KEYWORD_COLUMNS = {"Serial_No", "PN", "SKU", "Prodcut_name"};
+    
+    // 建立索引期間資料被異動時的重試次數
+    private static final int MAX_BUILD_ATTEMPTS = 3;
+    
+    @Autowired
+    private StockRepository stockRepository;
+    
+    @Autowired
+    private ProductLineRepository productLineRepository;
+    
+    private final Map<String, LineIndex> indexes = new ConcurrentHashMap<>();
+    
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stock-keyword-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    /**
+     * 啟動完成後於背景建立所有產品線的索引
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            for (String productType : productLineRepository.findAllProductLineNames()) {
+                scheduleBuild(productType);
+            }
+        } catch (Exception e) {
+            System.err.println("建立庫存關鍵字索引失敗: " + e.getMessage());
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        builder.shutdownNow();
+    }
+    
+    /**
+     * 以關鍵字查詢庫存 (不分大小寫的部分比對，依 Serial_No 排序)
+     * @return 索引尚未就緒或關鍵字含有 LIKE 萬用字元時回傳 empty
+     */
+    public Optional<RecordSet> search(String productType, String keyword) {
+        LineIndex index = indexes.get(productType);
+        if (index == null) {
+            scheduleBuild(productType);
+            return Optional.empty();
+        }
+        if (!index.isReady() || keyword == null || hasLikeWildcard(keyword)) {
+            return Optional.empty();
+        }
+        return Optional.of(index.search(keyword.toLowerCase(Locale.ROOT)));
+    }
+    
+    /**
+     * 庫存記錄已異動 (新增、更新或刪除)，交易提交後由資料庫重新讀取異動的資料
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onRecordChanged(RecordChangedEvent event) {
+        String productType = event.getProductType();
+        if (event.getRecordType() != RecordType.STOCK || !indexes.containsKey(productType)) {
+            return;
+        }
+        if (event.isWholeProductLine()) {
+            rebuild(productType);
+            return;
+        }
+        for (String serialNo : event.getSerialNos()) {
+            reloadRecord(productType, serialNo);
+        }
+    }
+    
+    /**
+     * 重新建立指定產品線的索引
+     */
+    public void rebuild(String productType) {
+        indexes.remove(productType);
+        scheduleBuild(productType);
+    }
+    
+    /**
+     * 各產品線索引狀態
+     */
+    public List<Map<String, Object>> getStatistics() {
+        List<Map<String, Object>> statistics = new ArrayList<>();
+        for (Map.Entry<String, LineIndex> entry : new TreeMap<>(indexes).entrySet()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("productType", entry.getKey());
+            item.putAll(entry.getValue().statistics());
+            statistics.add(item);
+        }
+        return statistics;
+    }
+    
+    private void scheduleBuild(String productType) {
+        if (productType == null || indexes.putIfAbsent(productType, new LineIndex()) != null) {
+            return;
+        }
+        builder.execute(() -> build(productType));
+    }
+    
+    private void build(String productType) {
+        LineIndex index = indexes.get(productType);
+        if (index == null) {
+            return;
+        }
+        try {
+            for (int attempt = 0; attempt < MAX_BUILD_ATTEMPTS; attempt++) {
+                long version = index.version();
+                RecordSet records = stockRepository.findAllByProductType(productType);
+                if (index.load(records, version)) {
+                    return;
+                }
+            }
+            System.err.println("庫存關鍵字索引建立期間資料持續異動，暫不使用索引: " + productType);
+        } catch (Exception e) {
+            System.err.println("建立 " + productType + " 庫存關鍵字索引失敗: " + e.getMessage());
+        }
+        indexes.remove(productType, index);
+    }
+    
+    private void reloadRecord(String productType, String serialNo) {
+        LineIndex index = indexes.get(productType);
+        if (index == null) {
+            return;
+        }
+        try {
+            Optional<Map<String, Object>> record = stockRepository.findBySerialNo(productType, serialNo);
+            index.apply(serialNo, record.orElse(null));
+        } catch (Exception e) {
+            // 無法確認最新資料時放棄索引，改用資料庫查詢
+            System.err.println("更新庫存關鍵字索引失敗，重新建立: " + e.getMessage());
+            rebuild(productType);
+        }
+    }
+    
+    private static boolean hasLikeWildcard(String keyword) {
+        return keyword.indexOf('%') >= 0 || keyword.indexOf('_') >= 0 || keyword.indexOf('[') >= 0;
+    }
+    
+    /**
+     * 單一產品線的索引
+     */
+    private static final class LineIndex {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        
+        // 建立完成前為 null
+        private String[] columnNames;
+        private int[] keywordPositions;
+        private final TreeMap<String, Object[]> rows = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        private final Map<String, String[]> keywordText = new HashMap<>();
+        private final Map<String, Set<String>> postings = new HashMap<>();
+        private long version;
+        
+        private boolean isReady() {
+            lock.readLock().lock();
+            try {
+                return columnNames != null;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        private long version() {
+            lock.readLock().lock();
+            try {
+                return version;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        /**
+         * 載入完整資料；讀取期間若有異動 (version 改變) 則放棄，由呼叫端重試
+         */
+        private boolean load(RecordSet records, long expectedVersion) {
+            lock.writeLock().lock();
+            try {
+                if (version != expectedVersion) {
+                    return false;
+                }
+                columnNames = records.getColumnNames();
+                keywordPositions = new int[KEYWORD_COLUMNS.length];
+                for (int i = 0; i < KEYWORD_COLUMNS.length; i++) {
+                    keywordPositions[i] = records.indexOf(KEYWORD_COLUMNS[i]);
+                }
+                rows.clear();
+                keywordText.clear();
+                postings.clear();
+                for (int r = 0; r < records.size(); r++) {
+                    put(records.getRow(r));
+                }
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        /**
+         * 套用單筆異動，record 為 null 表示已刪除
+         */
+        private void apply(String serialNo, Map<String, Object> record) {
+            lock.writeLock().lock();
+            try {
+                version++;
+                if (columnNames == null) {
+                    return;
+                }
+                remove(serialNo);
+                if (record != null) {
+                    Object[] values = new Object[columnNames.length];
+                    for (int i = 0; i < columnNames.length; i++) {
+                        values[i] = record.get(columnNames[i]);
+                    }
+                    put(values);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        private RecordSet search(String keyword) {
+            lock.readLock().lock();
+            try {
+                RecordSet result = new RecordSet(columnNames);
+                
+                // 三字元以上取各 trigram 的交集，較短的關鍵字直接比對全部資料
+                Iterable<String> candidates = rows.keySet();
+                if (keyword.length() >= GRAM_SIZE) {
+                    Set<String> matched = intersectPostings(keyword);
+                    if (matched.isEmpty()) {
+                        return result;
+                    }
+                    List<String> sorted = new ArrayList<>(matched);
+                    sorted.sort(String.CASE_INSENSITIVE_ORDER);
+                    candidates = sorted;
+                }
+                
+                for (String serialNo : candidates) {
+                    for (String text : keywordText.get(serialNo)) {
+                        if (text != null && text.contains(keyword)) {
+                            result.addRow(rows.get(serialNo));
+                            break;
+                        }
+                    }
+                }
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        private Set<String> intersectPostings(String keyword) {
+            List<Set<String>> lists = new ArrayList<>();
+            for (int i = 0; i + GRAM_SIZE <= keyword.length(); i++) {
+                Set<String> posting = postings.get(keyword.substring(i, i + GRAM_SIZE));
+                if (posting == null) {
+                    return Collections.emptySet();
+                }
+                lists.add(posting);
+            }
+            lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+            
+            Set<String> matched = new HashSet<>(lists.get(0));
+            for (int i = 1; i < lists.size() && !matched.isEmpty(); i++) {
+                matched.retainAll(lists.get(i));
+            }
+            return matched;
+        }
+        
+        private void put(Object[] values) {
+            int serialPosition = keywordPositions[0];
+            if (serialPosition < 0 || values[serialPosition] == null) {
+                return;
+            }
+            String serialNo = values[serialPosition].toString();
+            
+            String[] texts = new String[keywordPositions.length];
+            for (int i = 0; i < keywordPositions.length; i++) {
+                Object value = keywordPositions[i] >= 0 ? values[keywordPositions[i]] : null;
+                if (value != null) {
+                    texts[i] = value.toString().toLowerCase(Locale.ROOT);
+                    for (String gram : grams(texts[i])) {
+                        postings.computeIfAbsent(gram, g -> new HashSet<>()).add(serialNo);
+                    }
+                }
+            }
+            rows.put(serialNo, values);
+            keywordText.put(serialNo, texts);
+        }
+        
+        private void remove(String serialNo) {
+            Map.Entry<String, Object[]> existing = rows.ceilingEntry(serialNo);
+            if (existing == null || !existing.getKey().equalsIgnoreCase(serialNo)) {
+                return;
+            }
+            String key = existing.getKey();
+            for (String text : keywordText.remove(key)) {
+                if (text == null) {
+                    continue;
+                }
+                for (String gram : grams(text)) {
+                    Set<String> posting = postings.get(gram);
+                    if (posting != null) {
+                        posting.remove(key);
+                        if (posting.isEmpty()) {
+                            postings.remove(gram);
+                        }
+                    }
+                }
+            }
+            rows.remove(key);
+        }
+        
+        private static Set<String> grams(String text) {
+            Set<String> grams = new HashSet<>();
+            for (int i = 0; i + GRAM_SIZE <= text.length(); i++) {
+                grams.add(text.substring(i, i + GRAM_SIZE));
+            }
+            return grams;
+        }
+        
+        private Map<String, Object> statistics() {
+            lock.readLock().lock();
+            try {
+                Map<String, Object> statistics = new LinkedHashMap<>();
+                statistics.put("ready", columnNames != null);
+                statistics.put("records", rows.size());
+                statistics.put("trigrams", postings.size());
+                return statistics;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
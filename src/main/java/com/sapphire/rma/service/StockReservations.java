@@ -0,0 +1,162 @@
+package com.sapphire.rma.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 替換用庫存的保留表 (記憶體內，每條產品線一個 ConcurrentHashMap)
+ * 資料調整頁面選擇要替換的庫存時先保留，保留期間 (TTL) 其他使用者無法選用同一個庫存，
+ * 更新 RMA 並刪除庫存時消耗保留；兩個更新搶同一個庫存時在記憶體內以 compute 決定，
+ * 不需等到其中一個資料庫交易刪除庫存失敗。
+ * 保留只存在於單一應用程式實例，資料庫的刪除結果仍是最後的依據。
+ * 序列號不分大小寫並忽略尾端空白 (與 SQL Server 預設定序相同)，
+ * 大小寫不同的同一個庫存不會被保留兩次。
+ */
+@Component
+public class StockReservations {
+    
+    @Value("${rma.stock-reservation.ttl-seconds:120}")
+    private long ttlSeconds;
+    
+    private final Map<String, ConcurrentHashMap<String, Lease>> reservations = new ConcurrentHashMap<>();
+    
+    private final AtomicLong granted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    
+    /**
+     * 保留庫存 (或延長自己的保留)
+     * 庫存沒有保留、保留已過期或 token 與目前的保留相同時取得新的保留 (重新計算到期時間)。
+     * @param token 先前取得的保留 token，為空時產生新的 token
+     * @return 取得的保留；已被其他人保留時為 null
+     */
+    public Lease reserve(String productType, String serialNo, String token) {
+        String requested = token != null && !token.trim().isEmpty() ? token.trim() : UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        Lease lease = new Lease(requested, now + ttlSeconds * 1000);
+        
+        ConcurrentHashMap<String, Lease> leases = leases(productType);
+        purgeExpired(leases, now);
+        Lease result = leases.compute(key(serialNo), (k, current) ->
+            current == null || current.isExpired(now) || current.token.equals(requested) ? lease : current);
+        
+        if (result == lease) {
+            granted.incrementAndGet();
+            return lease;
+        }
+        rejected.incrementAndGet();
+        return null;
+    }
+    
+    /**
+     * 釋放保留 (token 需與目前的保留相同)
+     * @return 是否釋放了保留
+     */
+    public boolean release(String productType, String serialNo, String token) {
+        if (token == null) {
+            return false;
+        }
+        boolean[] released = new boolean[1];
+        leases(productType).computeIfPresent(key(serialNo), (k, current) -> {
+            if (current.token.equals(token)) {
+                released[0] = true;
+                return null;
+            }
+            return current;
+        });
+        return released[0];
+    }
+    
+    /**
+     * 庫存已用於替換並刪除：移除保留
+     */
+    public void consume(String productType, String serialNo, String token) {
+        if (release(productType, serialNo, token)) {
+            consumed.incrementAndGet();
+        }
+    }
+    
+    /**
+     * 各產品線目前有效的保留數量與累計次數
+     */
+    public Map<String, Object> getStatistics() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> productLines = new ArrayList<>();
+        reservations.forEach((productType, leases) -> {
+            purgeExpired(leases, now);
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("productType", productType);
+            item.put("activeCount", leases.size());
+            productLines.add(item);
+        });
+        
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("ttlSeconds", ttlSeconds);
+        statistics.put("granted", granted.get());
+        statistics.put("rejected", rejected.get());
+        statistics.put("consumed", consumed.get());
+        statistics.put("productLines", productLines);
+        return statistics;
+    }
+    
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+    
+    private ConcurrentHashMap<String, Lease> leases(String productType) {
+        return reservations.computeIfAbsent(productType, k -> new ConcurrentHashMap<>());
+    }
+    
+    // 過期的保留在下次保留或查詢統計時清除，不需另外的排程執行緒
+    private static void purgeExpired(ConcurrentHashMap<String, Lease> leases, long now) {
+        leases.values().removeIf(lease -> lease.isExpired(now));
+    }
+    
+    private static String key(String serialNo) {
+        if (serialNo == null) {
+            return "";
+        }
+        int end = serialNo.length();
+        while (end > 0 && serialNo.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return serialNo.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * 庫存保留
+     */
+    public static final class Lease {
+        private final String token;
+        private final long expiresAt;
+        
+        private Lease(String token, long expiresAt) {
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+        
+        public String getToken() {
+            return token;
+        }
+        
+        /**
+         * 到期時間 (epoch 毫秒)
+         */
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+        
+        private boolean isExpired(long now) {
+            return expiresAt <= now;
+        }
+    }
+}
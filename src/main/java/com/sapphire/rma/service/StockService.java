@@ -1,15 +1,25 @@
 package com.sapphire.rma.service;
 
 import com.sapphire.rma.dto.*;
+import com.sapphire.rma.repository.ConflictPolicy;
 import com.sapphire.rma.repository.StockRepository;
+import com.sapphire.rma.repository.UpsertResult;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * 庫存業務邏輯服務
@@ -25,6 +35,23 @@ public class StockService {
     @Autowired
     private ProductLineService productLineService;
     
+    @Autowired
+    private StockKeywordIndex stockKeywordIndex;
+    
+    @Autowired
+    private SearchResultCache searchResultCache;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    // 批次刪除每個交易處理的序列號數量
+    @Value("${rma.batch-delete.chunk-size:1000}")
+    private int batchDeleteChunkSize;
+    
+    // 批次刪除每段使用獨立交易
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
     /**
      * 取得所有庫存記錄（按產品線）
      */
@@ -74,8 +101,9 @@ public class StockService {
                 searchParams.put("productName", request.getProductName());
             }
             
-            List<Map<String, Object>> stockRecords = stockRepository.findBySearchCriteria(
-                request.getProductType(), searchParams);
+            List<Map<String, Object>> stockRecords = searchResultCache.get(
+                RecordType.STOCK, request.getProductType(), searchCacheKey(request),
+                () -> stockRepository.findBySearchCriteria(request.getProductType(), searchParams, request.getFields()));
             
             String message = String.format("找到 %d 筆符合條件的 %s 產品線庫存記錄", 
                                          stockRecords.size(), request.getProductType());
@@ -87,6 +115,17 @@ public class StockService {
         }
     }
     
+    /**
+     * 搜尋結果快取的鍵 (去除空白，空字串視為未指定，欄位清單不分大小寫與順序)
+     */
+    private static String searchCacheKey(StockSearchRequest request) {
+        return "serialNo=" + SearchResultCache.criterion(request.getSerialNo()) +
+               "|pn=" + SearchResultCache.criterion(request.getPn()) +
+               "|sku=" + SearchResultCache.criterion(request.getSku()) +
+               "|productName=" + SearchResultCache.criterion(request.getProductName()) +
+               "|fields=" + SearchResultCache.fields(request.getFields());
+    }
+    
     /**
      * 根據序列號取得庫存記錄詳細資料
      */
@@ -113,34 +152,33 @@ public class StockService {
     
     /**
      * 新增庫存記錄
+     * @param policy 序列號已存在時的處理方式
      */
-    public StockOperationResponse createStockRecord(StockCreateRequest request) {
+    public StockOperationResponse createStockRecord(StockCreateRequest request, ConflictPolicy policy) {
         try {
             // 驗證產品線
             if (!productLineService.isValidProductLine(request.getProductType())) {
                 return StockOperationResponse.createError("無效的產品線: " + request.getProductType());
             }
             
-            // 檢查序列號是否已存在
-            if (stockRepository.existsBySerialNo(request.getProductType(), request.getSerialNo())) {
-                return StockOperationResponse.createError("序列號 " + request.getSerialNo() + " 已存在於 " + request.getProductType() + " 產品線庫存");
-            }
-            
-            // 準備庫存資料 Map
+            // 準備庫存資料 Map (未填欄位為 null：新增時略過，OVERWRITE 覆寫時寫為 NULL)
             Map<String, Object> stockData = new HashMap<>();
             stockData.put("Serial_No", request.getSerialNo()); // 必填
-            if (request.getProductName() != null) stockData.put("Prodcut_name", request.getProductName()); // 注意拼字
-            if (request.getPn() != null) stockData.put("PN", request.getPn());
-            if (request.getSku() != null) stockData.put("SKU", request.getSku());
+            stockData.put("Prodcut_name", request.getProductName()); // 注意拼字
+            stockData.put("PN", request.getPn());
+            stockData.put("SKU", request.getSku());
             
-            // 新增庫存記錄 (使用你的 Repository 方法)
-            int result = stockRepository.insertStockRecord(request.getProductType(), stockData);
+            // 新增庫存記錄 (存在檢查與寫入在同一個陳述式內完成)
+            UpsertResult result = stockRepository.upsertStockRecord(request.getProductType(), stockData, policy);
+            if (result == UpsertResult.REJECTED) {
+                return StockOperationResponse.createError("序列號 " + request.getSerialNo() + " 已存在於 " + request.getProductType() + " 產品線庫存");
+            }
+            eventPublisher.publishEvent(new RecordChangedEvent(RecordType.STOCK, request.getProductType(), request.getSerialNo()));
             
-            if (result > 0) {
-                return StockOperationResponse.createSuccess(request.getProductType(), request.getSerialNo());
-            } else {
-                return StockOperationResponse.createError("新增失敗，資料庫操作無效果");
+            if (result == UpsertResult.UPDATED) {
+                return StockOperationResponse.updateSuccess(request.getProductType(), request.getSerialNo());
             }
+            return StockOperationResponse.createSuccess(request.getProductType(), request.getSerialNo());
             
         } catch (Exception e) {
             return StockOperationResponse.createError("新增庫存失敗: " + e.getMessage());
@@ -170,6 +208,7 @@ public class StockService {
             
             // 更新庫存記錄
             int result = stockRepository.updateStockRecord(request.getProductType(), request.getSerialNo(), updateData);
+            eventPublisher.publishEvent(new RecordChangedEvent(RecordType.STOCK, request.getProductType(), request.getSerialNo()));
             
             if (result > 0) {
                 return StockOperationResponse.updateSuccess(request.getProductType(), request.getSerialNo());
@@ -199,6 +238,7 @@ public class StockService {
             
             // 執行刪除
             int result = stockRepository.deleteBySerialNo(productType, serialNo);
+            eventPublisher.publishEvent(new RecordChangedEvent(RecordType.STOCK, productType, serialNo));
             
             if (result > 0) {
                 return StockOperationResponse.deleteSuccess(productType, serialNo);
@@ -224,6 +264,34 @@ public class StockService {
         }
     }
     
+    /**
+     * 批次查詢庫存序列號是否存在
+     */
+    @Transactional(readOnly = true)
+    public SerialLookupResponse lookupSerialNos(String productType, List<String> serialNos) {
+        try {
+            // 驗證產品線
+            if (!productLineService.isValidProductLine(productType)) {
+                return SerialLookupResponse.error("無效的產品線: " + productType);
+            }
+            
+            if (serialNos == null || serialNos.isEmpty()) {
+                return SerialLookupResponse.error("未提供要查詢的序列號");
+            }
+            
+            List<String> normalized = SerialLookupResponse.normalize(serialNos);
+            if (normalized.size() > SerialLookupResponse.MAX_SERIAL_NOS) {
+                return SerialLookupResponse.error("單次最多查詢 " + SerialLookupResponse.MAX_SERIAL_NOS + " 個序列號");
+            }
+            
+            Set<String> existing = stockRepository.findExistingSerialNos(productType, normalized);
+            return SerialLookupResponse.success(productType, normalized, existing);
+            
+        } catch (Exception e) {
+            return SerialLookupResponse.error("批次查詢序列號失敗: " + e.getMessage());
+        }
+    }
+    
     /**
      * 取得庫存統計
      */
@@ -254,7 +322,11 @@ public class StockService {
     
     /**
      * 批次刪除庫存記錄
+     * 以集合刪除 (DELETE ... OUTPUT DELETED.Serial_No WHERE Serial_No IN (...)) 取代逐筆檢查與刪除，
+     * 每 rma.batch-delete.chunk-size 個序列號一個交易，避免大量刪除長時間鎖住資料表；
+     * 已提交的分段不會因後續分段失敗而還原，結果中逐一回報每個序列號是否刪除。
      */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public BatchOperationResponse batchDeleteStockRecords(String productType, List<String> serialNos) {
         try {
             // 驗證產品線
@@ -266,25 +338,65 @@ public class StockService {
                 return BatchOperationResponse.error("未提供要刪除的序列號");
             }
             
-            int successCount = 0;
-            int failCount = 0;
-            
-            for (String serialNo : serialNos) {
-                try {
-                    if (stockRepository.existsBySerialNo(productType, serialNo)) {
-                        int result = stockRepository.deleteBySerialNo(productType, serialNo);
-                        if (result > 0) {
-                            successCount++;
-                        } else {
-                            failCount++;
+            long startTime = System.nanoTime();
+            List<String> unique = SerialLookupResponse.normalize(serialNos);
+            Set<String> deleted = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            Map<String, String> failures = new LinkedHashMap<>();
+            int chunkCount = 0;
+            
+            try {
+                int size = Math.max(1, batchDeleteChunkSize);
+                for (int from = 0; from < unique.size(); from += size) {
+                    List<String> chunk = unique.subList(from, Math.min(unique.size(), from + size));
+                    chunkCount++;
+                    try {
+                        Set<String> removed = transactionTemplate.execute(
+                            status -> stockRepository.deleteBySerialNos(productType, chunk));
+                        if (removed != null) {
+                            deleted.addAll(removed);
+                        }
+                    } catch (Exception e) {
+                        // 這一段已還原，其餘分段繼續處理
+                        for (String serialNo : chunk) {
+                            failures.put(serialNo, "刪除失敗: " + e.getMessage());
                         }
-                    } else {
-                        failCount++;
                     }
-                } catch (Exception e) {
-                    failCount++;
                 }
+            } finally {
+                if (!deleted.isEmpty()) {
+                    eventPublisher.publishEvent(new RecordChangedEvent(RecordType.STOCK, productType, 
+                                                                       new ArrayList<>(deleted)));
+                }
+            }
+            
+            // 依請求順序整理每個序列號的結果
+            List<Map<String, Object>> results = new ArrayList<>(serialNos.size());
+            Set<String> reported = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            int successCount = 0;
+            for (String serialNo : serialNos) {
+                String trimmed = serialNo != null ? serialNo.trim() : "";
+                String reason = null;
+                if (trimmed.isEmpty()) {
+                    reason = "序列號為空";
+                } else if (!reported.add(trimmed)) {
+                    reason = "重複的序列號";
+                } else if (failures.containsKey(trimmed)) {
+                    reason = failures.get(trimmed);
+                } else if (!deleted.contains(trimmed)) {
+                    reason = "庫存中沒有此序列號";
+                }
+                
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("serialNo", serialNo);
+                item.put("success", reason == null);
+                if (reason != null) {
+                    item.put("message", reason);
+                } else {
+                    successCount++;
+                }
+                results.add(item);
             }
+            int failCount = serialNos.size() - successCount;
             
             String message = String.format("批次刪除完成：成功 %d 筆，失敗 %d 筆", successCount, failCount);
             
@@ -293,6 +405,9 @@ public class StockService {
             result.put("successCount", successCount);
             result.put("failCount", failCount);
             result.put("productType", productType);
+            result.put("chunkCount", chunkCount);
+            result.put("elapsedMs", (System.nanoTime() - startTime) / 1_000_000);
+            result.put("results", results);
             
             return BatchOperationResponse.success(message, result);
             
@@ -316,7 +431,9 @@ public class StockService {
                 return StockSearchResponse.error("搜尋關鍵字不能為空");
             }
             
-            List<Map<String, Object>> stockRecords = stockRepository.findByKeyword(productType, keyword.trim());
+            // 優先使用記憶體索引，索引尚未就緒時查詢資料庫
+            List<Map<String, Object>> stockRecords = stockKeywordIndex.search(productType, keyword.trim())
+                .orElseGet(() -> stockRepository.findByKeyword(productType, keyword.trim()));
             
             String message = String.format("關鍵字 '%s' 找到 %d 筆 %s 產品線的庫存記錄", 
                                          keyword, stockRecords.size(), productType);
@@ -0,0 +1,215 @@
+package com.sapphire.rma.service;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 邊查詢邊寫出的單一工作表 xlsx
+ * 固定內容的組件 (內容類型、關聯、活頁簿、樣式) 先寫出並 flush，回應標頭與檔案開頭立即送出；
+ * 工作表的資料列直接寫入 zip 項目，字串使用 inline string (不需要最後才能寫出的 shared strings)，
+ * 不需等查詢結束，也不需要暫存檔。
+ */
+final class StreamingXlsxWriter {
+    
+    // 每寫出這麼多列 flush 一次，讓已壓縮的資料送到用戶端
+    private static final int FLUSH_ROWS = 1000;
+    
+    // Excel 儲存格的字串長度上限，超過時 Excel 無法開啟檔案
+    private static final int MAX_CELL_LENGTH = 32767;
+    
+    // styles.xml 中日期格式 (yyyy-mm-dd) 的索引
+    private static final int DATE_STYLE = 1;
+    
+    private static final String CONTENT_TYPES =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+        "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">" +
+        "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>" +
+        "<Default Extension=\"xml\" ContentType=\"application/xml\"/>" +
+        "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>" +
+        "<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>" +
+        "<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>" +
+        "</Types>";
+    
+    private static final String ROOT_RELS =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+        "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" +
+        "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>" +
+        "</Relationships>";
+    
+    private static final String WORKBOOK_RELS =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+        "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" +
+        "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet1.xml\"/>" +
+        "<Relationship Id=\"rId2\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\" Target=\"styles.xml\"/>" +
+        "</Relationships>";
+    
+    private static final String STYLES =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+        "<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">" +
+        "<numFmts count=\"1\"><numFmt numFmtId=\"164\" formatCode=\"yyyy-mm-dd\"/></numFmts>" +
+        "<fonts count=\"1\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>" +
+        "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill></fills>" +
+        "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>" +
+        "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>" +
+        "<cellXfs count=\"2\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/>" +
+        "<xf numFmtId=\"164\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyNumberFormat=\"1\"/></cellXfs>" +
+        "<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>" +
+        "</styleSheet>";
+    
+    private final OutputStream outputStream;
+    private final ZipOutputStream zip;
+    private final Writer sheet;
+    private final String[] columnNames;
+    private int rowNum;
+    
+    /**
+     * 寫出固定內容的組件與工作表開頭，並 flush 到 outputStream
+     * @param columnCount 欄位數 (每列最多寫出的儲存格數)
+     */
+    StreamingXlsxWriter(OutputStream outputStream, String sheetName, int columnCount) throws IOException {
+        this.outputStream = outputStream;
+        this.zip = new ZipOutputStream(outputStream, StandardCharsets.UTF_8);
+        this.sheet = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8));
+        this.columnNames = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnNames[i] = columnName(i);
+        }
+        
+        writeEntry("[Content_Types].xml", CONTENT_TYPES);
+        writeEntry("_rels/.rels", ROOT_RELS);
+        writeEntry("xl/workbook.xml",
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+            "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" " +
+            "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">" +
+            "<sheets><sheet name=\"" + escape(sheetName) + "\" sheetId=\"1\" r:id=\"rId1\"/></sheets></workbook>");
+        writeEntry("xl/_rels/workbook.xml.rels", WORKBOOK_RELS);
+        writeEntry("xl/styles.xml", STYLES);
+        
+        zip.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+        sheet.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+                    "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>");
+        sheet.flush();
+        outputStream.flush();
+    }
+    
+    /**
+     * 寫出一列，值為 null 的儲存格留空
+     * 日期使用日期格式，數字與布林值保留型別，其他值寫為字串
+     */
+    void writeRow(Object[] values) throws IOException {
+        rowNum++;
+        sheet.write("<row r=\"");
+        sheet.write(Integer.toString(rowNum));
+        sheet.write("\">");
+        for (int i = 0; i < values.length && i < columnNames.length; i++) {
+            writeCell(columnNames[i] + rowNum, values[i]);
+        }
+        sheet.write("</row>");
+        
+        if (rowNum % FLUSH_ROWS == 0) {
+            sheet.flush();
+            outputStream.flush();
+        }
+    }
+    
+    /**
+     * 結束工作表並寫出 zip 目錄 (不關閉 outputStream)
+     */
+    void finish() throws IOException {
+        sheet.write("</sheetData></worksheet>");
+        sheet.flush();
+        zip.closeEntry();
+        zip.finish();
+        outputStream.flush();
+    }
+    
+    private void writeEntry(String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        sheet.write(content);
+        sheet.flush();
+        zip.closeEntry();
+    }
+    
+    private void writeCell(String reference, Object value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof Date) {
+            writeDate(reference, DateUtil.getExcelDate((Date) value));
+        } else if (value instanceof LocalDate) {
+            writeDate(reference, DateUtil.getExcelDate((LocalDate) value));
+        } else if (value instanceof LocalDateTime) {
+            writeDate(reference, DateUtil.getExcelDate((LocalDateTime) value));
+        } else if (value instanceof Number && Double.isFinite(((Number) value).doubleValue())) {
+            writeNumber(reference, ((Number) value).doubleValue(), 0);
+        } else if (value instanceof Boolean) {
+            sheet.write("<c r=\"" + reference + "\" t=\"b\"><v>" + ((Boolean) value ? 1 : 0) + "</v></c>");
+        } else {
+            String text = value.toString();
+            if (text.length() > MAX_CELL_LENGTH) {
+                text = text.substring(0, MAX_CELL_LENGTH);
+            }
+            sheet.write("<c r=\"" + reference + "\" t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+            sheet.write(escape(text));
+            sheet.write("</t></is></c>");
+        }
+    }
+    
+    private void writeDate(String reference, double excelDate) throws IOException {
+        // Excel 無法表示 1900 年以前的日期 (DateUtil 回傳 -1)，留空
+        if (excelDate >= 0) {
+            writeNumber(reference, excelDate, DATE_STYLE);
+        }
+    }
+    
+    private void writeNumber(String reference, double number, int style) throws IOException {
+        sheet.write("<c r=\"" + reference + "\"" + (style != 0 ? " s=\"" + style + "\"" : "") + "><v>");
+        sheet.write(Double.toString(number));
+        sheet.write("</v></c>");
+    }
+    
+    /**
+     * 欄位字母 (0 -> A、25 -> Z、26 -> AA)
+     */
+    static String columnName(int index) {
+        StringBuilder name = new StringBuilder();
+        for (int i = index + 1; i > 0; i = (i - 1) / 26) {
+            name.insert(0, (char) ('A' + (i - 1) % 26));
+        }
+        return name.toString();
+    }
+    
+    /**
+     * XML 跳脫，並移除 XML 1.0 不允許的控制字元
+     */
+    static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&': escaped.append("&amp;"); break;
+                case '<': escaped.append("&lt;"); break;
+                case '>': escaped.append("&gt;"); break;
+                case '"': escaped.append("&quot;"); break;
+                default:
+                    if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r') {
+                        if (c != 0xFFFE && c != 0xFFFF) {
+                            escaped.append(c);
+                        }
+                    }
+            }
+        }
+        return escaped.toString();
+    }
+}
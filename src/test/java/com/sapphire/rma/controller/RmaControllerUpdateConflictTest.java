@@ -0,0 +1,95 @@
+package com.sapphire.rma.controller;
+
+import com.sapphire.rma.repository.RmaRepository;
+import com.sapphire.rma.repository.RmaUpdateResult;
+import com.sapphire.rma.service.ProductLineService;
+import com.sapphire.rma.service.RmaService;
+import com.sapphire.rma.service.StockReservations;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * PUT /api/rma/update 帶入過期的 rowVersion 時回傳 409
+ */
+@ExtendWith(MockitoExtension.class)
+class RmaControllerUpdateConflictTest {
+    
+    @Mock
+    private RmaRepository rmaRepository;
+    
+    @Mock
+    private ProductLineService productLineService;
+    
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    
+    @InjectMocks
+    private RmaService rmaService;
+    
+    private MockMvc mockMvc;
+    
+    @BeforeEach
+    void setUp() {
+        RmaController controller = new RmaController();
+        ReflectionTestUtils.setField(controller, "rmaService", rmaService);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+        
+        when(productLineService.isValidProductLine("VGA")).thenReturn(true);
+        when(rmaRepository.existsBySerialNo("VGA", "SN001")).thenReturn(true);
+    }
+    
+    @Test
+    void staleRowVersionReturnsConflict() throws Exception {
+        when(rmaRepository.updateRmaRecordWithStockDeletion(eq("VGA"), eq("SN001"), anyMap(), isNull(),
+                                                            eq("0x00000000000007D1")))
+            .thenReturn(RmaUpdateResult.conflict());
+        
+        mockMvc.perform(put("/api/rma/update")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"productType\":\"VGA\",\"serialNo\":\"SN001\",\"rowVersion\":\"0x00000000000007D1\",\"remark\":\"更新\"}"))
+            .andExpect(status().isConflict())
+            .andExpect(jsonPath("$.success").value(false))
+            .andExpect(jsonPath("$.operation").value("UPDATE_CONFLICT"));
+        
+        // 沒有更新任何資料，不發布異動事件
+        verifyNoInteractions(eventPublisher);
+    }
+    
+    @Test
+    void staleRowVersionReleasesTemporaryLease() throws Exception {
+        StockReservations reservations = new StockReservations();
+        ReflectionTestUtils.setField(reservations, "ttlSeconds", 120L);
+        ReflectionTestUtils.setField(rmaService, "stockReservations", reservations);
+        when(rmaRepository.updateRmaRecordWithStockDeletion(eq("VGA"), eq("SN001"), anyMap(), eq("STOCK001"),
+                                                            eq("0x00000000000007D1")))
+            .thenReturn(RmaUpdateResult.conflict());
+        
+        mockMvc.perform(put("/api/rma/update")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"productType\":\"VGA\",\"serialNo\":\"SN001\",\"stockSerialNoToDelete\":\"STOCK001\"," +
+                         "\"rowVersion\":\"0x00000000000007D1\"}"))
+            .andExpect(status().isConflict());
+        
+        // 更新期間臨時取得的保留已釋放，其他使用者可以選用同一個庫存
+        assertNotNull(reservations.reserve("VGA", "STOCK001", null));
+    }
+}
@@ -0,0 +1,82 @@
+package com.sapphire.rma.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * ProductTableRegistry 以 H2 驗證：refresh 時尚未建立的資料表不快取，建立後可重新讀取
+ */
+class ProductTableRegistryTest {
+    
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private ProductTableRegistry registry;
+    
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+            .setType(EmbeddedDatabaseType.H2)
+            .generateUniqueName(true)
+            .build();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE \"VGA_RMA_record\" (\"Serial_No\" varchar(50) PRIMARY KEY, \"PN\" varchar(50))");
+        
+        ProductLineRepository productLineRepository = mock(ProductLineRepository.class);
+        when(productLineRepository.findAllProductLineNames()).thenReturn(List.of("VGA"));
+        
+        registry = new ProductTableRegistry();
+        ReflectionTestUtils.setField(registry, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(registry, "productLineRepository", productLineRepository);
+        ReflectionTestUtils.setField(registry, "queryShapeRegistry", new QueryShapeRegistry());
+    }
+    
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+    
+    @Test
+    void refreshCachesOnlyTablesWithColumns() {
+        registry.refresh();
+        
+        assertTrue(registry.getRmaTable("VGA").hasColumnMetadata());
+        assertEquals("PN", registry.getRmaTable("VGA").resolveColumn("pn"));
+        // 庫存資料表尚未建立：不快取，記錄為稍後重新讀取
+        assertFalse(registry.getStockTable("VGA").hasColumnMetadata());
+        assertTrue(missingTables().containsKey("VGA_buffer_stock"));
+    }
+    
+    @Test
+    void tableCreatedAfterRefreshIsLoadedOnRetry() {
+        registry.refresh();
+        jdbcTemplate.execute("CREATE TABLE \"VGA_buffer_stock\" (\"Serial_No\" varchar(50) PRIMARY KEY)");
+        
+        // 重新讀取的時間到了
+        missingTables().clear();
+        
+        ProductTable stockTable = registry.getStockTable("VGA");
+        assertTrue(stockTable.hasColumnMetadata());
+        assertEquals("Serial_No", stockTable.resolveColumn("serial_no"));
+        assertFalse(missingTables().containsKey("VGA_buffer_stock"));
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Map<String, Long> missingTables() {
+        return (Map<String, Long>) ReflectionTestUtils.getField(registry, "missingTables");
+    }
+}
@@ -0,0 +1,186 @@
+package com.sapphire.rma.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ReadReplicaRoutingDataSource 以兩個 H2 資料庫驗證路由：唯讀交易使用副本、寫入使用主資料庫、
+ * 副本異常時改用主資料庫並在恢復後切回、批次匯入後的期間使用主資料庫、單筆寫入只標記該產品線
+ */
+class ReadReplicaRoutingDataSourceTest {
+    
+    private EmbeddedDatabase primaryDatabase;
+    private EmbeddedDatabase replicaDatabase;
+    private SwitchableDataSource replica;
+    private ReadReplicaRoutingDataSource opened;
+    
+    @BeforeEach
+    void setUp() {
+        primaryDatabase = database("primary");
+        replicaDatabase = database("replica");
+        replica = new SwitchableDataSource(replicaDatabase);
+    }
+    
+    @AfterEach
+    void tearDown() throws Exception {
+        if (opened != null) {
+            opened.close();
+        }
+        primaryDatabase.shutdown();
+        replicaDatabase.shutdown();
+    }
+    
+    @Test
+    void readOnlyTransactionUsesReplica() {
+        Routing routing = routing(60000, 0);
+        
+        assertEquals("replica", routing.read(true));
+        assertEquals(1L, routing.routingDataSource.getStatistics().get("replicaConnections"));
+    }
+    
+    @Test
+    void writeTransactionAndNonTransactionalQueryUsePrimary() {
+        Routing routing = routing(60000, 0);
+        
+        assertEquals("primary", routing.read(false));
+        assertEquals("primary", routing.jdbcTemplate.queryForObject("SELECT name FROM source", String.class));
+        
+        routing.transaction(false).executeWithoutResult(status ->
+            routing.jdbcTemplate.update("INSERT INTO marker (id) VALUES (1)"));
+        assertEquals(1, count(primaryDatabase));
+        assertEquals(0, count(replicaDatabase));
+    }
+    
+    @Test
+    void replicaFailureFallsBackToPrimaryAndRecovers() throws Exception {
+        Routing routing = routing(50, 0);
+        replica.down = true;
+        
+        assertEquals("primary", routing.read(true));
+        assertFalse(routing.routingDataSource.isReplicaHealthy());
+        assertEquals(1L, routing.routingDataSource.getStatistics().get("failovers"));
+        
+        // 副本異常期間唯讀交易直接使用主資料庫，不再嘗試副本
+        assertEquals("primary", routing.read(true));
+        
+        replica.down = false;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!routing.routingDataSource.isReplicaHealthy() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(routing.routingDataSource.isReplicaHealthy());
+        assertEquals("replica", routing.read(true));
+    }
+    
+    @Test
+    void singleLineWriteKeepsReadsOnReplica() {
+        Routing routing = routing(60000, 60000);
+        
+        routing.routingDataSource.recordWrite("VGA");
+        
+        // 單筆寫入不影響路由，只標記該產品線的查詢結果可能落後
+        assertEquals("replica", routing.read(true));
+        assertTrue(routing.routingDataSource.mayServeStale("VGA"));
+        assertFalse(routing.routingDataSource.mayServeStale("MB"));
+    }
+    
+    @Test
+    void readOnlyTransactionUsesPrimaryRightAfterBulkWrite() throws Exception {
+        Routing routing = routing(60000, 200);
+        assertEquals("replica", routing.read(true));
+        
+        routing.routingDataSource.recordBulkWrite("VGA");
+        assertEquals("primary", routing.read(true));
+        assertFalse(routing.routingDataSource.mayServeStale("VGA"));
+        assertEquals(1L, routing.routingDataSource.getStatistics().get("readsAfterWrite"));
+        
+        Thread.sleep(250);
+        assertEquals("replica", routing.read(true));
+        assertFalse(routing.routingDataSource.mayServeStale("VGA"));
+    }
+    
+    private Routing routing(long healthCheckIntervalMs, long readYourWritesMs) {
+        opened = new ReadReplicaRoutingDataSource(primaryDatabase, replica, healthCheckIntervalMs, readYourWritesMs);
+        return new Routing(opened);
+    }
+    
+    private static EmbeddedDatabase database(String name) {
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+            .setType(EmbeddedDatabaseType.H2)
+            .generateUniqueName(true)
+            .build();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE source (name varchar(20))");
+        jdbcTemplate.execute("CREATE TABLE marker (id int)");
+        jdbcTemplate.update("INSERT INTO source (name) VALUES (?)", name);
+        return database;
+    }
+    
+    private static int count(DataSource database) {
+        return new JdbcTemplate(database).queryForObject("SELECT COUNT(*) FROM marker", Integer.class);
+    }
+    
+    /**
+     * 與 ReadReplicaConfig 相同的組合：LazyConnectionDataSourceProxy 包住路由 DataSource
+     */
+    private static final class Routing {
+        private final ReadReplicaRoutingDataSource routingDataSource;
+        private final DataSourceTransactionManager transactionManager;
+        private final JdbcTemplate jdbcTemplate;
+        
+        private Routing(ReadReplicaRoutingDataSource routingDataSource) {
+            DataSource dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+            this.routingDataSource = routingDataSource;
+            this.transactionManager = new DataSourceTransactionManager(dataSource);
+            this.jdbcTemplate = new JdbcTemplate(dataSource);
+        }
+        
+        private TransactionTemplate transaction(boolean readOnly) {
+            TransactionTemplate template = new TransactionTemplate(transactionManager);
+            template.setReadOnly(readOnly);
+            return template;
+        }
+        
+        // 回傳查詢到的資料庫名稱
+        private String read(boolean readOnly) {
+            return transaction(readOnly).execute(status ->
+                jdbcTemplate.queryForObject("SELECT name FROM source", String.class));
+        }
+    }
+    
+    /**
+     * 可模擬無法連線的副本
+     */
+    private static final class SwitchableDataSource extends DelegatingDataSource {
+        private volatile boolean down;
+        
+        private SwitchableDataSource(DataSource target) {
+            super(target);
+        }
+        
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (down) {
+                throw new SQLException("副本無法連線");
+            }
+            return super.getConnection();
+        }
+    }
+}
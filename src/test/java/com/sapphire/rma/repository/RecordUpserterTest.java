@@ -0,0 +1,174 @@
+package com.sapphire.rma.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * RecordUpserter 在非 SQL Server 資料庫 (H2) 的 upsert：REJECT / OVERWRITE / MERGE
+ */
+class RecordUpserterTest {
+    
+    private static final String TABLE = "VGA_RMA_record";
+    
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private RecordUpserter upserter;
+    private ProductTable table;
+    
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+            .setType(EmbeddedDatabaseType.H2)
+            .generateUniqueName(true)
+            .build();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE " + TABLE + " (Serial_No varchar(50) PRIMARY KEY, PN varchar(50), " +
+                             "SKU varchar(50), Remark varchar(200))");
+        
+        upserter = new RecordUpserter();
+        ReflectionTestUtils.setField(upserter, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(upserter, "queryShapeRegistry", new QueryShapeRegistry());
+        table = new ProductTable(TABLE, Arrays.asList("Serial_No", "PN", "SKU", "Remark"));
+    }
+    
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+    
+    @Test
+    void rejectInsertsOnceThenRejects() {
+        assertEquals(UpsertResult.INSERTED, upsert(record("SN1", "PN-A", "SKU-A", "first"), ConflictPolicy.REJECT));
+        assertEquals(UpsertResult.REJECTED, upsert(record("SN1", "PN-B", "SKU-B", "second"), ConflictPolicy.REJECT));
+        
+        Map<String, Object> row = find("SN1");
+        assertEquals("PN-A", row.get("PN"));
+        assertEquals("first", row.get("Remark"));
+        assertEquals(1, count());
+    }
+    
+    @Test
+    void overwriteReplacesAllFieldsIncludingNulls() {
+        upsert(record("SN1", "PN-A", "SKU-A", "first"), ConflictPolicy.REJECT);
+        
+        assertEquals(UpsertResult.UPDATED, upsert(record("SN1", "PN-B", null, ""), ConflictPolicy.OVERWRITE));
+        
+        Map<String, Object> row = find("SN1");
+        assertEquals("PN-B", row.get("PN"));
+        assertNull(row.get("SKU"));
+        assertNull(row.get("Remark"));
+    }
+    
+    @Test
+    void outcomeCarriesRowImagesBeforeAndAfterWrite() {
+        List<String> columns = Arrays.asList("PN", "SKU");
+        UpsertOutcome inserted = upserter.upsert("rma.upsert", table, record("SN1", "PN-A", "SKU-A", null),
+                                                 ConflictPolicy.REJECT, columns);
+        assertNull(inserted.getImages().getBefore());
+        assertEquals("PN-A", inserted.getImages().getAfter().get("PN"));
+        
+        UpsertOutcome updated = upserter.upsert("rma.upsert", table, record("SN1", "PN-B", null, null),
+                                                ConflictPolicy.MERGE, columns);
+        assertEquals(UpsertResult.UPDATED, updated.getResult());
+        assertEquals("PN-A", updated.getImages().getBefore().get("PN"));
+        assertEquals("PN-B", updated.getImages().getAfter().get("PN"));
+        assertEquals("SKU-A", updated.getImages().getAfter().get("SKU"));
+        
+        // 拒絕時沒有異動
+        UpsertOutcome rejected = upserter.upsert("rma.upsert", table, record("SN1", "PN-C", null, null),
+                                                 ConflictPolicy.REJECT, columns);
+        assertEquals(UpsertResult.REJECTED, rejected.getResult());
+        assertNull(rejected.getImages().getBefore());
+        assertNull(rejected.getImages().getAfter());
+    }
+    
+    @Test
+    void overwriteInsertsWhenAbsent() {
+        assertEquals(UpsertResult.INSERTED, upsert(record("SN1", "PN-A", null, null), ConflictPolicy.OVERWRITE));
+        assertEquals("PN-A", find("SN1").get("PN"));
+    }
+    
+    @Test
+    void mergeKeepsExistingValuesForEmptyFields() {
+        upsert(record("SN1", "PN-A", "SKU-A", "first"), ConflictPolicy.REJECT);
+        
+        assertEquals(UpsertResult.UPDATED, upsert(record("SN1", null, "SKU-B", " "), ConflictPolicy.MERGE));
+        
+        Map<String, Object> row = find("SN1");
+        assertEquals("PN-A", row.get("PN"));
+        assertEquals("SKU-B", row.get("SKU"));
+        assertEquals("first", row.get("Remark"));
+    }
+    
+    @Test
+    void serialOnlyPayloadDoesNotDuplicate() {
+        for (ConflictPolicy policy : ConflictPolicy.values()) {
+            jdbcTemplate.update("DELETE FROM " + TABLE);
+            
+            assertEquals(UpsertResult.INSERTED, upsert(record("SN1", null, null, null), policy), policy.name());
+            UpsertResult expected = policy == ConflictPolicy.REJECT ? UpsertResult.REJECTED : UpsertResult.UPDATED;
+            assertEquals(expected, upsert(record("SN1", null, null, null), policy), policy.name());
+            assertEquals(1, count(), policy.name());
+        }
+    }
+    
+    @Test
+    void overwriteWithSerialOnlyKeepsOtherFields() {
+        upsert(record("SN1", "PN-A", "SKU-A", "first"), ConflictPolicy.REJECT);
+        
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("Serial_No", "SN1");
+        // 只帶序列號：沒有其他欄位可寫入，既有的值不變
+        assertEquals(UpsertResult.UPDATED, upsert(data, ConflictPolicy.OVERWRITE));
+        assertEquals("PN-A", find("SN1").get("PN"));
+    }
+    
+    @Test
+    void missingSerialNoIsRejected() {
+        assertThrows(IllegalArgumentException.class,
+            () -> upsert(record(" ", "PN-A", null, null), ConflictPolicy.MERGE));
+    }
+    
+    @Test
+    void unknownColumnIsRejected() {
+        Map<String, Object> data = record("SN1", "PN-A", null, null);
+        data.put("Unknown", "x");
+        assertThrows(IllegalArgumentException.class, () -> upsert(data, ConflictPolicy.MERGE));
+    }
+    
+    private UpsertResult upsert(Map<String, Object> data, ConflictPolicy policy) {
+        return upserter.upsert("rma.upsert", table, data, policy);
+    }
+    
+    private Map<String, Object> find(String serialNo) {
+        return jdbcTemplate.queryForMap("SELECT * FROM " + TABLE + " WHERE Serial_No = ?", serialNo);
+    }
+    
+    private int count() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TABLE, Integer.class);
+    }
+    
+    private static Map<String, Object> record(String serialNo, String pn, String sku, String remark) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("Serial_No", serialNo);
+        data.put("PN", pn);
+        data.put("SKU", sku);
+        data.put("Remark", remark);
+        return data;
+    }
+}
@@ -0,0 +1,99 @@
+package com.sapphire.rma.repository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 批次新增 RMA 記錄：存在檢查在 INSERT ... WHERE NOT EXISTS 內完成
+ */
+class RmaRepositoryBatchInsertTest {
+    
+    private static final String TABLE = "VGA_RMA_record";
+    
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private RmaRepository rmaRepository;
+    
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+            .setType(EmbeddedDatabaseType.H2)
+            .generateUniqueName(true)
+            .build();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE " + TABLE + " (Serial_No varchar(50) PRIMARY KEY, PN varchar(50), " +
+                             "Remark varchar(200))");
+        
+        ProductTableRegistry registry = mock(ProductTableRegistry.class);
+        when(registry.getRmaTable("VGA")).thenReturn(
+            new ProductTable(TABLE, Arrays.asList("Serial_No", "PN", "Remark")));
+        
+        RecordUpserter upserter = new RecordUpserter();
+        ReflectionTestUtils.setField(upserter, "jdbcTemplate", jdbcTemplate);
+        
+        rmaRepository = new RmaRepository();
+        ReflectionTestUtils.setField(rmaRepository, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(rmaRepository, "queryShapeRegistry", new QueryShapeRegistry());
+        ReflectionTestUtils.setField(rmaRepository, "productTableRegistry", registry);
+        ReflectionTestUtils.setField(rmaRepository, "recordUpserter", upserter);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+    
+    @Test
+    void existingSerialNosAreReportedWithoutFailingOthers() {
+        jdbcTemplate.update("INSERT INTO " + TABLE + " (Serial_No, PN) VALUES ('SN1', 'PN-OLD')");
+        
+        List<Map<String, Object>> rows = Arrays.asList(
+            row("SN1", "PN-NEW", null),
+            row("SN2", "PN-A", "first"),
+            row("SN3", null, "second"));
+        String[] errors = rmaRepository.batchInsertRmaRecords("VGA", rows, 2);
+        
+        assertTrue(errors[0].contains("SN1"));
+        assertTrue(errors[0].contains("已存在"));
+        assertNull(errors[1]);
+        assertNull(errors[2]);
+        assertEquals("PN-OLD", jdbcTemplate.queryForObject(
+            "SELECT PN FROM " + TABLE + " WHERE Serial_No = 'SN1'", String.class));
+        assertEquals(3, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TABLE, Integer.class));
+    }
+    
+    @Test
+    void secondBatchWithSameSerialNoIsRejected() {
+        String[] first = rmaRepository.batchInsertRmaRecords("VGA", Arrays.asList(row("SN1", "PN-A", null)), 100);
+        String[] second = rmaRepository.batchInsertRmaRecords("VGA", Arrays.asList(row("SN1", "PN-B", null)), 100);
+        
+        assertNull(first[0]);
+        assertTrue(second[0].contains("已存在"));
+        assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + TABLE, Integer.class));
+    }
+    
+    private static Map<String, Object> row(String serialNo, String pn, String remark) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("Serial_No", serialNo);
+        row.put("PN", pn);
+        row.put("Remark", remark);
+        return row;
+    }
+}
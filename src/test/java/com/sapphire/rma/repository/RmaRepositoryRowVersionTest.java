@@ -0,0 +1,110 @@
+package com.sapphire.rma.repository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * RmaRepository 更新 RMA 記錄時的 row version 檢查
+ * row version 不符時必須以回傳值表示：拋出例外會讓服務層的交易變成 rollback-only。
+ * 每日統計欄位更新前後的值由同一個 UPDATE 的 OUTPUT 取回，不另外查詢。
+ */
+@ExtendWith(MockitoExtension.class)
+class RmaRepositoryRowVersionTest {
+    
+    private static final String STALE_VERSION = "0x00000000000007D1";
+    
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    
+    @Mock
+    private ProductTableRegistry productTableRegistry;
+    
+    @Mock
+    private RecordUpserter recordUpserter;
+    
+    @InjectMocks
+    private RmaRepository rmaRepository;
+    
+    @BeforeEach
+    void setUp() {
+        when(productTableRegistry.getRmaTable("VGA")).thenReturn(
+            new ProductTable("VGA_RMA_record", Arrays.asList("Serial_No", "Remark"), "Row_Version"));
+        when(recordUpserter.isSqlServer()).thenReturn(true);
+    }
+    
+    @Test
+    void staleRowVersionReturnsConflictWithoutThrowing() {
+        // UPDATE ... OUTPUT 沒有回傳任何列：row version 已改變
+        when(jdbcTemplate.queryForList(anyString(), ArgumentMatchers.<Object>any()))
+            .thenReturn(Collections.emptyList());
+        
+        RmaUpdateResult result = rmaRepository.updateRmaRecordWithStockDeletion(
+            "VGA", "SN001", remark("更新"), "STOCK001", STALE_VERSION);
+        
+        assertTrue(result.isConflict());
+        assertFalse(result.isUpdated());
+        // 沒有更新 RMA 時不可刪除庫存
+        verify(jdbcTemplate).queryForList(anyString(), ArgumentMatchers.<Object>any());
+        verifyNoMoreInteractions(jdbcTemplate);
+    }
+    
+    @Test
+    void matchingRowVersionReturnsNewVersion() {
+        when(jdbcTemplate.queryForList(anyString(), ArgumentMatchers.<Object>any()))
+            .thenReturn(Collections.singletonList(output("0x00000000000007D2")));
+        
+        RmaUpdateResult result = rmaRepository.updateRmaRecordWithStockDeletion(
+            "VGA", "SN001", remark("更新"), null, "0x00000000000007D1");
+        
+        assertFalse(result.isConflict());
+        assertTrue(result.isUpdated());
+        assertEquals("0x00000000000007D2", result.getRowVersion());
+        
+        // 更新前後的每日統計欄位取自 OUTPUT DELETED / INSERTED，只執行一個陳述式
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        verify(jdbcTemplate).queryForList(sql.capture(), ArgumentMatchers.<Object>any());
+        assertTrue(sql.getValue().contains("DELETED.PN AS Before_PN"));
+        assertTrue(sql.getValue().contains("INSERTED.PN AS After_PN"));
+        assertEquals("PN-A", result.getImages().getBefore().get("PN"));
+        assertEquals("PN-B", result.getImages().getAfter().get("PN"));
+        verifyNoMoreInteractions(jdbcTemplate);
+    }
+    
+    private static Map<String, Object> output(String rowVersion) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("Before_Create_Date", "2024-01-01");
+        row.put("Before_PN", "PN-A");
+        row.put("Before_SKU", "SKU-A");
+        row.put("After_Create_Date", "2024-01-01");
+        row.put("After_PN", "PN-B");
+        row.put("After_SKU", "SKU-A");
+        row.put("Row_Version", rowVersion);
+        return row;
+    }
+    
+    private static Map<String, Object> remark(String remark) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("Remark", remark);
+        return data;
+    }
+}
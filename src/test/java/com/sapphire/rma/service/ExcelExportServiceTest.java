@@ -0,0 +1,150 @@
+package com.sapphire.rma.service;
+
+import com.sapphire.rma.repository.RmaRepository;
+import com.sapphire.rma.repository.StockRepository;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * ExcelExportService 邊查詢邊寫出 xlsx：查詢開始前檔案開頭已送出，匯出的檔案可由 POI 讀回
+ */
+class ExcelExportServiceTest {
+    
+    private static final String[] COLUMNS = {"Serial_No", "PN", "SKU", "Prodcut_name", "Create_Date"};
+    
+    private ExcelExportService service;
+    private final CountingOutputStream output = new CountingOutputStream();
+    private final List<Object[]> rows = new ArrayList<>();
+    private long bytesBeforeFirstRow = -1;
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        StockRepository stockRepository = mock(StockRepository.class);
+        doAnswer(invocation -> {
+            bytesBeforeFirstRow = output.flushedBytes;
+            RowCallbackHandler handler = invocation.getArgument(1);
+            ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+            when(metaData.getColumnCount()).thenReturn(COLUMNS.length);
+            when(metaData.getColumnLabel(anyInt())).thenAnswer(call -> COLUMNS[call.<Integer>getArgument(0) - 1]);
+            for (Object[] row : rows) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getMetaData()).thenReturn(metaData);
+                when(rs.getObject(anyInt())).thenAnswer(call -> row[call.<Integer>getArgument(0) - 1]);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(stockRepository).streamAllByProductType(eq("VGA"), any(RowCallbackHandler.class));
+        
+        service = new ExcelExportService();
+        ReflectionTestUtils.setField(service, "stockRepository", stockRepository);
+        ReflectionTestUtils.setField(service, "rmaRepository", mock(RmaRepository.class));
+    }
+    
+    @Test
+    void fileStartIsSentBeforeQueryReturnsRows() throws Exception {
+        rows.add(new Object[] {"SN1", "PN-A", "SKU-A", "Board", null});
+        
+        service.exportStockRecords("VGA", output);
+        
+        assertTrue(bytesBeforeFirstRow > 0);
+    }
+    
+    @Test
+    void exportedWorkbookCanBeReadBack() throws Exception {
+        rows.add(new Object[] {"SN1", "PN-A", "SKU <A&B>", " Board ", Date.valueOf("2024-01-02")});
+        rows.add(new Object[] {"SN2", 12345, null, "ctrl\u0001char", null});
+        for (int i = 3; i <= 2500; i++) {
+            rows.add(new Object[] {"SN" + i, "PN", "SKU", "Board", null});
+        }
+        
+        assertEquals(2500L, service.exportStockRecords("VGA", output));
+        
+        try (Workbook workbook = new XSSFWorkbook(new ByteArrayInputStream(output.toByteArray()))) {
+            Sheet sheet = workbook.getSheet(ExcelExportService.STOCK_SHEET_NAME);
+            assertEquals(2500, sheet.getLastRowNum());
+            
+            Row header = sheet.getRow(0);
+            assertEquals("Prodcut name", header.getCell(0).getStringCellValue());
+            assertEquals("S/N", header.getCell(3).getStringCellValue());
+            
+            Row first = sheet.getRow(1);
+            assertEquals(" Board ", first.getCell(0).getStringCellValue());
+            assertEquals("SKU <A&B>", first.getCell(2).getStringCellValue());
+            assertEquals("SN1", first.getCell(3).getStringCellValue());
+            
+            Row second = sheet.getRow(2);
+            assertEquals("ctrlchar", second.getCell(0).getStringCellValue());
+            assertEquals(12345.0, second.getCell(1).getNumericCellValue());
+            assertNull(second.getCell(2));
+            
+            assertEquals("SN2500", sheet.getRow(2500).getCell(3).getStringCellValue());
+        }
+    }
+    
+    @Test
+    void datesUseDateFormat() throws Exception {
+        // 庫存匯出不含日期欄位，直接驗證 writer
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StreamingXlsxWriter writer = new StreamingXlsxWriter(bytes, "Sheet", 2);
+        writer.writeRow(new Object[] {LocalDate.of(2024, 1, 2), Date.valueOf("2024-03-04")});
+        writer.finish();
+        
+        try (Workbook workbook = new XSSFWorkbook(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Row row = workbook.getSheetAt(0).getRow(0);
+            assertTrue(DateUtil.isCellDateFormatted(row.getCell(0)));
+            assertEquals(LocalDate.of(2024, 1, 2), row.getCell(0).getLocalDateTimeCellValue().toLocalDate());
+            assertEquals(LocalDate.of(2024, 3, 4), row.getCell(1).getLocalDateTimeCellValue().toLocalDate());
+        }
+    }
+    
+    @Test
+    void columnNames() {
+        Map<Integer, String> expected = new HashMap<>();
+        expected.put(0, "A");
+        expected.put(25, "Z");
+        expected.put(26, "AA");
+        expected.put(701, "ZZ");
+        expected.put(702, "AAA");
+        expected.forEach((index, name) -> assertEquals(name, StreamingXlsxWriter.columnName(index)));
+    }
+    
+    /**
+     * 記錄 flush 時已寫出的位元組數 (模擬送到用戶端的資料)
+     */
+    private static final class CountingOutputStream extends ByteArrayOutputStream {
+        private long flushedBytes;
+        
+        @Override
+        public void flush() {
+            flushedBytes = size();
+        }
+    }
+}
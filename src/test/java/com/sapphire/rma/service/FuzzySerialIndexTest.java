@@ -0,0 +1,161 @@
+package com.sapphire.rma.service;
+
+import com.sapphire.rma.repository.RmaRepository;
+import com.sapphire.rma.repository.StockRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * FuzzySerialIndex 的 BK-tree：建立後依事件插入與刪除序列號，查詢距離 1-2 內的序列號
+ * 已刪除的節點保留在樹中，其下的子樹仍可查到
+ */
+class FuzzySerialIndexTest {
+    
+    private static final String VGA = "VGA";
+    
+    private final Set<String> rmaSerials = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private final Set<String> stockSerials = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private FuzzySerialIndex index;
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        // 插入順序決定樹的形狀：SN-1000 為根，SN-1001 是距離 1 的子節點，
+        // SN-2000 與根的距離也是 1，因此掛在 SN-1001 之下 (距離 2)
+        rmaSerials.addAll(List.of("SN-1000", "SN-1001", "SN-2000", "AB-9999"));
+        stockSerials.addAll(List.of("SN-1000", "sn-1010"));
+        
+        RmaRepository rmaRepository = mock(RmaRepository.class);
+        StockRepository stockRepository = mock(StockRepository.class);
+        when(rmaRepository.findDistinctValues(VGA, "Serial_No")).thenReturn(List.of("SN-1000", "SN-1001", "SN-2000", "AB-9999"));
+        when(stockRepository.findDistinctValues(VGA, "Serial_No")).thenReturn(List.of("SN-1000", "sn-1010"));
+        when(rmaRepository.findValuesBySerialNos(eq(VGA), any(), any()))
+            .thenAnswer(invocation -> rows(rmaSerials, invocation.getArgument(2)));
+        when(stockRepository.findValuesBySerialNos(eq(VGA), any(), any()))
+            .thenAnswer(invocation -> rows(stockSerials, invocation.getArgument(2)));
+        
+        index = new FuzzySerialIndex();
+        ReflectionTestUtils.setField(index, "rmaRepository", rmaRepository);
+        ReflectionTestUtils.setField(index, "stockRepository", stockRepository);
+        awaitReady();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        index.shutdown();
+    }
+    
+    @Test
+    void searchWithinDistanceOrdersByDistanceThenPresence() {
+        // 同時存在於 RMA 與庫存的排在前面
+        assertEquals(List.of("SN-1000", "SN-1001", "SN-2000", "sn-1010"), serialNos("sn-1000", 1));
+        assertEquals(List.of("SN-2000", "SN-1000", "SN-1001"), serialNos("SN-2000", 2).subList(0, 3));
+        assertEquals(List.of("SN-1000", "SN-1001", "SN-2000", "sn-1010"), serialNos("SN-1100", 2));
+        assertEquals(List.of("SN-1000"), serialNos("SN-1100", 1));
+        assertEquals(List.of("AB-9999"), serialNos("AB-9989", 2));
+        
+        Map<String, Object> exact = index.search(VGA, "SN-1000", 2, 10).get(0);
+        assertEquals(0, exact.get("distance"));
+        assertEquals(true, exact.get("inRma"));
+        assertEquals(true, exact.get("inStock"));
+        assertEquals(2, index.search(VGA, "SN-1100", 2, 10).get(1).get("distance"));
+    }
+    
+    @Test
+    void addedSerialIsFoundAfterEvent() throws Exception {
+        rmaSerials.add("SN-1002");
+        stockSerials.add("SN-2001");
+        index.onRecordChanged(new RecordChangedEvent(RecordType.RMA, VGA, "SN-1002"));
+        index.onRecordChanged(new RecordChangedEvent(RecordType.STOCK, VGA, "SN-2001"));
+        
+        awaitSearch("SN-1000", 1, List.of("SN-1000", "SN-1001", "SN-1002", "SN-2000", "sn-1010"));
+        awaitSearch("SN-2000", 1, List.of("SN-2000", "SN-1000", "SN-2001"));
+    }
+    
+    @Test
+    void removedSerialIsHiddenButItsSubtreeIsStillSearched() throws Exception {
+        rmaSerials.remove("SN-1001");
+        index.onRecordChanged(new RecordChangedEvent(RecordType.RMA, VGA, "SN-1001"));
+        
+        awaitSearch("SN-1001", 0, List.of());
+        // SN-2000 掛在已刪除的 SN-1001 之下
+        assertEquals(List.of("SN-2000"), serialNos("SN-2000", 0));
+        assertEquals(List.of("SN-2000"), serialNos("SN-2009", 1));
+        
+        // 再次新增時沿用同一個節點
+        rmaSerials.add("SN-1001");
+        index.onRecordChanged(new RecordChangedEvent(RecordType.RMA, VGA, "SN-1001"));
+        awaitSearch("SN-1001", 0, List.of("SN-1001"));
+    }
+    
+    @Test
+    void serialRemovedFromOneTableStaysWhileInTheOther() throws Exception {
+        rmaSerials.remove("SN-1000");
+        index.onRecordChanged(new RecordChangedEvent(RecordType.RMA, VGA, "SN-1000"));
+        
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Boolean.TRUE.equals(index.search(VGA, "SN-1000", 0, 10).get(0).get("inRma"))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Map<String, Object> match = index.search(VGA, "SN-1000", 0, 10).get(0);
+        assertEquals(false, match.get("inRma"));
+        assertEquals(true, match.get("inStock"));
+        
+        stockSerials.remove("SN-1000");
+        index.onRecordChanged(new RecordChangedEvent(RecordType.STOCK, VGA, "SN-1000"));
+        awaitSearch("SN-1000", 0, List.of());
+        assertEquals(List.of("SN-1001", "SN-2000", "sn-1010"), serialNos("SN-1000", 1));
+    }
+    
+    private List<String> serialNos(String query, int maxDistance) {
+        List<String> serialNos = new ArrayList<>();
+        for (Map<String, Object> match : index.search(VGA, query, maxDistance, 10)) {
+            serialNos.add((String) match.get("serialNo"));
+        }
+        return serialNos;
+    }
+    
+    // 事件在背景執行緒套用，等待查詢結果符合預期
+    private void awaitSearch(String query, int maxDistance, List<String> expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!expected.equals(serialNos(query, maxDistance)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, serialNos(query, maxDistance));
+    }
+    
+    // 索引尚未建立時 isReady 排入背景建立，等待建立完成
+    private void awaitReady() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!index.isReady(VGA) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(index.isReady(VGA));
+    }
+    
+    private static List<Map<String, Object>> rows(Set<String> table, Collection<String> serialNos) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (String serialNo : serialNos) {
+            if (table.contains(serialNo)) {
+                rows.add(Map.of("Serial_No", serialNo));
+            }
+        }
+        return rows;
+    }
+}
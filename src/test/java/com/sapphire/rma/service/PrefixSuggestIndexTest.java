@@ -0,0 +1,51 @@
+package com.sapphire.rma.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class PrefixSuggestIndexTest {
+    
+    @Test
+    void mergeKeepsCaseInsensitiveOrder() {
+        String[] values = {"alpha", "Charlie", "echo"};
+        
+        String[] merged = PrefixSuggestIndex.merge(values, sorted("Bravo", "delta", "Foxtrot", "0-first"), sorted());
+        
+        assertArrayEquals(new String[] {"0-first", "alpha", "Bravo", "Charlie", "delta", "echo", "Foxtrot"}, merged);
+        // 讀取中的舊陣列不受影響
+        assertArrayEquals(new String[] {"alpha", "Charlie", "echo"}, values);
+    }
+    
+    @Test
+    void mergeSkipsValuesThatDifferOnlyInCase() {
+        String[] merged = PrefixSuggestIndex.merge(new String[] {"ABC", "xyz"}, sorted("abc", "XYZ", "mno"), sorted());
+        
+        // 已存在的值保留原本的大小寫
+        assertArrayEquals(new String[] {"ABC", "mno", "xyz"}, merged);
+    }
+    
+    @Test
+    void mergeRemovesValuesIgnoringCase() {
+        String[] merged = PrefixSuggestIndex.merge(new String[] {"SN1", "SN2", "SN3"}, sorted("SN4"), sorted("sn2", "SN9"));
+        
+        assertArrayEquals(new String[] {"SN1", "SN3", "SN4"}, merged);
+    }
+    
+    @Test
+    void mergeIntoEmptyArray() {
+        assertArrayEquals(new String[] {"a", "B"}, PrefixSuggestIndex.merge(new String[0], sorted("B", "a"), sorted()));
+        assertArrayEquals(new String[0], PrefixSuggestIndex.merge(new String[] {"a"}, sorted(), sorted("A")));
+    }
+    
+    // 與 applyChanges 相同：不分大小寫排序的集合
+    private static Set<String> sorted(String... values) {
+        Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        set.addAll(Arrays.asList(values));
+        return set;
+    }
+}
@@ -0,0 +1,135 @@
+package com.sapphire.rma.service;
+
+import com.sapphire.rma.repository.RmaRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * RmaDailyRollup 依事件的異動前後資料列調整筆數，並定期重新計算其他來源的寫入
+ */
+class RmaDailyRollupTest {
+    
+    private static final String VGA = "VGA";
+    private static final LocalDate DAY1 = LocalDate.of(2024, 1, 1);
+    private static final LocalDate DAY2 = LocalDate.of(2024, 1, 2);
+    
+    private RmaRepository rmaRepository;
+    private RmaDailyRollup rollup;
+    private final List<Map<String, Object>> table = new ArrayList<>();
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        rmaRepository = mock(RmaRepository.class);
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (Map<String, Object> row : new ArrayList<>(table)) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getString("Serial_No")).thenReturn((String) row.get("Serial_No"));
+                when(rs.getObject(anyString())).thenAnswer(call -> row.get(call.<String>getArgument(0)));
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(rmaRepository).streamRollupSource(eq(VGA), any(RowCallbackHandler.class));
+        
+        rollup = new RmaDailyRollup();
+        ReflectionTestUtils.setField(rollup, "rmaRepository", rmaRepository);
+        
+        table.add(row("SN1", DAY1, "PN-A"));
+        table.add(row("SN2", DAY1, "PN-A"));
+        awaitReady();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        rollup.shutdown();
+    }
+    
+    @Test
+    void changeCarriedInEventMovesCount() {
+        rollup.onRecordChanged(RecordChangedEvent.withChanges(RecordType.RMA, VGA, List.of(
+            new RecordChangedEvent.RowChange("SN1", row("SN1", DAY1, "PN-A"), row("SN1", DAY2, "PN-B")),
+            new RecordChangedEvent.RowChange("SN3", null, row("SN3", DAY2, "PN-B")),
+            new RecordChangedEvent.RowChange("SN2", row("SN2", DAY1, "PN-A"), null))));
+        
+        assertTrue(rollup.isReady(VGA));
+        assertEquals(Map.of(DAY2.toString(), 2L), countByDay());
+        assertEquals(2L, records());
+        // 不需要重新讀取異動的序列號
+        verify(rmaRepository, never()).findRollupSourceBySerialNos(anyString(), any());
+    }
+    
+    @Test
+    void refreshPicksUpWritesWithoutEvents() {
+        // 其他應用程式實例寫入，本實例沒有收到事件
+        table.add(row("SN3", DAY2, "PN-B"));
+        table.remove(0);
+        assertEquals(Map.of(DAY1.toString(), 2L), countByDay());
+        
+        rollup.refreshAll();
+        
+        assertTrue(rollup.isReady(VGA));
+        assertEquals(Map.of(DAY1.toString(), 1L, DAY2.toString(), 1L), countByDay());
+    }
+    
+    @Test
+    void eventWithoutChangesRebuilds() throws Exception {
+        table.add(row("SN3", DAY2, "PN-B"));
+        
+        rollup.onRecordChanged(new RecordChangedEvent(RecordType.RMA, VGA, "SN3"));
+        awaitReady();
+        
+        assertEquals(Map.of(DAY1.toString(), 2L, DAY2.toString(), 1L), countByDay());
+    }
+    
+    private Map<String, Long> countByDay() {
+        Map<String, Long> counts = new HashMap<>();
+        for (Map<String, Object> item : rollup.countByDay(VGA, null, null, null, null, null)) {
+            counts.put((String) item.get("date"), (Long) item.get("count"));
+        }
+        return counts;
+    }
+    
+    private long records() {
+        return (Long) rollup.getStatistics().get(0).get("records");
+    }
+    
+    // 統計尚未建立時 countByDay 排入背景建立，等待建立完成
+    private void awaitReady() throws InterruptedException {
+        rollup.isReady(VGA);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!rollup.isReady(VGA) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(rollup.isReady(VGA));
+    }
+    
+    private static Map<String, Object> row(String serialNo, LocalDate createDate, String pn) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("Serial_No", serialNo);
+        row.put("Create_Date", createDate);
+        row.put("PN", pn);
+        row.put("SKU", "SKU-" + pn);
+        return row;
+    }
+}
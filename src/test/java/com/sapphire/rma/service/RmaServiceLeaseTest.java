@@ -0,0 +1,131 @@
+package com.sapphire.rma.service;
+
+import com.sapphire.rma.dto.RmaOperationResponse;
+import com.sapphire.rma.dto.RmaUpdateWithStockRequest;
+import com.sapphire.rma.repository.RmaRepository;
+import com.sapphire.rma.repository.RmaUpdateResult;
+import com.sapphire.rma.repository.RowImages;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.BeanUtils;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.when;
+
+/**
+ * 更新 RMA 並刪除庫存時，庫存保留在交易完成後才消耗或釋放
+ */
+@ExtendWith(MockitoExtension.class)
+class RmaServiceLeaseTest {
+    
+    @Mock
+    private RmaRepository rmaRepository;
+    
+    @Mock
+    private ProductLineService productLineService;
+    
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+    
+    @InjectMocks
+    private RmaService rmaService;
+    
+    private StockReservations reservations;
+    
+    @BeforeEach
+    void setUp() {
+        reservations = new StockReservations();
+        ReflectionTestUtils.setField(reservations, "ttlSeconds", 120L);
+        ReflectionTestUtils.setField(rmaService, "stockReservations", reservations);
+        
+        when(productLineService.isValidProductLine("VGA")).thenReturn(true);
+        when(rmaRepository.existsBySerialNo("VGA", "SN001")).thenReturn(true);
+        when(rmaRepository.updateRmaRecordWithStockDeletion(eq("VGA"), eq("SN001"), anyMap(), eq("STOCK001"), isNull()))
+            .thenReturn(updated());
+        
+        // 模擬服務層的交易
+        TransactionSynchronizationManager.initSynchronization();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+    
+    @Test
+    void leaseIsConsumedOnlyAfterCommit() {
+        StockReservations.Lease lease = reservations.reserve("VGA", "STOCK001", null);
+        RmaOperationResponse response = rmaService.updateRmaRecord(request(lease.getToken()));
+        assertTrue(response.isSuccess());
+        
+        // 交易尚未完成：保留仍有效
+        assertNull(reservations.reserve("VGA", "STOCK001", null));
+        
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertEquals(1L, reservations.getStatistics().get("consumed"));
+    }
+    
+    @Test
+    void rollbackKeepsUserLease() {
+        StockReservations.Lease lease = reservations.reserve("VGA", "STOCK001", null);
+        rmaService.updateRmaRecord(request(lease.getToken()));
+        
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        // 庫存沒有刪除，使用者自己的保留不釋放
+        assertNull(reservations.reserve("VGA", "STOCK001", null));
+        assertNotNull(reservations.reserve("VGA", "STOCK001", lease.getToken()));
+        assertEquals(0L, reservations.getStatistics().get("consumed"));
+    }
+    
+    @Test
+    void rollbackReleasesTemporaryLease() {
+        rmaService.updateRmaRecord(request(null));
+        assertNull(reservations.reserve("VGA", "STOCK001", null));
+        
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        assertNotNull(reservations.reserve("VGA", "STOCK001", null));
+    }
+    
+    private static void complete(int status) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        synchronizations.forEach(synchronization -> synchronization.afterCompletion(status));
+    }
+    
+    private static RmaUpdateWithStockRequest request(String token) {
+        RmaUpdateWithStockRequest request = new RmaUpdateWithStockRequest("VGA", "SN001");
+        request.setStockSerialNoToDelete("STOCK001");
+        request.setReservationToken(token);
+        return request;
+    }
+    
+    private static RmaUpdateResult updated() {
+        try {
+            // 建構子只開放給 repository 套件
+            RowImages images = BeanUtils.instantiateClass(
+                RowImages.class.getDeclaredConstructor(Map.class, Map.class), null, null);
+            return BeanUtils.instantiateClass(
+                RmaUpdateResult.class.getDeclaredConstructor(boolean.class, String.class, RowImages.class),
+                true, null, images);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
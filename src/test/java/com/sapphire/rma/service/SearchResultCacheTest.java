@@ -0,0 +1,66 @@
+package com.sapphire.rma.service;
+
+import com.sapphire.rma.repository.ReadReplicaRoutingDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SearchResultCacheTest {
+    
+    private SearchResultCache cache;
+    private ReadReplicaRoutingDataSource routingDataSource;
+    private final AtomicInteger loads = new AtomicInteger();
+    
+    @BeforeEach
+    void setUp() {
+        cache = new SearchResultCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxCells", 1000L);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 300L);
+        routingDataSource = mock(ReadReplicaRoutingDataSource.class);
+        ReflectionTestUtils.setField(cache, "readReplicaRoutingDataSource", routingDataSource);
+        cache.init();
+    }
+    
+    @Test
+    void resultIsCachedWhenReplicaIsInSync() {
+        load("VGA");
+        load("VGA");
+        assertEquals(1, loads.get());
+    }
+    
+    @Test
+    void resultIsNotCachedWhileReplicaMayBeBehind() {
+        // VGA 剛寫入，副本可能尚未同步；MB 不受影響
+        when(routingDataSource.mayServeStale("VGA")).thenReturn(true);
+        
+        load("VGA");
+        load("VGA");
+        assertEquals(2, loads.get());
+        assertEquals(2L, cache.getStatistics().get("uncachedLoads"));
+        
+        load("MB");
+        load("MB");
+        assertEquals(3, loads.get());
+        
+        when(routingDataSource.mayServeStale("VGA")).thenReturn(false);
+        load("VGA");
+        load("VGA");
+        assertEquals(4, loads.get());
+    }
+    
+    private List<Map<String, Object>> load(String productType) {
+        return cache.get(RecordType.RMA, productType, "serialNo=SN1", () -> {
+            loads.incrementAndGet();
+            return List.of(Map.of("Serial_No", "SN1"));
+        });
+    }
+}
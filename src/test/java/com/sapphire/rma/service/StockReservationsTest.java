@@ -0,0 +1,41 @@
+package com.sapphire.rma.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StockReservationsTest {
+    
+    private StockReservations reservations;
+    
+    @BeforeEach
+    void setUp() {
+        reservations = new StockReservations();
+        ReflectionTestUtils.setField(reservations, "ttlSeconds", 120L);
+    }
+    
+    @Test
+    void serialNoIsCaseInsensitiveAndIgnoresTrailingSpaces() {
+        StockReservations.Lease lease = reservations.reserve("VGA", "abc123", null);
+        assertNotNull(lease);
+        
+        // SQL Server 預設定序下是同一個庫存
+        assertNull(reservations.reserve("VGA", "ABC123", null));
+        assertNull(reservations.reserve("VGA", "Abc123  ", null));
+        
+        assertTrue(reservations.release("VGA", "ABC123 ", lease.getToken()));
+        assertNotNull(reservations.reserve("VGA", "ABC123", null));
+    }
+    
+    @Test
+    void sameTokenExtendsLease() {
+        StockReservations.Lease lease = reservations.reserve("VGA", "SN1", null);
+        assertNotNull(reservations.reserve("VGA", "sn1", lease.getToken()));
+        assertFalse(reservations.release("VGA", "SN1", "other"));
+    }
+}